@@ -1,8 +1,10 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.chart.BarChart;
 import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
@@ -10,253 +12,481 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.scene.control.ListView;
+import javafx.util.StringConverter;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.concurrent.ConcurrentHashMap;
-import javafx.application.Platform;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 // import ThemeManager.java;
 // import Utility.java;
 
-interface UserAuthentication {
-    boolean authenticateUser(String username, String password);
-    boolean authenticateUser(StringBuffer usernameBuffer, String password);
-}
-
-abstract class UserRole {
-    private final boolean isPremium;
+// Progress bar and status line for a CSV import. Progress from the import threads is merged into
+// at most one Platform.runLater per pulse, the same way ExpenseListBinding does.
+class ImportProgressPane extends HBox implements ImportListener {
+    private final ProgressBar progressBar = new ProgressBar(0);
+    private final Label statusLabel = new Label();
+    private final Button importButton = new Button("Import CSV");
+    private double progress;
+    private String status;
+    private boolean updateScheduled = false;
 
-    public UserRole(boolean isPremium) {
-        this.isPremium = isPremium;
+    ImportProgressPane() {
+        super(10);
+        getChildren().addAll(progressBar, statusLabel);
+        setPadding(new Insets(0, 10, 0, 10));
+        setVisible(false);
     }
 
-    public boolean isPremium() {
-        return isPremium;
+    // Disabled while an import runs, so one user never has two imports at once
+    Button getImportButton() {
+        return importButton;
     }
 
-    public abstract void showView(Stage primaryStage);
-}
-
-class Database<T> {
-    private final List<T> items = Collections.synchronizedList(new ArrayList<>()); 
-    
-    public synchronized void addItem(T item) {
-        items.add(item);
+    // Must be called on the FX thread
+    void start(User user, File file) {
+        importButton.setDisable(true);
+        progressBar.setProgress(0);
+        statusLabel.setText("Importing " + file.getName() + "...");
+        setVisible(true);
+        new ExpenseImporter(user, file.toPath(), this).start();
     }
 
-    public synchronized T findItem(Predicate<T> predicate) {
-        for (T item : items) {
-            if (predicate.test(item)) {
-                return item;
+    @Override
+    public void importProgress(long bytesRead, long totalBytes, long rowsImported, long rowsRejected) {
+        synchronized (this) {
+            progress = totalBytes == 0 ? 1 : (double) bytesRead / totalBytes;
+            status = rowsImported + " imported, " + rowsRejected + " rejected";
+            if (!updateScheduled) {
+                updateScheduled = true;
+                Platform.runLater(this::update);
             }
         }
-        return null;
     }
 
-    public List<T> getAllItems() {
-        return new ArrayList<>(items);
-    }
-}
-
-class UserDatabase {
-    private static final Map<String, User> userDatabase = new ConcurrentHashMap<>();
-
-    public static synchronized void addUser(User user) {
-        userDatabase.put(user.getUsername(), user);
+    @Override
+    public void importFinished(ImportResult result) {
+        Platform.runLater(() -> {
+            importButton.setDisable(false);
+            progressBar.setProgress(1);
+            statusLabel.setText(result.getRowsImported() + " imported, " + result.getRowsRejected() + " rejected in "
+                    + result.getElapsedMillis() + " ms");
+            if (result.getRowsRejected() > 0) {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Import Finished");
+                alert.setContentText(result.getRowsRejected() + " rows were skipped, for example:\n"
+                        + String.join("\n", result.getRejectedSamples()));
+                alert.show();
+            }
+        });
     }
 
-    public static synchronized User findUserByUsername(String username) {
-        return userDatabase.get(username);  
+    @Override
+    public void importFailed(ImportException error) {
+        System.err.println("Error importing expenses: " + error.getMessage());
+        Platform.runLater(() -> {
+            importButton.setDisable(false);
+            setVisible(false);
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Import Failed");
+            alert.setContentText(error.getMessage());
+            alert.show();
+        });
     }
 
-    public static Map<String, User> getAllUsers() {
-        return userDatabase;
+    private void update() {
+        double currentProgress;
+        String currentStatus;
+        synchronized (this) {
+            currentProgress = progress;
+            currentStatus = status;
+            updateScheduled = false;
+        }
+        progressBar.setProgress(currentProgress);
+        statusLabel.setText(currentStatus);
     }
 }
 
-class User extends UserRole implements UserAuthentication {
-    private final String username;
-    private final String password;
-    private final List<Expense> expenses;
-
-    public User(String username, String password, boolean isPremium) {
-        super(isPremium);
-        this.username = username;
-        this.password = password;
-        this.expenses = new ArrayList<>();
-    }
-
-    public String getUsername() {
-        return username;
+// Notice for budgets that went over, shown above the expense list until dismissed so adding
+// expenses is never interrupted. Alerts arrive on whichever thread appended the expense; only the
+// latest is kept and shown at most once per pulse, like ImportProgressPane.
+class BudgetAlertBar extends HBox implements BudgetAlertListener {
+    private final Label messageLabel = new Label();
+    private final Button dismissButton = new Button("Dismiss");
+    // Guarded by this
+    private String latest;
+    private int pending = 0;
+    private boolean updateScheduled = false;
+    // Alerts shown since the last dismiss, FX thread only
+    private int unread = 0;
+
+    BudgetAlertBar() {
+        super(10);
+        getChildren().addAll(messageLabel, dismissButton);
+        setPadding(new Insets(0, 10, 0, 10));
+        setVisible(false);
+        dismissButton.setOnAction(e -> dismiss());
     }
 
-    public String getPassword() {
-        return password;
+    @Override
+    public void budgetExceeded(BudgetAlert alert) {
+        synchronized (this) {
+            latest = alert.toString();
+            pending++;
+            if (!updateScheduled) {
+                updateScheduled = true;
+                Platform.runLater(this::update);
+            }
+        }
     }
 
-    public List<Expense> getExpenses() {
-        return expenses;
+    // Must be called on the FX thread
+    void showMessage(String message) {
+        unread = 0;
+        messageLabel.setText(message);
+        setVisible(true);
     }
 
-    @Override
-    public boolean authenticateUser(String username, String password) {
-        return this.username.equals(username) && this.password.equals(password);
+    private void update() {
+        String message;
+        synchronized (this) {
+            message = latest;
+            unread += pending;
+            pending = 0;
+            updateScheduled = false;
+        }
+        messageLabel.setText(unread > 1 ? message + " (" + (unread - 1) + " more)" : message);
+        setVisible(true);
     }
 
-    @Override
-    public boolean authenticateUser(StringBuffer usernameBuffer, String password) {
-        return this.username.contentEquals(usernameBuffer) && this.password.equals(password);
+    private void dismiss() {
+        unread = 0;
+        setVisible(false);
     }
+}
 
-    @Override
-    public void showView(Stage primaryStage) {
-        if (isPremium()) {
-            new PremiumView().display(primaryStage, this);
-        } else {
-            new NormalView().display(primaryStage, this);
+// Expense tracker screen shared by both account types. The node graph is built once per view
+// type and cached in SceneCache; showing it again only rebinds it to the user's ExpenseViewModel.
+abstract class ExpenseTrackerView implements CachedScreen {
+    private static final Histogram showTimer = Metrics.timer("ui.showTracker");
+
+    private Stage primaryStage;
+    private User user;
+    private ExpenseViewModel model;
+
+    private Scene scene;
+    private TextField amountField;
+    private TextField categoryField;
+    private ChoiceBox<BudgetWindow> budgetWindowChoice;
+    private HBox buttonBox;
+    private VBox vbox;
+    private ListView<Integer> expenseListView;
+    private TextField searchField;
+    private Label searchStatus;
+    private final SearchResultList searchResults = new SearchResultList();
+    // Reruns the shown search when the ledger changes; rows change at most once per pulse
+    private final ListChangeListener<Integer> rowsListener = change -> {
+        if (expenseListView.getItems() == searchResults) {
+            search();
         }
+    };
+    // Only the latest search may fill searchResults; at most one runs at a time
+    private int searchGeneration = 0;
+    private boolean searchRunning = false;
+    private boolean searchAgain = false;
+
+    // Shows the cached screen for this view type; factory only runs when it is not cached yet
+    public static void display(Stage primaryStage, User user, String viewType, Supplier<ExpenseTrackerView> factory) {
+        SceneCache.get("tracker:" + viewType, factory).show(primaryStage, user);
     }
-}
 
-class Expense {
-    private final double amount;
-    private final String category;
+    protected abstract boolean isCategoryAllowed(User user, String category);
 
-    public Expense(double amount, String category) {
-        this.amount = amount;
-        this.category = category;
-    }
+    protected abstract String invalidCategoryMessage();
 
-    public double getAmount() {
-        return amount;
+    @Override
+    public Scene getScene() {
+        return scene;
     }
 
-    public String getCategory() {
-        return category;
+    @Override
+    public void signedOut() {
+        if (model != null) {
+            model.getRows().removeListener(rowsListener);
+        }
+        user = null;
+        model = null;
+        searchGeneration++;
+        searchResults.setRows(new int[0]);
+        if (expenseListView != null) {
+            expenseListView.setItems(null);
+        }
     }
-}
 
-class PremiumView {
-    private final ObservableList<String> expenseItems = FXCollections.observableArrayList();
-    
-    public void display(Stage primaryStage, User user) {
-        setupExpenseTracker(primaryStage, user, true);
+    private void show(Stage primaryStage, User user) {
+        long start = System.nanoTime();
+        this.primaryStage = primaryStage;
+        if (scene == null) {
+            setupExpenseTracker();
+        }
+        if (user != this.user) {
+            bind(user);
+        }
+        try {
+            ThemeManager.applyTheme(scene, primaryStage);
+        } catch (ThemeApplicationException e) {
+            System.err.println("Error applying theme: " + e.getMessage());
+        }
+        primaryStage.setScene(scene);
+        primaryStage.show();
+        showTimer.recordSince(start);
     }
 
-    private void setupExpenseTracker(Stage primaryStage, User user, boolean isPremium) {
-        TextField amountField = new TextField();
+    private void setupExpenseTracker() {
+        amountField = new TextField();
         amountField.setPromptText("Amount");
-        TextField categoryField = new TextField();
+        categoryField = new TextField();
         categoryField.setPromptText("Category");
+        budgetWindowChoice = new ChoiceBox<>(FXCollections.observableArrayList(BudgetWindow.values()));
+        budgetWindowChoice.setValue(BudgetWindow.THIS_MONTH);
 
         Button addButton = new Button("Add Expense");
+        Button setBudgetButton = new Button("Set Budget");
         Button clearButton = new Button("Clear All");
-        Button showChartButton = new Button("Show Bar Chart");
+        Button showChartButton = new Button("Show Charts");
+        Button backUpButton = new Button("Back Up");
         Button signOutButton = new Button("Sign Out");
         Button toggleThemeButton = new Button("Toggle Theme");
 
-        ListView<String> expenseListView = new ListView<>(expenseItems); 
+        expenseListView = new ListView<>();
+        expenseListView.setFixedCellSize(24);
+        searchField = new TextField();
+        searchField.setPromptText("Search, e.g. travel >200");
+        searchField.textProperty().addListener((observable, oldText, newText) -> search());
+        searchStatus = new Label();
 
         toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
-        addButton.setOnAction(e -> addExpense(user, amountField, categoryField));
-        clearButton.setOnAction(e -> clearExpenses(user));
-        showChartButton.setOnAction(e -> showBarChart(primaryStage, user));
-        signOutButton.setOnAction(e -> signOut(primaryStage));
-
-        HBox inputBox = new HBox(10, amountField, categoryField);
-        HBox buttonBox = new HBox(10, addButton, clearButton, showChartButton, signOutButton, toggleThemeButton);
+        addButton.setOnAction(e -> addExpense());
+        setBudgetButton.setOnAction(e -> setBudget());
+        clearButton.setOnAction(e -> clearExpenses());
+        showChartButton.setOnAction(e -> showBarChart());
+        backUpButton.setOnAction(e -> backUp(backUpButton));
+        signOutButton.setOnAction(e -> signOut());
+
+        HBox inputBox = new HBox(10, amountField, categoryField, budgetWindowChoice, setBudgetButton);
+        // The import button and progress pane belong to the user's view model, placeholders until bind()
+        buttonBox = new HBox(10, addButton, new Region(), clearButton, showChartButton, backUpButton, signOutButton, toggleThemeButton);
         inputBox.setPadding(new Insets(10));
         buttonBox.setPadding(new Insets(10));
 
-        VBox vbox = new VBox(10, inputBox, buttonBox, expenseListView);
+        HBox searchBox = new HBox(10, searchField, searchStatus);
+        searchBox.setPadding(new Insets(0, 10, 0, 10));
 
-        Scene scene = new Scene(vbox, 600, 200);
-        ThemeManager.applyTheme(scene, primaryStage);
-        primaryStage.setScene(scene);
-        primaryStage.show();
-        
-        Thread updateExpensesThread = new Thread(() -> {
-            while (true) {
-                Platform.runLater(() -> loadExpenses(user));  
-                try {
-                    Thread.sleep(1000);  
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        // Placeholders for the import progress and budget alerts, see bind()
+        vbox = new VBox(10, inputBox, buttonBox, new Region(), new Region(), searchBox, expenseListView);
+
+        scene = new Scene(vbox, 600, 240);
+    }
+
+    private void bind(User user) {
+        if (model != null) {
+            model.getRows().removeListener(rowsListener);
+        }
+        this.user = user;
+        this.model = ExpenseViewModel.of(user);
+        amountField.clear();
+        categoryField.clear();
+        ImportProgressPane importProgress = model.getImportProgress();
+        importProgress.getImportButton().setOnAction(e -> importExpenses(importProgress));
+        buttonBox.getChildren().set(1, importProgress.getImportButton());
+        vbox.getChildren().set(2, importProgress);
+        vbox.getChildren().set(3, model.getBudgetAlerts());
+        expenseListView.setItems(model.getRows());
+        ExpenseListBinding binding = model.getBinding();
+        expenseListView.setCellFactory(view -> new ExpenseCell(binding));
+        model.getRows().addListener(rowsListener);
+        searchField.clear();
+    }
+
+    // Runs the query in the search field on a background thread and shows the matching rows.
+    // Changes while a search runs only mark it for one more run, so typing or a running import
+    // never queues up searches.
+    private void search() {
+        if (model == null) {
+            return;
+        }
+        String text = searchField.getText().trim();
+        if (text.isEmpty()) {
+            searchGeneration++;
+            searchStatus.setText("");
+            expenseListView.setItems(model.getRows());
+            return;
+        }
+        if (searchRunning) {
+            searchAgain = true;
+            return;
+        }
+        SearchQuery query;
+        try {
+            query = SearchQuery.parse(text);
+        } catch (IllegalArgumentException e) {
+            searchStatus.setText(e.getMessage());
+            return;
+        }
+        searchRunning = true;
+        int generation = searchGeneration;
+        ExpenseSearchIndex index = model.getSearchIndex();
+        CompletableFuture.supplyAsync(() -> index.search(query)).whenComplete((rows, error) -> Platform.runLater(() -> {
+            searchRunning = false;
+            if (generation == searchGeneration) {
+                if (error != null) {
+                    searchStatus.setText("");
+                    System.err.println("Error searching expenses: " + error.getMessage());
+                } else {
+                    searchResults.setRows(rows);
+                    searchStatus.setText(rows.length + (rows.length == 1 ? " expense" : " expenses"));
+                    if (expenseListView.getItems() != searchResults) {
+                        expenseListView.setItems(searchResults);
+                    }
                 }
             }
-        });
-        updateExpensesThread.setDaemon(true);
-        updateExpensesThread.start();
+            if (searchAgain) {
+                searchAgain = false;
+                search();
+            }
+        }));
     }
 
-    private void addExpense(User user, TextField amountField, TextField categoryField) {
+    private void addExpense() {
         try {
-            double amount = Double.parseDouble(amountField.getText());
+            long amount = Money.parse(amountField.getText());
             String category = categoryField.getText();
-            if (!category.isEmpty() && (user.isPremium() /*|| Utility.isValidCategory(category)*/)) {
-                Expense expense = new Expense(amount, category);
-                user.getExpenses().add(expense);
-                expenseItems.add("Category: " + category + ", Amount: $" + amount); 
+            if (!category.isEmpty() && isCategoryAllowed(user, category)) {
+                user.getWriteBuffer().add(new Expense(amount, category));
                 amountField.clear();
                 categoryField.clear();
             } else {
-                showAlert("Invalid Category", "Please enter a valid category.");
+                showAlert("Invalid Category", invalidCategoryMessage());
             }
         } catch (NumberFormatException ex) {
             showAlert("Invalid Input", "Please enter a valid number for the amount.");
+        } catch (ArithmeticException ex) {
+            showAlert("Invalid Input", "The amount is too large to add to your totals.");
         }
     }
 
-    private void clearExpenses(User user) {
-        user.getExpenses().clear();
-        expenseItems.clear(); 
-    }
-
-    private void loadExpenses(User user) {
-        expenseItems.clear();
-        for (Expense expense : user.getExpenses()) {
-            expenseItems.add("Category: " + expense.getCategory() + ", Amount: $" + expense.getAmount());
+    // A budget from the amount and category fields, for all categories if the category is empty.
+    // An amount of zero removes the budget on that category and window.
+    private void setBudget() {
+        long limit;
+        try {
+            limit = Money.parse(amountField.getText());
+        } catch (NumberFormatException ex) {
+            showAlert("Invalid Input", "Please enter a valid number for the budget.");
+            return;
         }
-    }
-
-    private void showBarChart(Stage primaryStage, User user) {
-        CategoryAxis xAxis = new CategoryAxis();
-        xAxis.setLabel("Category");
-        NumberAxis yAxis = new NumberAxis();
-        yAxis.setLabel("Amount");
-
-        BarChart<String, Number> barChart = new BarChart<>(xAxis, yAxis);
-        barChart.setTitle("Expenses by Category");
-
-        Map<String, Double> categoryTotals = new HashMap<>();
-        for (Expense expense : user.getExpenses()) {
-            categoryTotals.merge(expense.getCategory(), expense.getAmount(), Double::sum);
+        String category = categoryField.getText();
+        if (limit < 0) {
+            showAlert("Invalid Input", "A budget cannot be negative.");
+            return;
+        }
+        if (!category.isEmpty() && !isCategoryAllowed(user, category)) {
+            showAlert("Invalid Category", invalidCategoryMessage());
+            return;
+        }
+        String ruleCategory = category.isEmpty() ? null : category;
+        BudgetWindow window = budgetWindowChoice.getValue();
+        BudgetRules rules = user.getBudgetRules();
+        BudgetAlertBar alerts = model.getBudgetAlerts();
+        // Filling a new budget's window takes the ledger lock, which an import may be holding
+        CompletableFuture.supplyAsync(() -> {
+            if (limit == 0) {
+                return rules.remove(ruleCategory, window)
+                        ? "Removed the budget for " + (ruleCategory == null ? "all spending" : ruleCategory) + " " + window
+                        : "There was no budget for " + (ruleCategory == null ? "all spending" : ruleCategory) + " " + window;
+            }
+            BudgetRule rule = new BudgetRule(ruleCategory, limit, window);
+            long spent = rules.put(rule);
+            return "Alert when " + rule + ", " + Money.format(spent) + " spent so far";
+        }).whenComplete((message, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                System.err.println("Error setting budget: " + error.getMessage());
+                return;
+            }
+            amountField.clear();
+            categoryField.clear();
+            alerts.showMessage(message);
+        }));
+    }
+
+    private void importExpenses(ImportProgressPane importProgress) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import Expenses");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+        File file = chooser.showOpenDialog(primaryStage);
+        if (file != null) {
+            importProgress.start(user, file);
         }
+    }
 
-        XYChart.Series<String, Number> series = new XYChart.Series<>();
-        series.setName("Expenses");
+    private void clearExpenses() {
+        // Expenses still in the write buffer were added before the click and go too
+        user.getWriteBuffer().flush();
+        user.getLedger().clear();
+    }
 
-        for (Map.Entry<String, Double> entry : categoryTotals.entrySet()) {
-            series.getData().add(new XYChart.Data<>(entry.getKey(), entry.getValue()));
+    // Writes the user and all their expenses to one file, see LedgerSnapshot
+    private void backUp(Button backUpButton) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Back Up Expenses");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Expense backups", "*.expb"));
+        File file = chooser.showSaveDialog(primaryStage);
+        if (file == null) {
+            return;
         }
-        barChart.getData().add(series);
-
-        Button backButton = new Button("Back");
-        backButton.setOnAction(e -> user.showView(primaryStage));
-        Button toggleThemeButton = new Button("Toggle Theme");
-        toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
+        User backedUp = user;
+        // Expenses still in the write buffer were added before the click and go too
+        backedUp.getWriteBuffer().flush();
+        backUpButton.setDisable(true);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return LedgerSnapshot.write(backedUp, file.toPath());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((rows, error) -> Platform.runLater(() -> {
+            backUpButton.setDisable(false);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                System.err.println("Error backing up expenses: " + cause.getMessage());
+                showAlert("Backup Failed", cause.getMessage());
+            } else {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Backup Finished");
+                alert.setContentText(rows + " expenses saved to " + file.getName());
+                alert.show();
+            }
+        }));
+    }
 
-        VBox vbox = new VBox(10, barChart, backButton, toggleThemeButton);
-        Scene chartScene = new Scene(vbox, 600, 400);
-        ThemeManager.applyTheme(chartScene, primaryStage);
-        primaryStage.setScene(chartScene);
+    private void showBarChart() {
+        SceneCache.get("chart", ExpenseChartView::new).show(primaryStage, user, model);
     }
 
-    private void signOut(Stage primaryStage) {
+    private void signOut() {
+        ExpenseViewModel.release(user);
+        App.signedOut(user);
+        SceneCache.signedOut();
         new App().showSignInStage(primaryStage);
     }
 
@@ -268,142 +498,320 @@ class PremiumView {
     }
 }
 
+// Chart screen, built once: category totals as bars and spending per day as a line, both from
+// ExpenseChartData so their size stays bounded. The data is computed in the background, and
+// applied by updating the existing bars and points in place, so nodes that are still there are
+// reused instead of the charts being rebuilt. While the screen is shown it follows the ledger,
+// so expenses arriving from an import or the server show up without leaving it.
+class ExpenseChartView implements CachedScreen {
+    private static final Histogram showTimer = Metrics.timer("ui.showChart");
+
+    private final XYChart.Series<String, Number> series = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> daySeries = new XYChart.Series<>();
+    private final ChoiceBox<ChartPeriod> periodChoice = new ChoiceBox<>(FXCollections.observableArrayList(ChartPeriod.values()));
+    private final Label statsLabel = new Label();
+    private final Scene scene;
+    // Only the latest analysis may update statsLabel
+    private int analysisGeneration = 0;
+    // Only the latest chart data may be applied; at most one computation runs at a time
+    private int chartGeneration = 0;
+    private boolean chartRunning = false;
+    private boolean chartAgain = false;
+    // Ledger changes arrive on writer threads, refreshes are coalesced to one queued at a time
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private final ExpenseLedgerListener ledgerListener = new ExpenseLedgerListener() {
+        @Override
+        public void expensesAppended(ExpenseLedger ledger, int fromIndex, int toIndex) {
+            queueRefresh();
+        }
 
-class NormalView {
-    private final ObservableList<String> expenseItems = FXCollections.observableArrayList();
+        @Override
+        public void expensesRemoved(ExpenseLedger ledger, int fromIndex, int toIndex) {
+            queueRefresh();
+        }
 
-    public void display(Stage primaryStage, User user) {
-        setupExpenseTracker(primaryStage, user, false);
-    }
+        @Override
+        public void expensesCleared(ExpenseLedger ledger) {
+            queueRefresh();
+        }
+    };
+    private Stage primaryStage;
+    private User user;
+    private ExpenseViewModel model;
 
-    private void setupExpenseTracker(Stage primaryStage, User user, boolean isPremium) {
-        TextField amountField = new TextField();
-        amountField.setPromptText("Amount");
-        TextField categoryField = new TextField();
-        categoryField.setPromptText("Category");
+    ExpenseChartView() {
+        CategoryAxis xAxis = new CategoryAxis();
+        xAxis.setLabel("Category");
+        NumberAxis yAxis = new NumberAxis();
+        yAxis.setLabel("Amount");
 
-        Button addButton = new Button("Add Expense");
-        Button clearButton = new Button("Clear All");
-        Button showChartButton = new Button("Show Bar Chart");
-        Button signOutButton = new Button("Sign Out");
-        Button toggleThemeButton = new Button("Toggle Theme");
+        BarChart<String, Number> barChart = new BarChart<>(xAxis, yAxis);
+        barChart.setTitle("Expenses by Category");
 
-        ListView<String> expenseListView = new ListView<>(expenseItems); 
+        series.setName("Expenses");
+        barChart.getData().add(series);
 
-        toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
-        addButton.setOnAction(e -> addExpense(user, amountField, categoryField));
-        clearButton.setOnAction(e -> clearExpenses(user));
-        showChartButton.setOnAction(e -> showBarChart(primaryStage, user));
-        signOutButton.setOnAction(e -> signOut(primaryStage));
+        NumberAxis dayAxis = new NumberAxis();
+        dayAxis.setLabel("Day");
+        dayAxis.setForceZeroInRange(false);
+        dayAxis.setTickLabelFormatter(new StringConverter<Number>() {
+            @Override
+            public String toString(Number epochDay) {
+                return LocalDate.ofEpochDay(epochDay.longValue()).toString();
+            }
 
-        HBox inputBox = new HBox(10, amountField, categoryField);
-        HBox buttonBox = new HBox(10, addButton, clearButton, showChartButton, signOutButton, toggleThemeButton);
-        inputBox.setPadding(new Insets(10));
-        buttonBox.setPadding(new Insets(10));
+            @Override
+            public Number fromString(String text) {
+                return LocalDate.parse(text).toEpochDay();
+            }
+        });
+        NumberAxis dayAmountAxis = new NumberAxis();
+        dayAmountAxis.setLabel("Amount");
 
-        VBox vbox = new VBox(10, inputBox, buttonBox, expenseListView);
+        LineChart<Number, Number> dayChart = new LineChart<>(dayAxis, dayAmountAxis);
+        dayChart.setTitle("Spending per Day");
+        dayChart.setCreateSymbols(false);
 
-        Scene scene = new Scene(vbox, 600, 200);
-        ThemeManager.applyTheme(scene, primaryStage);
-        primaryStage.setScene(scene);
-        primaryStage.show();
+        daySeries.setName("Spent");
+        dayChart.getData().add(daySeries);
 
-        Thread updateExpensesThread = new Thread(() -> {
-            while (true) {
-                Platform.runLater(() -> loadExpenses(user));
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        periodChoice.setOnAction(e -> {
+            if (model != null && periodChoice.getValue() != model.getChartPeriod()) {
+                model.setChartPeriod(periodChoice.getValue());
+                refreshCharts();
             }
         });
-        updateExpensesThread.setDaemon(true);
-        updateExpensesThread.start();
+
+        Button backButton = new Button("Back");
+        backButton.setOnAction(e -> {
+            user.getLedger().removeListener(ledgerListener);
+            user.showView(primaryStage);
+        });
+        Button toggleThemeButton = new Button("Toggle Theme");
+        toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
+
+        VBox vbox = new VBox(10, periodChoice, barChart, dayChart, statsLabel, backButton, toggleThemeButton);
+        scene = new Scene(vbox, 600, 700);
     }
 
-    private void addExpense(User user, TextField amountField, TextField categoryField) {
+    @Override
+    public Scene getScene() {
+        return scene;
+    }
+
+    @Override
+    public void signedOut() {
+        if (user != null) {
+            user.getLedger().removeListener(ledgerListener);
+        }
+        user = null;
+        model = null;
+        analysisGeneration++;
+        chartGeneration++;
+        series.getData().clear();
+        daySeries.getData().clear();
+        statsLabel.setText("");
+    }
+
+    void show(Stage primaryStage, User user, ExpenseViewModel model) {
+        long start = System.nanoTime();
+        if (this.user != null) {
+            this.user.getLedger().removeListener(ledgerListener);
+        }
+        this.primaryStage = primaryStage;
+        this.user = user;
+        this.model = model;
+        user.getLedger().addListener(ledgerListener);
+        periodChoice.setValue(model.getChartPeriod());
+        refreshCharts();
+        showStatistics();
         try {
-            double amount = Double.parseDouble(amountField.getText());
-            String category = categoryField.getText();
-            if (!category.isEmpty() && (user.isPremium() || Utility.isValidCategory(category))) {
-                Expense expense = new Expense(amount, category);
-                user.getExpenses().add(expense);
-                expenseItems.add("Category: " + category + ", Amount: $" + amount); 
-                amountField.clear();
-                categoryField.clear();
-            } else {
-                showAlert("Invalid Category", "Please enter a valid category. (Food, Travel, Entertainment, Others)");
-            }
-        } catch (NumberFormatException ex) {
-            showAlert("Invalid Input", "Please enter a valid number for the amount.");
+            ThemeManager.applyTheme(scene, primaryStage);
+        } catch (ThemeApplicationException e) {
+            System.err.println("Error applying theme: " + e.getMessage());
         }
+        primaryStage.setScene(scene);
+        showTimer.recordSince(start);
     }
 
-    private void clearExpenses(User user) {
-        user.getExpenses().clear();
-        expenseItems.clear();
+    // Scans the whole ledger in the background, which can take a moment for very large ones
+    private void showStatistics() {
+        int generation = ++analysisGeneration;
+        statsLabel.setText("Calculating statistics...");
+        ExpenseAnalytics.analyze(user.getLedger()).whenComplete((report, error) -> Platform.runLater(() -> {
+            if (generation != analysisGeneration) {
+                return;
+            }
+            if (error != null) {
+                statsLabel.setText("");
+                System.err.println("Error calculating statistics: " + error.getMessage());
+            } else if (report.getCount() == 0) {
+                statsLabel.setText("No expenses yet.");
+            } else {
+                statsLabel.setText(String.format("%d expenses, median %s%s, 90%% under %s%s, most spent on %s",
+                        report.getCount(), Money.SYMBOL, Money.format(report.percentile(0.5)),
+                        Money.SYMBOL, Money.format(report.percentile(0.9)),
+                        report.topCategories(1).get(0).getCategory()));
+            }
+        }));
     }
 
-    private void loadExpenses(User user) {
-        expenseItems.clear();
-        for (Expense expense : user.getExpenses()) {
-            expenseItems.add("Category: " + expense.getCategory() + ", Amount: $" + expense.getAmount());
+    private void queueRefresh() {
+        if (refreshQueued.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                refreshQueued.set(false);
+                refreshCharts();
+            });
         }
     }
 
-    private void showBarChart(Stage primaryStage, User user) {
-        CategoryAxis xAxis = new CategoryAxis();
-        xAxis.setLabel("Category");
-        NumberAxis yAxis = new NumberAxis();
-        yAxis.setLabel("Amount");
-
-        BarChart<String, Number> barChart = new BarChart<>(xAxis, yAxis);
-        barChart.setTitle("Expenses by Category");
-
-        Map<String, Double> categoryTotals = new HashMap<>();
-        for (Expense expense : user.getExpenses()) {
-            categoryTotals.merge(expense.getCategory(), expense.getAmount(), Double::sum);
+    // Changes while a computation runs only mark it for one more run, so a running import
+    // never queues up work behind it
+    private void refreshCharts() {
+        if (model == null) {
+            return;
         }
+        if (chartRunning) {
+            chartAgain = true;
+            return;
+        }
+        chartRunning = true;
+        int generation = ++chartGeneration;
+        ExpenseLedger ledger = user.getLedger();
+        ChartPeriod period = model.getChartPeriod();
+        CompletableFuture.supplyAsync(() -> ExpenseChartData.compute(ledger, period)).whenComplete((chart, error) -> Platform.runLater(() -> {
+            chartRunning = false;
+            if (generation == chartGeneration) {
+                if (error != null) {
+                    System.err.println("Error calculating chart: " + error.getMessage());
+                } else {
+                    updateBars(chart.getBars());
+                    updateDays(chart);
+                }
+            }
+            if (chartAgain) {
+                chartAgain = false;
+                refreshCharts();
+            }
+        }));
+    }
 
-        XYChart.Series<String, Number> series = new XYChart.Series<>();
-        series.setName("Expenses");
+    private void updateBars(Map<String, Long> totals) {
+        List<XYChart.Data<String, Number>> data = series.getData();
+        Map<String, XYChart.Data<String, Number>> existing = new HashMap<>();
+        for (XYChart.Data<String, Number> bar : data) {
+            existing.put(bar.getXValue(), bar);
+        }
+        data.removeIf(bar -> !totals.containsKey(bar.getXValue()));
+        List<XYChart.Data<String, Number>> added = new ArrayList<>();
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            XYChart.Data<String, Number> bar = existing.get(total.getKey());
+            // Totals are exact, only the bar height is a double
+            Double height = Money.toDouble(total.getValue());
+            if (bar == null) {
+                added.add(new XYChart.Data<>(total.getKey(), height));
+            } else if (!height.equals(bar.getYValue())) {
+                bar.setYValue(height);
+            }
+        }
+        data.addAll(added);
+    }
 
-        for (Map.Entry<String, Double> entry : categoryTotals.entrySet()) {
-            series.getData().add(new XYChart.Data<>(entry.getKey(), entry.getValue()));
+    // Points are matched by position: the first dayCount() points are moved to the new values and
+    // only the difference in length is added or removed
+    private void updateDays(ExpenseChartData chart) {
+        ObservableList<XYChart.Data<Number, Number>> points = daySeries.getData();
+        int count = chart.dayCount();
+        if (points.size() > count) {
+            points.remove(count, points.size());
         }
-        barChart.getData().add(series);
+        List<XYChart.Data<Number, Number>> added = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Long day = chart.dayAt(i);
+            Double amount = Money.toDouble(chart.daySumAt(i));
+            if (i < points.size()) {
+                XYChart.Data<Number, Number> point = points.get(i);
+                if (!day.equals(point.getXValue())) {
+                    point.setXValue(day);
+                }
+                if (!amount.equals(point.getYValue())) {
+                    point.setYValue(amount);
+                }
+            } else {
+                added.add(new XYChart.Data<>(day, amount));
+            }
+        }
+        points.addAll(added);
+    }
+}
 
-        Button backButton = new Button("Back");
-        backButton.setOnAction(e -> user.showView(primaryStage));
-        Button toggleThemeButton = new Button("Toggle Theme");
-        toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
+class PremiumView extends ExpenseTrackerView {
+    @Override
+    protected boolean isCategoryAllowed(User user, String category) {
+        return user.isPremium() /*|| Utility.isValidCategory(category)*/;
+    }
 
-        VBox vbox = new VBox(10, barChart, backButton, toggleThemeButton);
-        Scene chartScene = new Scene(vbox, 600, 400);
-        ThemeManager.applyTheme(chartScene, primaryStage);
-        primaryStage.setScene(chartScene);
+    @Override
+    protected String invalidCategoryMessage() {
+        return "Please enter a valid category.";
     }
+}
 
-    private void signOut(Stage primaryStage) {
-        new App().showSignInStage(primaryStage);
+class NormalView extends ExpenseTrackerView {
+    @Override
+    protected boolean isCategoryAllowed(User user, String category) {
+        return CategoryRegistry.isAllowed(user, category);
     }
 
-    private void showAlert(String title, String message) {
-        Alert alert = new Alert(Alert.AlertType.ERROR);
-        alert.setTitle(title);
-        alert.setContentText(message);
-        alert.showAndWait();
+    @Override
+    protected String invalidCategoryMessage() {
+        return "Please enter a valid category. (Food, Travel, Entertainment, Others)";
     }
 }
 
 public class App extends Application {
+    private static ExpenseJournal journal = null;
+    // Pages idle users' expenses out to disk; null if its directory could not be set up
+    private static SessionManager sessions = null;
+    // Two hashing threads keep the machine responsive; 5 failed sign-ins per user, then one a minute
+    private static final AuthenticationService authentication = new AuthenticationService(
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2)), 32, 5, 60_000);
     private User currentUser = null;
-    
+
+    // Sign-in and sign-up forms, cached like the other screens; showing one again clears its fields
+    private static final class FormScreen implements CachedScreen {
+        private final Scene scene;
+        private final TextField[] fields;
+
+        FormScreen(Scene scene, TextField... fields) {
+            this.scene = scene;
+            this.fields = fields;
+        }
+
+        @Override
+        public Scene getScene() {
+            return scene;
+        }
+
+        void reset() {
+            for (TextField field : fields) {
+                field.clear();
+            }
+        }
+    }
+
     @Override
     public void start(Stage primaryStage) {
         primaryStage.setTitle("Expense Tracker - Sign Up");
+        showForm(primaryStage, SceneCache.get("signUp", () -> buildSignUp(primaryStage)));
+        if (Boolean.getBoolean("expensetracker.diagnostics")) {
+            DiagnosticsPanel.show();
+        } else if (Boolean.getBoolean("expensetracker.frameMetrics")) {
+            DiagnosticsPanel.startFrameMonitor();
+        }
+    }
 
+    private FormScreen buildSignUp(Stage primaryStage) {
         TextField usernameField = new TextField();
         usernameField.setPromptText("Username");
         PasswordField passwordField = new PasswordField();
@@ -420,7 +828,7 @@ public class App extends Application {
         Button signInButton = new Button("Already have an account? Sign In");
         Button toggleThemeButton = new Button("Toggle Theme");
 
-        signUpButton.setOnAction(e -> signUp(primaryStage, usernameField, passwordField, premiumUserRadio.isSelected()));
+        signUpButton.setOnAction(e -> signUp(primaryStage, signUpButton, usernameField, passwordField, premiumUserRadio.isSelected()));
         signInButton.setOnAction(e -> showSignInStage(primaryStage));
         toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
 
@@ -428,12 +836,21 @@ public class App extends Application {
         signUpLayout.setPadding(new Insets(10));
 
         Scene signUpScene = new Scene(signUpLayout, 300, 200);
-        ThemeManager.applyTheme(signUpScene, primaryStage);
-        primaryStage.setScene(signUpScene);
+        return new FormScreen(signUpScene, usernameField, passwordField);
+    }
+
+    private void showForm(Stage primaryStage, FormScreen screen) {
+        screen.reset();
+        try {
+            ThemeManager.applyTheme(screen.getScene(), primaryStage);
+        } catch (ThemeApplicationException e) {
+            System.err.println("Error applying theme: " + e.getMessage());
+        }
+        primaryStage.setScene(screen.getScene());
         primaryStage.show();
     }
 
-    private void signUp(Stage primaryStage, TextField usernameField, PasswordField passwordField, boolean isPremium) {
+    private void signUp(Stage primaryStage, Button signUpButton, TextField usernameField, PasswordField passwordField, boolean isPremium) {
         String username = usernameField.getText();
         String password = passwordField.getText();
         if (username.isEmpty() || password.isEmpty()) {
@@ -441,22 +858,30 @@ public class App extends Application {
             return;
         }
 
-        // Check if user already exists
-        User existingUser = UserDatabase.findUserByUsername(username);
-        if (existingUser != null) {
-            showAlert("Error", "User already exists. Please sign in.");
-            return;
-        }
-
-        User newUser = new User(username, password, isPremium);
-        UserDatabase.addUser(newUser);
-
-        showSignInStage(primaryStage);
+        // Hashing the password takes a moment, so it runs on the authentication pool
+        signUpButton.setDisable(true);
+        authentication.register(username, password, isPremium).whenComplete((newUser, error) -> Platform.runLater(() -> {
+            signUpButton.setDisable(false);
+            if (error != null) {
+                showAlert("Error", messageOf(error));
+                return;
+            }
+            if (journal != null) {
+                journal.recordUser(newUser);
+            }
+            if (sessions != null) {
+                sessions.track(newUser);
+            }
+            showSignInStage(primaryStage);
+        }));
     }
 
     public void showSignInStage(Stage primaryStage) {
         primaryStage.setTitle("Expense Tracker - Sign In");
+        showForm(primaryStage, SceneCache.get("signIn", () -> buildSignIn(primaryStage)));
+    }
 
+    private FormScreen buildSignIn(Stage primaryStage) {
         TextField usernameField = new TextField();
         usernameField.setPromptText("Username");
         PasswordField passwordField = new PasswordField();
@@ -464,38 +889,95 @@ public class App extends Application {
 
         Button signInButton = new Button("Sign In");
         Button signUpButton = new Button("No account? Sign Up");
+        Button restoreButton = new Button("Restore a Backup");
         Button toggleThemeButton = new Button("Toggle Theme");
 
-        signInButton.setOnAction(e -> signIn(usernameField, passwordField, primaryStage));
+        signInButton.setOnAction(e -> signIn(signInButton, usernameField, passwordField, primaryStage));
         signUpButton.setOnAction(e -> start(primaryStage));
+        restoreButton.setOnAction(e -> restore(primaryStage, restoreButton));
         toggleThemeButton.setOnAction(e -> ThemeManager.toggleTheme(primaryStage));
 
-        VBox signInLayout = new VBox(10, usernameField, passwordField, signInButton, signUpButton, toggleThemeButton);
+        VBox signInLayout = new VBox(10, usernameField, passwordField, signInButton, signUpButton, restoreButton, toggleThemeButton);
         signInLayout.setPadding(new Insets(10));
 
-        Scene signInScene = new Scene(signInLayout, 300, 200);
-        ThemeManager.applyTheme(signInScene, primaryStage);
-        primaryStage.setScene(signInScene);
-        primaryStage.show();
+        Scene signInScene = new Scene(signInLayout, 300, 240);
+        return new FormScreen(signInScene, usernameField, passwordField);
     }
 
-    private void signIn(TextField usernameField, PasswordField passwordField, Stage primaryStage) {
+    private void signIn(Button signInButton, TextField usernameField, PasswordField passwordField, Stage primaryStage) {
         String username = usernameField.getText();
         String password = passwordField.getText();
 
-        User user = UserDatabase.findUserByUsername(username);
-        if (user == null) {
-            showAlert("Sign-in Error", "User not found.");
+        signInButton.setDisable(true);
+        // A user whose expenses were paged out gets them back on the authentication thread too
+        authentication.signIn(username, password).thenApply(user -> {
+            if (sessions != null) {
+                sessions.signedIn(user);
+            }
+            return user;
+        }).whenComplete((user, error) -> Platform.runLater(() -> {
+            signInButton.setDisable(false);
+            if (error != null) {
+                showAlert("Sign-in Error", messageOf(error));
+                return;
+            }
+            currentUser = user;
+            user.showView(primaryStage);
+        }));
+    }
+
+    // Adds the user from a backup made with "Back Up", on this or another machine. They sign in
+    // with the password they had there.
+    private void restore(Stage primaryStage, Button restoreButton) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Restore a Backup");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Expense backups", "*.expb"));
+        File file = chooser.showOpenDialog(primaryStage);
+        if (file == null) {
             return;
         }
+        restoreButton.setDisable(true);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                User restored = LedgerSnapshot.read(file.toPath());
+                if (!UserDatabase.registerUser(restored)) {
+                    throw new IOException("There is already a user named " + restored.getUsername());
+                }
+                if (journal != null) {
+                    journal.recordUser(restored);
+                }
+                if (sessions != null) {
+                    sessions.track(restored);
+                }
+                return restored;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((restored, error) -> Platform.runLater(() -> {
+            restoreButton.setDisable(false);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                System.err.println("Error restoring backup: " + cause.getMessage());
+                showAlert("Restore Failed", cause.getMessage());
+            } else {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Backup Restored");
+                alert.setContentText(restored.getUsername() + " was restored with " + restored.getLedger().size()
+                        + " expenses. Sign in with their password.");
+                alert.show();
+            }
+        }));
+    }
 
-        if (!user.authenticateUser(username, password)) {
-            showAlert("Sign-in Error", "Incorrect password.");
-            return;
+    static void signedOut(User user) {
+        if (sessions != null) {
+            sessions.signedOut(user);
         }
+    }
 
-        currentUser = user;
-        user.showView(primaryStage);
+    private static String messageOf(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof AuthenticationException ? cause.getMessage() : "Something went wrong, please try again.";
     }
 
     private void showAlert(String title, String message) {
@@ -505,7 +987,37 @@ public class App extends Application {
         alert.showAndWait();
     }
 
+    @Override
+    public void stop() {
+        authentication.shutdown();
+        ExpenseWriteBuffer.shutdown();
+        if (sessions != null) {
+            sessions.shutdown();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
     public static void main(String[] args) {
+        Metrics.install();
+        java.nio.file.Path dataDir = java.nio.file.Paths.get(System.getProperty("expensetracker.dataDir", "data"));
+        try {
+            journal = ExpenseJournal.open(
+                    dataDir,
+                    Long.getLong("expensetracker.fsyncMillis", 100),
+                    Long.getLong("expensetracker.snapshotRecords", 1_000_000));
+        } catch (JournalException e) {
+            System.err.println("Error loading saved expenses, running without persistence: " + e.getMessage());
+        }
+        try {
+            sessions = new SessionManager(dataDir.resolve("paged"), Long.getLong("expensetracker.sessionMemoryMB", 256) << 20);
+            for (User user : UserDatabase.getAllUsers().values()) {
+                sessions.track(user);
+            }
+        } catch (IOException e) {
+            System.err.println("Error setting up paging, keeping every user in memory: " + e.getMessage());
+        }
         launch(args);
     }
 }
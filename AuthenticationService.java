@@ -0,0 +1,174 @@
+import java.util.Map;
+import java.util.concurrent.*;
+
+class AuthenticationException extends Exception {
+    enum Reason { INVALID_CREDENTIALS, USER_EXISTS, RATE_LIMITED, BUSY, FAILED }
+
+    private final Reason reason;
+
+    public AuthenticationException(String message) {
+        this(Reason.FAILED, message, null);
+    }
+    public AuthenticationException(String message, Throwable cause) {
+        this(Reason.FAILED, message, cause);
+    }
+    public AuthenticationException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
+
+// Runs password hashing for sign-in and sign-up on a small bounded pool, so the FX thread never
+// blocks on it and a burst of requests cannot queue up unbounded CPU work.
+//
+// Each username gets a token bucket of attempts: every sign-in takes a token before any hashing
+// is done and gets it back if the password was right, so only failures are limited. Requests
+// over the limit, or beyond the queue capacity, fail at once without hashing.
+public class AuthenticationService {
+    private static final int MAX_TRACKED_USERNAMES = 10_000;
+    private static final Histogram signInTimer = Metrics.timer("auth.signIn");
+    private static final Histogram registerTimer = Metrics.timer("auth.register");
+    private static final Counter rateLimited = Metrics.counter("auth.rateLimited");
+    private static final Counter rejected = Metrics.counter("auth.busy");
+
+    private static final class Attempts {
+        private final int capacity;
+        private final long refillNanos;
+        private double tokens;
+        private long lastRefill;
+
+        Attempts(int capacity, long refillNanos) {
+            this.capacity = capacity;
+            this.refillNanos = refillNanos;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized boolean tryTake() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized void giveBack() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (double) (now - lastRefill) / refillNanos);
+            lastRefill = now;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Attempts> attempts = new ConcurrentHashMap<>();
+    private final int maxAttempts;
+    private final long refillNanos;
+    // Unknown usernames are checked against this so they take as long as known ones
+    private final PasswordHash dummyHash = PasswordHash.create("");
+
+    // maxAttempts failed sign-ins per username, one more allowed every refillMillis
+    public AuthenticationService(int threads, int queueCapacity, int maxAttempts, long refillMillis) {
+        this.maxAttempts = maxAttempts;
+        this.refillNanos = TimeUnit.MILLISECONDS.toNanos(refillMillis);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "authentication");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        Metrics.gauge("auth.queued", () -> executor.getQueue().size());
+    }
+
+    // Completes with the signed-in user, or with an AuthenticationException whose message can be shown as is
+    public CompletableFuture<User> signIn(String username, String password) {
+        Attempts userAttempts = attemptsFor(username);
+        if (!userAttempts.tryTake()) {
+            rateLimited.increment();
+            return CompletableFuture.failedFuture(new AuthenticationException(AuthenticationException.Reason.RATE_LIMITED,
+                    "Too many failed attempts. Please wait and try again.", null));
+        }
+        long start = System.nanoTime();
+        CompletableFuture<User> result = new CompletableFuture<>();
+        // Time from the request to the outcome, queueing included
+        result.whenComplete((user, error) -> signInTimer.recordSince(start));
+        try {
+            executor.execute(() -> {
+                try {
+                    User user = UserDatabase.findUserByUsername(username);
+                    if (user == null) {
+                        dummyHash.matches(password);
+                        result.completeExceptionally(new AuthenticationException(AuthenticationException.Reason.INVALID_CREDENTIALS,
+                                "User not found.", null));
+                    } else if (!user.authenticateUser(username, password)) {
+                        result.completeExceptionally(new AuthenticationException(AuthenticationException.Reason.INVALID_CREDENTIALS,
+                                "Incorrect password.", null));
+                    } else {
+                        userAttempts.giveBack();
+                        result.complete(user);
+                    }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(new AuthenticationException("Sign-in failed.", e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            userAttempts.giveBack();
+            result.completeExceptionally(new AuthenticationException(AuthenticationException.Reason.BUSY,
+                    "Too many sign-ins in progress. Please try again.", e));
+        }
+        return result;
+    }
+
+    // Hashes the password off the caller's thread, then registers the user if the name is free
+    public CompletableFuture<User> register(String username, String password, boolean isPremium) {
+        long start = System.nanoTime();
+        CompletableFuture<User> result = new CompletableFuture<>();
+        result.whenComplete((user, error) -> registerTimer.recordSince(start));
+        try {
+            executor.execute(() -> {
+                try {
+                    User user = new User(username, password, isPremium);
+                    if (UserDatabase.registerUser(user)) {
+                        result.complete(user);
+                    } else {
+                        result.completeExceptionally(new AuthenticationException(AuthenticationException.Reason.USER_EXISTS,
+                                "User already exists. Please sign in.", null));
+                    }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(new AuthenticationException("Sign-up failed.", e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(new AuthenticationException(AuthenticationException.Reason.BUSY,
+                    "Too many requests in progress. Please try again.", e));
+        }
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private Attempts attemptsFor(String username) {
+        if (attempts.size() > MAX_TRACKED_USERNAMES) {
+            // Buckets that have refilled carry no state worth keeping
+            attempts.values().removeIf(Attempts::isFull);
+        }
+        return attempts.computeIfAbsent(username, name -> new Attempts(maxAttempts, refillNanos));
+    }
+}
@@ -0,0 +1,443 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// How far back a budget looks, always up to today. THIS_MONTH is the calendar month, the others
+// roll forward a day at a time.
+enum BudgetWindow {
+    THIS_MONTH("this month", 1),
+    LAST_7_DAYS("in the last 7 days", 7),
+    LAST_30_DAYS("in the last 30 days", 30);
+
+    private final String label;
+    // Number of slots the window keeps: months for THIS_MONTH, days otherwise
+    final int slots;
+
+    BudgetWindow(String label, int slots) {
+        this.label = label;
+        this.slots = slots;
+    }
+
+    long slotOf(long epochDay, long month) {
+        return this == THIS_MONTH ? month : epochDay;
+    }
+
+    // First day of the window whose last slot is today
+    LocalDate firstDay(LocalDate today) {
+        return this == THIS_MONTH ? today.withDayOfMonth(1) : today.minusDays(slots - 1);
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
+
+// "Alert me when Food goes over $500 this month". A null category covers all of them. Amounts in
+// minor units, see Money.
+final class BudgetRule {
+    private final String category;
+    private final long limit;
+    private final BudgetWindow window;
+
+    public BudgetRule(String category, long limit, BudgetWindow window) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("A budget must be more than zero");
+        }
+        this.category = category == null ? null : CategoryRegistry.canonical(category);
+        this.limit = limit;
+        this.window = window;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public BudgetWindow getWindow() {
+        return window;
+    }
+
+    @Override
+    public String toString() {
+        return (category == null ? "Spending" : category) + " over " + Money.format(limit) + " " + window;
+    }
+}
+
+final class BudgetAlert {
+    private final BudgetRule rule;
+    private final long spent;
+
+    BudgetAlert(BudgetRule rule, long spent) {
+        this.rule = rule;
+        this.spent = spent;
+    }
+
+    public BudgetRule getRule() {
+        return rule;
+    }
+
+    public long getSpent() {
+        return spent;
+    }
+
+    @Override
+    public String toString() {
+        return (rule.getCategory() == null ? "Spending" : rule.getCategory()) + " is at " + Money.format(spent)
+                + " " + rule.getWindow() + ", over its budget of " + Money.format(rule.getLimit());
+    }
+}
+
+interface BudgetAlertListener {
+    // Called while the ledger lock is held; hand the alert off, do not block
+    void budgetExceeded(BudgetAlert alert);
+}
+
+// Told about every budget that is set or removed, e.g. to save it. Called while the ledger lock is
+// held, like ExpenseLedgerListener.
+interface BudgetRulesListener {
+    void budgetPut(ExpenseLedger ledger, BudgetRule rule);
+
+    void budgetRemoved(ExpenseLedger ledger, String category, BudgetWindow window);
+}
+
+// A user's budgets, checked against every expense as it is appended. Each rule keeps the spending
+// in its window as a ring of per-slot sums plus their total, so a new expense costs one ring
+// update per rule on its category (found through a category id -> rules index) and per rule on
+// all categories, however long the ledger or how many other rules there are. The window slides
+// forward by clearing the slots that fell out of it. A rule alerts once when its total goes over
+// the limit and again only after it has dropped back under.
+//
+// Windows end today by the wall clock; older expenses still count while they fall inside. An
+// expense dated after today is left out until its day comes, when the next append recomputes
+// every rule, so it cannot slide a window past the spending that is current. Removing or clearing
+// expenses recomputes every rule from the ledger's time index, as does adding a rule. Guarded by
+// the ledger lock: listener calls already hold it, the other methods take it.
+public class BudgetRules implements ExpenseLedgerListener {
+    private static final Histogram evaluateTimer = Metrics.timer("budgets.evaluate");
+    private static final Counter alertCount = Metrics.counter("budgets.alerts");
+    private static final RuleState[] NONE = new RuleState[0];
+
+    private static final class RuleState {
+        final BudgetRule rule;
+        final long[] ring;
+        long lastSlot;
+        long sum;
+        boolean over;
+
+        RuleState(BudgetRule rule) {
+            this.rule = rule;
+            this.ring = new long[rule.getWindow().slots];
+        }
+    }
+
+    private final ExpenseLedger ledger;
+    private final ZoneId zone = ZoneId.systemDefault();
+    // By key(), in the order they were added
+    private final Map<String, RuleState> rules = new LinkedHashMap<>();
+    private final CopyOnWriteArrayList<BudgetAlertListener> listeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<BudgetRulesListener> rulesListeners = new CopyOnWriteArrayList<>();
+
+    // Rules per CategoryRegistry id, and the rules on all categories
+    private final Map<Integer, RuleState[]> byGlobalId = new HashMap<>();
+    private RuleState[] allCategories = NONE;
+    // Ledger category id -> byGlobalId entry, filled in as categories show up
+    private RuleState[][] byCategoryId = new RuleState[8][];
+    private int resolvedCategories = 0;
+    // Set when rules change, the index is rebuilt on the next append
+    private boolean indexStale = false;
+
+    // The day of the expense last evaluated, most batches are for one day or sorted by date
+    private long cachedDayStart = 0;
+    private long cachedDayEnd = 0;
+    private long cachedDay;
+    private long cachedMonth;
+    // Today by the wall clock, rechecked at midnight
+    private long todayEnd = 0;
+    private long today;
+    private long thisMonth;
+    // Earliest day after today with an expense on it, Long.MAX_VALUE if there is none
+    private long nextFutureDay = Long.MAX_VALUE;
+
+    public BudgetRules(ExpenseLedger ledger) {
+        this.ledger = ledger;
+        ledger.addListener(this);
+    }
+
+    public void addListener(BudgetAlertListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(BudgetAlertListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addRulesListener(BudgetRulesListener listener) {
+        rulesListeners.add(listener);
+    }
+
+    public void removeRulesListener(BudgetRulesListener listener) {
+        rulesListeners.remove(listener);
+    }
+
+    // Adds the rule, replacing any on the same category and window, and returns what has been
+    // spent in its window so far. Alerts right away if that is already over the limit.
+    public long put(BudgetRule rule) {
+        synchronized (ledger) {
+            RuleState state = new RuleState(rule);
+            rules.put(key(rule.getCategory(), rule.getWindow()), state);
+            indexStale = true;
+            for (BudgetRulesListener listener : rulesListeners) {
+                listener.budgetPut(ledger, rule);
+            }
+            List<BudgetAlert> alerts = new ArrayList<>();
+            recompute(state, alerts);
+            findNextFutureDay();
+            notifyListeners(alerts);
+            return state.sum;
+        }
+    }
+
+    public boolean remove(String category, BudgetWindow window) {
+        synchronized (ledger) {
+            String canonical = category == null ? null : CategoryRegistry.canonical(category);
+            if (rules.remove(key(canonical, window)) == null) {
+                return false;
+            }
+            indexStale = true;
+            for (BudgetRulesListener listener : rulesListeners) {
+                listener.budgetRemoved(ledger, canonical, window);
+            }
+            return true;
+        }
+    }
+
+    public List<BudgetRule> getRules() {
+        synchronized (ledger) {
+            List<BudgetRule> result = new ArrayList<>(rules.size());
+            for (RuleState state : rules.values()) {
+                result.add(state.rule);
+            }
+            return result;
+        }
+    }
+
+    public int size() {
+        synchronized (ledger) {
+            return rules.size();
+        }
+    }
+
+    public void dispose() {
+        ledger.removeListener(this);
+    }
+
+    @Override
+    public void expensesAppended(ExpenseLedger ledger, int fromIndex, int toIndex) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (indexStale) {
+            reindex();
+        }
+        updateToday();
+        List<BudgetAlert> alerts = null;
+        for (int row = fromIndex; row < toIndex; row++) {
+            RuleState[] matching = rulesFor(ledger.categoryIdAt(row));
+            if (matching.length == 0 && allCategories.length == 0) {
+                continue;
+            }
+            long timestamp = ledger.timestampAt(row);
+            if (timestamp < cachedDayStart || timestamp >= cachedDayEnd) {
+                cacheDay(timestamp);
+            }
+            if (cachedDay > today) {
+                nextFutureDay = Math.min(nextFutureDay, cachedDay);
+                continue;
+            }
+            long amount = ledger.amountAt(row);
+            for (RuleState state : matching) {
+                alerts = add(state, amount, alerts);
+            }
+            for (RuleState state : allCategories) {
+                alerts = add(state, amount, alerts);
+            }
+        }
+        if (today >= nextFutureDay) {
+            // Expenses that were dated ahead are due now. Recomputing covers the rows above too.
+            if (alerts == null) {
+                alerts = new ArrayList<>();
+            }
+            for (RuleState state : rules.values()) {
+                recompute(state, alerts);
+            }
+            findNextFutureDay();
+        }
+        if (alerts != null) {
+            notifyListeners(alerts);
+        }
+        evaluateTimer.recordSince(start);
+    }
+
+    @Override
+    public void expensesRemoved(ExpenseLedger ledger, int fromIndex, int toIndex) {
+        recomputeAll();
+    }
+
+    @Override
+    public void expensesCleared(ExpenseLedger ledger) {
+        recomputeAll();
+    }
+
+    // Category names are canonical, so one spelling per category
+    private static String key(String category, BudgetWindow window) {
+        return category == null ? window.name() : window.name() + ":" + category;
+    }
+
+    private void reindex() {
+        Map<Integer, List<RuleState>> grouped = new HashMap<>();
+        List<RuleState> all = new ArrayList<>();
+        for (RuleState state : rules.values()) {
+            if (state.rule.getCategory() == null) {
+                all.add(state);
+            } else {
+                grouped.computeIfAbsent(CategoryRegistry.idOf(state.rule.getCategory()), id -> new ArrayList<>()).add(state);
+            }
+        }
+        byGlobalId.clear();
+        for (Map.Entry<Integer, List<RuleState>> entry : grouped.entrySet()) {
+            byGlobalId.put(entry.getKey(), entry.getValue().toArray(NONE));
+        }
+        allCategories = all.toArray(NONE);
+        resolvedCategories = 0;
+        indexStale = false;
+    }
+
+    private RuleState[] rulesFor(int categoryId) {
+        while (categoryId >= resolvedCategories) {
+            if (resolvedCategories == byCategoryId.length) {
+                byCategoryId = Arrays.copyOf(byCategoryId, byCategoryId.length * 2);
+            }
+            byCategoryId[resolvedCategories] = byGlobalId.getOrDefault(ledger.globalCategoryId(resolvedCategories), NONE);
+            resolvedCategories++;
+        }
+        return byCategoryId[categoryId];
+    }
+
+    private List<BudgetAlert> add(RuleState state, long amount, List<BudgetAlert> alerts) {
+        BudgetWindow window = state.rule.getWindow();
+        long slot = window.slotOf(cachedDay, cachedMonth);
+        advance(state, window.slotOf(today, thisMonth));
+        if (slot <= state.lastSlot - state.ring.length) {
+            // Older than the window
+            return alerts;
+        }
+        state.ring[(int) Math.floorMod(slot, (long) state.ring.length)] += amount;
+        state.sum += amount;
+        if (state.sum <= state.rule.getLimit()) {
+            state.over = false;
+        } else if (!state.over) {
+            state.over = true;
+            if (alerts == null) {
+                alerts = new ArrayList<>();
+            }
+            alerts.add(new BudgetAlert(state.rule, state.sum));
+        }
+        return alerts;
+    }
+
+    // Slides the window so it ends at slot
+    private static void advance(RuleState state, long slot) {
+        if (slot <= state.lastSlot) {
+            return;
+        }
+        long cleared = Math.min(slot - state.lastSlot, state.ring.length);
+        for (long s = slot - cleared + 1; s <= slot; s++) {
+            int index = (int) Math.floorMod(s, (long) state.ring.length);
+            state.sum -= state.ring[index];
+            state.ring[index] = 0;
+        }
+        state.lastSlot = slot;
+        if (state.sum <= state.rule.getLimit()) {
+            state.over = false;
+        }
+    }
+
+    private void recomputeAll() {
+        if (rules.isEmpty()) {
+            return;
+        }
+        for (RuleState state : rules.values()) {
+            recompute(state, null);
+        }
+        findNextFutureDay();
+    }
+
+    private void findNextFutureDay() {
+        nextFutureDay = ledger.firstDayFrom(LocalDate.ofEpochDay(today + 1));
+    }
+
+    // Refills the window from the time index. Only reports an alert when alerts is not null, a
+    // rule that was already over after a remove has alerted before.
+    private void recompute(RuleState state, List<BudgetAlert> alerts) {
+        updateToday();
+        boolean wasOver = state.over;
+        BudgetRule rule = state.rule;
+        BudgetWindow window = rule.getWindow();
+        LocalDate todayDate = LocalDate.ofEpochDay(today);
+        DailyTotals daily = ledger.dailyTotals(window.firstDay(todayDate), todayDate.plusDays(1), rule.getCategory());
+        Arrays.fill(state.ring, 0);
+        state.sum = 0;
+        state.lastSlot = window.slotOf(today, thisMonth);
+        for (int i = 0; i < daily.size(); i++) {
+            LocalDate day = LocalDate.ofEpochDay(daily.getDays()[i]);
+            long slot = window.slotOf(day.toEpochDay(), monthKey(day));
+            advance(state, slot);
+            if (slot > state.lastSlot - state.ring.length) {
+                state.ring[(int) Math.floorMod(slot, (long) state.ring.length)] += daily.getSums()[i];
+                state.sum += daily.getSums()[i];
+            }
+        }
+        state.over = state.sum > rule.getLimit();
+        if (alerts != null && state.over && !wasOver) {
+            alerts.add(new BudgetAlert(rule, state.sum));
+        }
+    }
+
+    private void notifyListeners(List<BudgetAlert> alerts) {
+        for (BudgetAlert alert : alerts) {
+            alertCount.increment();
+            for (BudgetAlertListener listener : listeners) {
+                listener.budgetExceeded(alert);
+            }
+        }
+    }
+
+    private void updateToday() {
+        long now = System.currentTimeMillis();
+        if (now >= todayEnd) {
+            LocalDate date = LocalDate.now(zone);
+            today = date.toEpochDay();
+            thisMonth = monthKey(date);
+            todayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+
+    private void cacheDay(long timestamp) {
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        cachedDay = date.toEpochDay();
+        cachedMonth = monthKey(date);
+        cachedDayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        cachedDayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private static long monthKey(LocalDate date) {
+        return date.getYear() * 12L + date.getMonthValue() - 1;
+    }
+}
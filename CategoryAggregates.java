@@ -0,0 +1,146 @@
+import java.util.*;
+
+class CategorySummary {
+    private final String category;
+    private final long sum;
+    private final long count;
+    private final long min;
+    private final long max;
+
+    // Amounts in minor units, see Money
+    public CategorySummary(String category, long sum, long count, long min, long max) {
+        this.category = category;
+        this.sum = sum;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+}
+
+// Running sum/count/min/max per category id, kept up to date by ExpenseLedger on every write.
+// Not thread-safe on its own, the ledger lock guards it. Sums use plain long arithmetic, the
+// ledger rejects any expense that would let one overflow.
+//
+// Min and max come from a count of rows per distinct amount in each category, so removing the
+// smallest or largest expense finds the next one in that category's counts instead of scanning
+// the ledger. A write costs O(log d) for d distinct amounts in its category; reads are O(1).
+public class CategoryAggregates {
+    // Rows per amount, smallest amount first
+    private static final class AmountCounts extends TreeMap<Long, Integer> {
+    }
+
+    // Heap per distinct amount: a TreeMap entry, its Long key and usually an Integer count
+    private static final long BYTES_PER_AMOUNT = 80;
+
+    private long[] sums = new long[8];
+    private long[] counts = new long[8];
+    private long[] mins = new long[8];
+    private long[] maxs = new long[8];
+    private AmountCounts[] amountCounts = new AmountCounts[8];
+    private long distinctAmounts = 0;
+    private int categoryCount = 0;
+
+    public void add(int categoryId, long amount) {
+        ensureCapacity(categoryId);
+        if (counts[categoryId] == 0) {
+            mins[categoryId] = amount;
+            maxs[categoryId] = amount;
+        } else {
+            mins[categoryId] = Math.min(mins[categoryId], amount);
+            maxs[categoryId] = Math.max(maxs[categoryId], amount);
+        }
+        sums[categoryId] += amount;
+        counts[categoryId]++;
+        AmountCounts amounts = amountCounts[categoryId];
+        if (amounts == null) {
+            amounts = amountCounts[categoryId] = new AmountCounts();
+        }
+        if (amounts.merge(amount, 1, Integer::sum) == 1) {
+            distinctAmounts++;
+        }
+    }
+
+    public void remove(int categoryId, long amount) {
+        sums[categoryId] -= amount;
+        counts[categoryId]--;
+        AmountCounts amounts = amountCounts[categoryId];
+        if (amounts.merge(amount, -1, Integer::sum) == 0) {
+            amounts.remove(amount);
+            distinctAmounts--;
+        }
+        if (counts[categoryId] == 0) {
+            sums[categoryId] = 0;
+        } else {
+            mins[categoryId] = amounts.firstKey();
+            maxs[categoryId] = amounts.lastKey();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(sums, 0, categoryCount, 0);
+        Arrays.fill(counts, 0, categoryCount, 0);
+        amountCounts = new AmountCounts[amountCounts.length];
+        distinctAmounts = 0;
+    }
+
+    public int categoryCount() {
+        return categoryCount;
+    }
+
+    public long sum(int categoryId) {
+        return categoryId < categoryCount ? sums[categoryId] : 0;
+    }
+
+    public long count(int categoryId) {
+        return categoryId < categoryCount ? counts[categoryId] : 0;
+    }
+
+    public long min(int categoryId) {
+        return categoryId < categoryCount ? mins[categoryId] : 0;
+    }
+
+    public long max(int categoryId) {
+        return categoryId < categoryCount ? maxs[categoryId] : 0;
+    }
+
+    // Rough heap held by the per-amount counts
+    long estimatedBytes() {
+        return distinctAmounts * BYTES_PER_AMOUNT;
+    }
+
+    private void ensureCapacity(int categoryId) {
+        if (categoryId >= sums.length) {
+            int capacity = Math.max(sums.length * 2, categoryId + 1);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            amountCounts = Arrays.copyOf(amountCounts, capacity);
+        }
+        categoryCount = Math.max(categoryCount, categoryId + 1);
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Process-wide dictionary of category names. Every distinct name (ignoring case) gets one global
+// id and one shared String, so "food", "FOOD" and "Food" are the same category and a premium
+// user's free-form category is stored once no matter how many expenses or users use it. The
+// four standard categories always have ids 0-3.
+//
+// Lookups are lock-free: slots are read with volatile semantics and entries are immutable, so a
+// reader that finds an id can also read its name. Inserts are synchronized and either fill a free
+// slot or publish a new table; a reader that raced with an insert just misses and retries under
+// the lock.
+public class CategoryRegistry {
+    public static final String[] STANDARD = {"Food", "Travel", "Entertainment", "Others"};
+
+    private static final class Entry {
+        final String name;
+        final int hash;
+        final int id;
+
+        Entry(String name, int hash, int id) {
+            this.name = name;
+            this.hash = hash;
+            this.id = id;
+        }
+    }
+
+    private static volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(64);
+    private static volatile String[] names = new String[16];
+    private static int size = 0;
+
+    static {
+        for (String name : STANDARD) {
+            idOf(name);
+        }
+    }
+
+    // The category's id, registering the name if it is new. The first spelling seen is kept.
+    public static int idOf(String name) {
+        int hash = hash(name);
+        int id = find(table, name, hash);
+        return id >= 0 ? id : insert(name, hash);
+    }
+
+    // The category's id, or -1 if no expense has used it yet; never registers anything
+    public static int find(String name) {
+        return find(table, name, hash(name));
+    }
+
+    public static String nameOf(int id) {
+        return names[id];
+    }
+
+    // The registered spelling of name, e.g. "Food" for "food"
+    public static String canonical(String name) {
+        return nameOf(idOf(name));
+    }
+
+    public static boolean isStandard(int id) {
+        return id >= 0 && id < STANDARD.length;
+    }
+
+    public static boolean isStandard(String name) {
+        return isStandard(find(name));
+    }
+
+    // Normal users are limited to the standard categories, premium users may use any non-empty name
+    public static boolean isAllowed(User user, String name) {
+        return !name.isEmpty() && (user.isPremium() || isStandard(name));
+    }
+
+    public static synchronized int size() {
+        return size;
+    }
+
+    private static int find(AtomicReferenceArray<Entry> entries, String name, int hash) {
+        int mask = entries.length() - 1;
+        for (int index = hash & mask; ; index = (index + 1) & mask) {
+            Entry entry = entries.get(index);
+            if (entry == null) {
+                return -1;
+            }
+            if (entry.hash == hash && entry.name.equalsIgnoreCase(name)) {
+                return entry.id;
+            }
+        }
+    }
+
+    private static synchronized int insert(String name, int hash) {
+        int existing = find(table, name, hash);
+        if (existing >= 0) {
+            return existing;
+        }
+        int id = size;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+        }
+        names[id] = name;
+        size++;
+        AtomicReferenceArray<Entry> entries = table;
+        if (size * 2 > entries.length()) {
+            AtomicReferenceArray<Entry> grown = new AtomicReferenceArray<>(entries.length() * 2);
+            for (int i = 0; i < entries.length(); i++) {
+                if (entries.get(i) != null) {
+                    place(grown, entries.get(i));
+                }
+            }
+            place(grown, new Entry(name, hash, id));
+            table = grown;
+        } else {
+            place(entries, new Entry(name, hash, id));
+        }
+        return id;
+    }
+
+    private static void place(AtomicReferenceArray<Entry> entries, Entry entry) {
+        int mask = entries.length() - 1;
+        int index = entry.hash & mask;
+        while (entries.get(index) != null) {
+            index = (index + 1) & mask;
+        }
+        entries.set(index, entry);
+    }
+
+    // Consistent with equalsIgnoreCase, and mixed so nearby names spread over the table
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 128) {
+                c = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            } else {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            hash = 31 * hash + c;
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
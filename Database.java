@@ -0,0 +1,279 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Append-only item store with optional secondary indexes.
+//
+// Items live in chunks that are only ever appended to; readers take the published size as a
+// snapshot and never lock or copy. Writers run concurrently: each reserves its slot with a CAS,
+// stores the item and adds it to the indexes, then publishes in slot order, so a snapshot never
+// has a gap. Index postings are locked per key, so only writers of the same key wait on each
+// other there. Adding an index takes the write side of a read-write lock that writers share, so
+// it sees every item exactly once.
+// Fields are registered with a key extractor; queries on a field use its hash index for equality
+// and its sorted index for ranges when those exist, and fall back to a scan otherwise. The items
+// under one index key are appended to the same way, so building an index is O(n) however few
+// distinct keys there are.
+class Database<T> {
+    // Item i is in the chunk given by the top bit of i + 1, chunk k holding 2^k items
+    private static final int CHUNKS = 31;
+
+    // Items under one index key, chunked like the items. Each append publishes a fixed-size view,
+    // like Database's own snapshot; a chunk is never written below a published size.
+    private static final class Postings<T> {
+        private Object[][] chunks = new Object[1][];
+        private int size = 0;
+        private volatile List<T> published = List.of();
+
+        // Writers of the same key take turns here
+        synchronized void add(T item) {
+            int position = size + 1;
+            int chunk = 31 - Integer.numberOfLeadingZeros(position);
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new Object[1 << chunk];
+            }
+            chunks[chunk][position - (1 << chunk)] = item;
+            size++;
+            published = view(chunks, size);
+        }
+
+        List<T> items() {
+            return published;
+        }
+
+        private static <T> List<T> view(Object[][] chunks, int size) {
+            return new AbstractList<T>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public T get(int index) {
+                    Objects.checkIndex(index, size);
+                    int position = index + 1;
+                    int chunk = 31 - Integer.numberOfLeadingZeros(position);
+                    return (T) chunks[chunk][position - (1 << chunk)];
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    private final Map<String, Function<T, ?>> fields = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentHashMap<Object, Postings<T>>> hashIndexes = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Object, Postings<T>>> sortedIndexes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Object[]> chunks = new AtomicReferenceArray<>(CHUNKS);
+    // Slots handed out to writers, and the slots below which every item is stored and indexed
+    private final AtomicInteger reserved = new AtomicInteger();
+    private volatile int published = 0;
+    // Writers share the read side; adding an index takes the write side
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    public void addItem(T item) {
+        indexLock.readLock().lock();
+        try {
+            int slot = reserved.getAndIncrement();
+            if (slot < 0) {
+                throw new IllegalStateException("Database is full");
+            }
+            int position = slot + 1;
+            int chunk = 31 - Integer.numberOfLeadingZeros(position);
+            Object[] items = chunks.get(chunk);
+            if (items == null) {
+                // Several writers may race to allocate a chunk, the first one wins
+                chunks.compareAndSet(chunk, null, new Object[1 << chunk]);
+                items = chunks.get(chunk);
+            }
+            items[position - (1 << chunk)] = item;
+            for (Map.Entry<String, ConcurrentHashMap<Object, Postings<T>>> index : hashIndexes.entrySet()) {
+                addToIndex(index.getValue(), fields.get(index.getKey()).apply(item), item);
+            }
+            for (Map.Entry<String, ConcurrentSkipListMap<Object, Postings<T>>> index : sortedIndexes.entrySet()) {
+                addToIndex(index.getValue(), fields.get(index.getKey()).apply(item), item);
+            }
+            // Index entries go in first, so an index may briefly return an item that getAllItems()
+            // does not. Earlier slots publish first; a writer only waits here for one that is
+            // still storing its item.
+            while (published != slot) {
+                Thread.yield();
+            }
+            published = slot + 1;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    public T findItem(Predicate<T> predicate) {
+        for (T item : getAllItems()) {
+            if (predicate.test(item)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    // Read-only view of the items at the time of the call, later additions are not visible
+    public List<T> getAllItems() {
+        int size = published;
+        return new AbstractList<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T get(int index) {
+                Objects.checkIndex(index, size);
+                int position = index + 1;
+                int chunk = 31 - Integer.numberOfLeadingZeros(position);
+                return (T) chunks.get(chunk)[position - (1 << chunk)];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public <K> void registerField(String field, Function<T, K> keyExtractor) {
+        fields.put(field, keyExtractor);
+    }
+
+    public void addHashIndex(String field) {
+        indexLock.writeLock().lock();
+        try {
+            ConcurrentHashMap<Object, Postings<T>> index = new ConcurrentHashMap<>();
+            for (T item : getAllItems()) {
+                addToIndex(index, extractor(field).apply(item), item);
+            }
+            hashIndexes.put(field, index);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    // Keys of a sorted index must be Comparable with each other
+    public void addSortedIndex(String field) {
+        indexLock.writeLock().lock();
+        try {
+            ConcurrentSkipListMap<Object, Postings<T>> index = new ConcurrentSkipListMap<>();
+            for (T item : getAllItems()) {
+                addToIndex(index, extractor(field).apply(item), item);
+            }
+            sortedIndexes.put(field, index);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    public T findEquals(String field, Object key) {
+        List<T> matches = findAllEquals(field, key);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    public List<T> findAllEquals(String field, Object key) {
+        Map<Object, Postings<T>> index = hashIndexes.get(field);
+        if (index == null) {
+            index = sortedIndexes.get(field);
+        }
+        if (index != null) {
+            Postings<T> postings;
+            try {
+                postings = index.get(key);
+            } catch (ClassCastException e) {
+                // A sorted index compares the key with its own keys; one of another type equals none
+                return List.of();
+            }
+            return postings == null ? List.of() : postings.items();
+        }
+        Function<T, ?> extractor = extractor(field);
+        List<T> matches = new ArrayList<>();
+        for (T item : getAllItems()) {
+            if (Objects.equals(extractor.apply(item), key)) {
+                matches.add(item);
+            }
+        }
+        return matches;
+    }
+
+    // Items with from <= key < to, in key order when a sorted index exists, insertion order
+    // otherwise. Empty when from is not below to, with or without an index.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<T> findRange(String field, Comparable from, Comparable to) {
+        ConcurrentSkipListMap<Object, Postings<T>> index = sortedIndexes.get(field);
+        List<T> matches = new ArrayList<>();
+        if (from.compareTo(to) >= 0) {
+            return matches;
+        }
+        if (index != null) {
+            for (Postings<T> postings : index.subMap(from, true, to, false).values()) {
+                matches.addAll(postings.items());
+            }
+            return matches;
+        }
+        Function<T, ?> extractor = extractor(field);
+        for (T item : getAllItems()) {
+            Object key = extractor.apply(item);
+            if (key != null && from.compareTo(key) <= 0 && to.compareTo(key) > 0) {
+                matches.add(item);
+            }
+        }
+        return matches;
+    }
+
+    private Function<T, ?> extractor(String field) {
+        Function<T, ?> extractor = fields.get(field);
+        if (extractor == null) {
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+        return extractor;
+    }
+
+    // Caller holds the read or write side of indexLock
+    private static <T> void addToIndex(Map<Object, Postings<T>> index, Object key, T item) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfAbsent(key, k -> new Postings<>()).add(item);
+    }
+}
+
+// Reads go straight to the ConcurrentHashMap without locking, registration relies on its atomic
+// putIfAbsent so two sign-ups for the same name cannot both succeed
+class UserDatabase {
+    private static final ConcurrentHashMap<String, User> userDatabase = new ConcurrentHashMap<>();
+
+    public static void addUser(User user) {
+        userDatabase.put(user.getUsername(), user);
+    }
+
+    // Returns false, and leaves the existing user alone, if the username is already taken
+    public static boolean registerUser(User user) {
+        return userDatabase.putIfAbsent(user.getUsername(), user) == null;
+    }
+
+    // Bulk load, e.g. from a journal snapshot. Returns how many users were added
+    public static int addUsers(Collection<User> users) {
+        int added = 0;
+        for (User user : users) {
+            if (userDatabase.putIfAbsent(user.getUsername(), user) == null) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public static User findUserByUsername(String username) {
+        return userDatabase.get(username);
+    }
+
+    public static Map<String, User> getAllUsers() {
+        return userDatabase;
+    }
+}
@@ -0,0 +1,85 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.Scene;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+// Measures the time between FX pulses. A gap of more than 1.5 frames at 60 Hz counts the frames
+// that were skipped. Running it keeps JavaFX pulsing every frame, so it is only started while the
+// diagnostics panel is open or with -Dexpensetracker.frameMetrics=true.
+class FrameMonitor extends AnimationTimer {
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+    private static final Histogram frameInterval = Metrics.timer("fx.frameInterval");
+    private static final Counter droppedFrames = Metrics.counter("fx.droppedFrames");
+
+    private long lastPulse = 0;
+
+    @Override
+    public void handle(long now) {
+        if (lastPulse != 0) {
+            long interval = now - lastPulse;
+            frameInterval.record(interval);
+            if (interval > FRAME_NANOS * 3 / 2) {
+                droppedFrames.add(interval / FRAME_NANOS - 1);
+            }
+        }
+        lastPulse = now;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        lastPulse = 0;
+    }
+}
+
+// Optional window with every metric, refreshed twice a second. Opened at startup with
+// -Dexpensetracker.diagnostics=true. FX thread only.
+public class DiagnosticsPanel {
+    private static final long REFRESH_NANOS = 500_000_000L;
+
+    private static Stage stage = null;
+    private static FrameMonitor frameMonitor = null;
+
+    public static void startFrameMonitor() {
+        if (frameMonitor == null) {
+            frameMonitor = new FrameMonitor();
+            frameMonitor.start();
+        }
+    }
+
+    public static void show() {
+        if (stage != null) {
+            stage.show();
+            return;
+        }
+        startFrameMonitor();
+        TextArea text = new TextArea();
+        text.setEditable(false);
+        text.setStyle("-fx-font-family: monospace;");
+        AnimationTimer refresher = new AnimationTimer() {
+            private long lastRefresh = 0;
+
+            @Override
+            public void handle(long now) {
+                if (now - lastRefresh >= REFRESH_NANOS) {
+                    lastRefresh = now;
+                    text.setText(Metrics.report());
+                }
+            }
+        };
+        stage = new Stage();
+        stage.setTitle("Diagnostics");
+        stage.setScene(new Scene(new VBox(text), 720, 420));
+        stage.setOnHidden(e -> {
+            refresher.stop();
+            if (!Boolean.getBoolean("expensetracker.frameMetrics")) {
+                frameMonitor.stop();
+                frameMonitor = null;
+            }
+            stage = null;
+        });
+        refresher.start();
+        stage.show();
+    }
+}
@@ -0,0 +1,29 @@
+class Expense {
+    // Minor units of Money.CURRENCY, e.g. cents
+    private final long amount;
+    private final String category;
+    // Epoch milliseconds of when the expense was made
+    private final long timestamp;
+
+    public Expense(long amount, String category) {
+        this(amount, category, System.currentTimeMillis());
+    }
+
+    public Expense(long amount, String category, long timestamp) {
+        this.amount = amount;
+        this.category = category;
+        this.timestamp = timestamp;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,416 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+class AnalyticsReport {
+    private final long count;
+    private final long total;
+    private final long min;
+    private final long max;
+    private final List<CategorySummary> categories;
+    private final double[] percentiles;
+    private final long[] percentileValues;
+    private final long[] histogramEdges;
+    private final long[] histogramCounts;
+
+    // Amounts in minor units, see Money
+    AnalyticsReport(long count, long total, long min, long max, List<CategorySummary> categories,
+                    double[] percentiles, long[] percentileValues, long[] histogramEdges, long[] histogramCounts) {
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.categories = categories;
+        this.percentiles = percentiles;
+        this.percentileValues = percentileValues;
+        this.histogramEdges = histogramEdges;
+        this.histogramCounts = histogramCounts;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    // Every category with expenses, largest total first
+    public List<CategorySummary> getCategories() {
+        return categories;
+    }
+
+    public List<CategorySummary> topCategories(int n) {
+        return categories.subList(0, Math.min(n, categories.size()));
+    }
+
+    // Nearest-rank percentile of the amounts, for one of the fractions the report was computed with
+    public long percentile(double p) {
+        for (int i = 0; i < percentiles.length; i++) {
+            if (percentiles[i] == p) {
+                return percentileValues[i];
+            }
+        }
+        throw new IllegalArgumentException("Percentile " + p + " was not computed");
+    }
+
+    // Bin i counts amounts in [edges[i], edges[i + 1]), the last bin includes the maximum
+    public long[] getHistogramEdges() {
+        return histogramEdges;
+    }
+
+    public long[] getHistogramCounts() {
+        return histogramCounts;
+    }
+}
+
+// Statistics over a whole ledger: category totals, amount percentiles, a histogram of amounts and
+// the top categories. Large ledgers are scanned in parallel on a fork/join pool, split along the
+// ledger's column chunks; below expensetracker.parallelThreshold rows one thread does it all.
+// Results always arrive through a CompletableFuture, so callers on the FX thread never wait.
+//
+// Percentiles are exact. A histogram pass narrows each one down to a single fine bin, and once
+// that bin is small enough its values are collected and sorted; otherwise the bin is split again.
+public class ExpenseAnalytics {
+    public static final double[] DEFAULT_PERCENTILES = {0.5, 0.9, 0.99};
+    public static final int DEFAULT_BINS = 20;
+
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("expensetracker.parallelThreshold", 1 << 17);
+    private static final int MIN_LEAF_ROWS = 1 << 15;
+    private static final int FINE_BINS = 4096;
+    private static final int COLLECT_LIMIT = 1 << 16;
+    // A remove or clear during the scan makes it start over, at most this many times
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final Histogram analyzeTimer = Metrics.timer("analytics.analyze");
+
+    public static CompletableFuture<AnalyticsReport> analyze(ExpenseLedger ledger) {
+        return analyze(ledger, DEFAULT_PERCENTILES, DEFAULT_BINS);
+    }
+
+    public static CompletableFuture<AnalyticsReport> analyze(ExpenseLedger ledger, double[] percentiles, int bins) {
+        double[] fractions = percentiles.clone();
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            ExpenseLedger.Columns columns = ledger.columns();
+            for (int attempt = 1; ; attempt++) {
+                AnalyticsReport report = compute(columns, fractions, bins);
+                ExpenseLedger.Columns latest = ledger.columns();
+                if (latest.modifications == columns.modifications || attempt == MAX_ATTEMPTS) {
+                    analyzeTimer.recordSince(start);
+                    return report;
+                }
+                columns = latest;
+            }
+        }, pool);
+    }
+
+    static AnalyticsReport compute(ExpenseLedger.Columns columns, double[] percentiles, int bins) {
+        Totals totals = scan(columns, new TotalsScan(columns.categoryNames.length));
+        List<CategorySummary> categories = new ArrayList<>();
+        for (int id = 0; id < columns.categoryNames.length; id++) {
+            if (totals.counts[id] > 0) {
+                categories.add(new CategorySummary(columns.categoryNames[id], totals.sums[id], totals.counts[id],
+                        totals.mins[id], totals.maxs[id]));
+            }
+        }
+        categories.sort(Comparator.comparingLong(CategorySummary::getSum).reversed());
+
+        long count = columns.size;
+        long[] values = new long[percentiles.length];
+        long[] edges = new long[bins + 1];
+        long[] histogram = new long[bins];
+        if (count == 0) {
+            return new AnalyticsReport(0, 0, 0, 0, categories, percentiles, values, edges, histogram);
+        }
+        long min = totals.min;
+        long max = totals.max;
+        for (int i = 0; i <= bins; i++) {
+            edges[i] = min + (long) ((double) (max - min) * i / bins);
+        }
+        BinCounts first = scan(columns, new HistogramScan(min, max, bins));
+        System.arraycopy(first.display, 0, histogram, 0, bins);
+        for (int i = 0; i < percentiles.length; i++) {
+            long rank = Math.max(0, Math.min(count - 1, (long) Math.ceil(percentiles[i] * count) - 1));
+            values[i] = select(columns, first, rank);
+        }
+        return new AnalyticsReport(count, totals.total, min, max, categories, percentiles, values, edges, histogram);
+    }
+
+    // The value with the given rank (0-based, ascending), starting from a histogram of all rows
+    private static long select(ExpenseLedger.Columns columns, BinCounts histogram, long rank) {
+        long below = 0;
+        while (true) {
+            int bin = 0;
+            while (below + histogram.counts[bin] <= rank) {
+                below += histogram.counts[bin];
+                bin++;
+            }
+            long lo = histogram.mins[bin];
+            long hi = histogram.maxs[bin];
+            if (lo == hi) {
+                return lo;
+            }
+            if (histogram.counts[bin] <= COLLECT_LIMIT) {
+                long[] values = scan(columns, new CollectScan(lo, hi)).toArray();
+                Arrays.sort(values);
+                return values[(int) (rank - below)];
+            }
+            // Still too many values in one bin, spread them over a new set of fine bins
+            histogram = scan(columns, new HistogramScan(lo, hi, 0));
+        }
+    }
+
+    // One pass over a range of rows, with partial results merged pairwise
+    private interface RowScan<R> {
+        R scan(ExpenseLedger.Columns columns, int from, int to);
+
+        R merge(R left, R right);
+    }
+
+    private static <R> R scan(ExpenseLedger.Columns columns, RowScan<R> scan) {
+        if (columns.size < PARALLEL_THRESHOLD) {
+            return scan.scan(columns, 0, columns.size);
+        }
+        // Runs in whichever pool the caller is already in, so a benchmark can pick the parallelism
+        ForkJoinPool target = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : pool;
+        int leafRows = Math.max(MIN_LEAF_ROWS, columns.size / (target.getParallelism() * 4));
+        ScanTask<R> task = new ScanTask<>(columns, scan, 0, columns.size, leafRows);
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+    }
+
+    private static final class ScanTask<R> extends RecursiveTask<R> {
+        private final ExpenseLedger.Columns columns;
+        private final RowScan<R> scan;
+        private final int from;
+        private final int to;
+        private final int leafRows;
+
+        ScanTask(ExpenseLedger.Columns columns, RowScan<R> scan, int from, int to, int leafRows) {
+            this.columns = columns;
+            this.scan = scan;
+            this.from = from;
+            this.to = to;
+            this.leafRows = leafRows;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= leafRows) {
+                return scan.scan(columns, from, to);
+            }
+            // Split on a chunk boundary so no leaf shares a chunk with its neighbour
+            int middle = ((from + to) >>> 1) & ~ExpenseLedger.Columns.CHUNK_MASK;
+            if (middle <= from) {
+                middle = (from + to) >>> 1;
+            }
+            ScanTask<R> left = new ScanTask<>(columns, scan, from, middle, leafRows);
+            left.fork();
+            R right = new ScanTask<>(columns, scan, middle, to, leafRows).compute();
+            return scan.merge(left.join(), right);
+        }
+    }
+
+    // Sums are plain long additions: every one is a partial sum of ledger rows, which the ledger
+    // keeps from overflowing
+    private static final class Totals {
+        final long[] sums;
+        final long[] counts;
+        final long[] mins;
+        final long[] maxs;
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        Totals(int categories) {
+            sums = new long[categories];
+            counts = new long[categories];
+            mins = new long[categories];
+            maxs = new long[categories];
+            Arrays.fill(mins, Long.MAX_VALUE);
+            Arrays.fill(maxs, Long.MIN_VALUE);
+        }
+    }
+
+    private static final class TotalsScan implements RowScan<Totals> {
+        private final int categories;
+
+        TotalsScan(int categories) {
+            this.categories = categories;
+        }
+
+        @Override
+        public Totals scan(ExpenseLedger.Columns columns, int from, int to) {
+            Totals totals = new Totals(categories);
+            for (int row = from; row < to; ) {
+                long[] amounts = columns.amounts[row >>> ExpenseLedger.Columns.CHUNK_SHIFT];
+                int[] ids = columns.categoryIds[row >>> ExpenseLedger.Columns.CHUNK_SHIFT];
+                int start = row & ExpenseLedger.Columns.CHUNK_MASK;
+                int end = Math.min(amounts.length, start + (to - row));
+                for (int i = start; i < end; i++) {
+                    long amount = amounts[i];
+                    int id = ids[i];
+                    totals.sums[id] += amount;
+                    totals.counts[id]++;
+                    totals.mins[id] = Math.min(totals.mins[id], amount);
+                    totals.maxs[id] = Math.max(totals.maxs[id], amount);
+                }
+                row += end - start;
+            }
+            for (int id = 0; id < categories; id++) {
+                totals.total += totals.sums[id];
+                totals.min = Math.min(totals.min, totals.mins[id]);
+                totals.max = Math.max(totals.max, totals.maxs[id]);
+            }
+            return totals;
+        }
+
+        @Override
+        public Totals merge(Totals left, Totals right) {
+            for (int id = 0; id < categories; id++) {
+                left.sums[id] += right.sums[id];
+                left.counts[id] += right.counts[id];
+                left.mins[id] = Math.min(left.mins[id], right.mins[id]);
+                left.maxs[id] = Math.max(left.maxs[id], right.maxs[id]);
+            }
+            left.total += right.total;
+            left.min = Math.min(left.min, right.min);
+            left.max = Math.max(left.max, right.max);
+            return left;
+        }
+    }
+
+    private static final class BinCounts {
+        final long[] display;
+        final long[] counts = new long[FINE_BINS];
+        final long[] mins = new long[FINE_BINS];
+        final long[] maxs = new long[FINE_BINS];
+
+        BinCounts(int displayBins) {
+            display = new long[displayBins];
+            Arrays.fill(mins, Long.MAX_VALUE);
+            Arrays.fill(maxs, Long.MIN_VALUE);
+        }
+    }
+
+    // Counts amounts in [lo, hi] into FINE_BINS equal bins, remembering the smallest and largest
+    // amount seen in each. The bin index only grows with the amount, so each bin holds exactly the
+    // amounts in [mins[b], maxs[b]] and a later pass can select it by value alone. Optionally also
+    // fills the equal-width display histogram over the same range.
+    private static final class HistogramScan implements RowScan<BinCounts> {
+        private final long lo;
+        private final long hi;
+        private final int displayBins;
+        private final double fineScale;
+        private final double displayScale;
+
+        HistogramScan(long lo, long hi, int displayBins) {
+            this.lo = lo;
+            this.hi = hi;
+            this.displayBins = displayBins;
+            this.fineScale = hi > lo ? FINE_BINS / (double) (hi - lo) : 0;
+            this.displayScale = hi > lo ? displayBins / (double) (hi - lo) : 0;
+        }
+
+        @Override
+        public BinCounts scan(ExpenseLedger.Columns columns, int from, int to) {
+            BinCounts histogram = new BinCounts(displayBins);
+            for (int row = from; row < to; ) {
+                long[] amounts = columns.amounts[row >>> ExpenseLedger.Columns.CHUNK_SHIFT];
+                int start = row & ExpenseLedger.Columns.CHUNK_MASK;
+                int end = Math.min(amounts.length, start + (to - row));
+                for (int i = start; i < end; i++) {
+                    long amount = amounts[i];
+                    if (amount < lo || amount > hi) {
+                        continue;
+                    }
+                    int bin = Math.min(FINE_BINS - 1, (int) ((amount - lo) * fineScale));
+                    histogram.counts[bin]++;
+                    histogram.mins[bin] = Math.min(histogram.mins[bin], amount);
+                    histogram.maxs[bin] = Math.max(histogram.maxs[bin], amount);
+                    if (displayBins > 0) {
+                        histogram.display[Math.min(displayBins - 1, (int) ((amount - lo) * displayScale))]++;
+                    }
+                }
+                row += end - start;
+            }
+            return histogram;
+        }
+
+        @Override
+        public BinCounts merge(BinCounts left, BinCounts right) {
+            for (int bin = 0; bin < FINE_BINS; bin++) {
+                left.counts[bin] += right.counts[bin];
+                left.mins[bin] = Math.min(left.mins[bin], right.mins[bin]);
+                left.maxs[bin] = Math.max(left.maxs[bin], right.maxs[bin]);
+            }
+            for (int bin = 0; bin < displayBins; bin++) {
+                left.display[bin] += right.display[bin];
+            }
+            return left;
+        }
+    }
+
+    private static final class Values {
+        long[] values = new long[16];
+        int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // Every amount in [lo, hi]
+    private static final class CollectScan implements RowScan<Values> {
+        private final long lo;
+        private final long hi;
+
+        CollectScan(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public Values scan(ExpenseLedger.Columns columns, int from, int to) {
+            Values values = new Values();
+            for (int row = from; row < to; ) {
+                long[] amounts = columns.amounts[row >>> ExpenseLedger.Columns.CHUNK_SHIFT];
+                int start = row & ExpenseLedger.Columns.CHUNK_MASK;
+                int end = Math.min(amounts.length, start + (to - row));
+                for (int i = start; i < end; i++) {
+                    if (amounts[i] >= lo && amounts[i] <= hi) {
+                        values.add(amounts[i]);
+                    }
+                }
+                row += end - start;
+            }
+            return values;
+        }
+
+        @Override
+        public Values merge(Values left, Values right) {
+            for (int i = 0; i < right.size; i++) {
+                left.add(right.values[i]);
+            }
+            return left;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.*;
+
+// Everything the chart screen draws for one period, computed from the ledger off the FX thread.
+// The bars are the MAX_BARS largest category totals, in the ledger's category order so bars keep
+// their place as totals change, plus one bar for all the other categories together. Spending per
+// day is reduced to at most MAX_POINTS points with largest-triangle-three-buckets (LTTB), which
+// keeps the peaks and dips a plain average would flatten. Either way the chart gets a bounded
+// number of nodes however many categories or days the ledger has.
+public final class ExpenseChartData {
+    static final int MAX_BARS = 20;
+    static final int MAX_POINTS = 300;
+    static final String OTHER = "Other categories";
+    private static final Histogram computeTimer = Metrics.timer("chart.compute");
+
+    // Amounts in minor units, see Money
+    private final Map<String, Long> bars;
+    private final long[] days;
+    private final long[] daySums;
+
+    private ExpenseChartData(Map<String, Long> bars, long[] days, long[] daySums) {
+        this.bars = bars;
+        this.days = days;
+        this.daySums = daySums;
+    }
+
+    public static ExpenseChartData compute(ExpenseLedger ledger, ChartPeriod period) {
+        long start = System.nanoTime();
+        Map<String, Long> bars = topCategories(period.categoryTotals(ledger), MAX_BARS);
+        DailyTotals daily = period.dailyTotals(ledger);
+        int[] kept = downsample(daily.getDays(), daily.getSums(), daily.size(), MAX_POINTS);
+        long[] days = new long[kept.length];
+        long[] daySums = new long[kept.length];
+        for (int i = 0; i < kept.length; i++) {
+            days[i] = daily.getDays()[kept[i]];
+            daySums[i] = daily.getSums()[kept[i]];
+        }
+        computeTimer.recordSince(start);
+        return new ExpenseChartData(bars, days, daySums);
+    }
+
+    public Map<String, Long> getBars() {
+        return bars;
+    }
+
+    public int dayCount() {
+        return days.length;
+    }
+
+    // Epoch day of point i
+    public long dayAt(int i) {
+        return days[i];
+    }
+
+    public long daySumAt(int i) {
+        return daySums[i];
+    }
+
+    // The `limit` largest totals in their original order, and the sum of the rest under OTHER.
+    // Ties at the cut go to the categories that come first.
+    static Map<String, Long> topCategories(Map<String, Long> totals, int limit) {
+        if (totals.size() <= limit) {
+            return totals;
+        }
+        long[] sorted = new long[totals.size()];
+        int i = 0;
+        for (long total : totals.values()) {
+            sorted[i++] = total;
+        }
+        Arrays.sort(sorted);
+        long cut = sorted[sorted.length - limit];
+        int aboveCut = sorted.length - limit;
+        while (aboveCut < sorted.length && sorted[aboveCut] == cut) {
+            aboveCut++;
+        }
+        // Slots left for totals equal to the cut once every larger total has one
+        int atCut = limit - (sorted.length - aboveCut);
+        Map<String, Long> top = new LinkedHashMap<>();
+        long other = 0;
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            long value = total.getValue();
+            if (value > cut || (value == cut && atCut-- > 0)) {
+                top.put(total.getKey(), value);
+            } else {
+                other += value;
+            }
+        }
+        top.merge(OTHER, other, Long::sum);
+        return top;
+    }
+
+    // Indexes of at most `threshold` of the first `count` points, ascending. The first and last
+    // point are kept; the rest is split into threshold - 2 equal buckets, and from each the point
+    // that forms the largest triangle with the point kept before it and the average of the next
+    // bucket is kept.
+    static int[] downsample(long[] x, long[] y, int count, int threshold) {
+        if (count <= threshold || threshold < 3) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] kept = new int[threshold];
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int previous = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int from = (int) (bucket * bucketSize) + 1;
+            int to = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextTo = Math.min((int) ((bucket + 2) * bucketSize) + 1, count);
+            double nextX = 0;
+            double nextY = 0;
+            for (int i = to; i < nextTo; i++) {
+                nextX += x[i];
+                nextY += y[i];
+            }
+            nextX /= nextTo - to;
+            nextY /= nextTo - to;
+            double previousX = x[previous];
+            double previousY = y[previous];
+            double largestArea = -1;
+            int chosen = from;
+            for (int i = from; i < to; i++) {
+                // Twice the triangle's area, only compared
+                double area = Math.abs((previousX - nextX) * (y[i] - previousY) - (previousX - x[i]) * (nextY - previousY));
+                if (area > largestArea) {
+                    largestArea = area;
+                    chosen = i;
+                }
+            }
+            kept[bucket + 1] = chosen;
+            previous = chosen;
+        }
+        kept[threshold - 1] = count - 1;
+        return kept;
+    }
+}
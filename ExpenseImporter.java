@@ -0,0 +1,638 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+
+class ImportException extends Exception {
+    public ImportException(String message) {
+        super(message);
+    }
+    public ImportException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
+
+interface ImportListener {
+    // Called from the import threads after every appended chunk
+    void importProgress(long bytesRead, long totalBytes, long rowsImported, long rowsRejected);
+    void importFinished(ImportResult result);
+    void importFailed(ImportException error);
+}
+
+class ImportResult {
+    private final long rowsImported;
+    private final long rowsRejected;
+    private final List<String> rejectedSamples;
+    private final long elapsedMillis;
+
+    public ImportResult(long rowsImported, long rowsRejected, List<String> rejectedSamples, long elapsedMillis) {
+        this.rowsImported = rowsImported;
+        this.rowsRejected = rowsRejected;
+        this.rejectedSamples = rejectedSamples;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    // The first few rejected lines, for showing the user what went wrong
+    public List<String> getRejectedSamples() {
+        return rejectedSamples;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
+
+// Bulk CSV import into a user's ledger.
+//
+// The file is read in 1MB chunks on the calling thread, parsed on a small pool and appended in
+// file order by a single appender thread. Chunks live in a fixed set of slots that cycle
+// reader -> parser -> appender -> reader, so a slow stage blocks the ones before it and memory
+// stays bounded whatever the file size. Parsing works on the raw bytes; category names are
+// interned per parser, so a row only allocates when it introduces a new category.
+//
+// Columns are taken from a header row naming "amount", "category" and optionally "date".
+// Without a header the order is amount,category[,date]. Dates are yyyy-MM-dd (anything after
+// the day is ignored) or epoch milliseconds; rows without one are stamped with the import time.
+// Amounts are read straight into minor units by Money.parse, so a row with more decimals than the
+// currency has, or an exponent, is rejected instead of rounded.
+public class ExpenseImporter {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final int MAX_SAMPLES = 5;
+    private static final int MAX_FIELDS = 16;
+
+    private static final class Slot {
+        final byte[] bytes;
+        int start;
+        int length;
+        long sequence;
+        // Parsed rows
+        long[] amounts;
+        int[] categoryIds;
+        long[] timestamps;
+        String[] categoryNames;
+        int count;
+        int rejected;
+        final List<String> samples = new ArrayList<>();
+
+        Slot(int chunkBytes, int rows) {
+            bytes = new byte[chunkBytes];
+            amounts = new long[rows];
+            categoryIds = new int[rows];
+            timestamps = new long[rows];
+        }
+
+        void ensureRows(int rows) {
+            if (rows > amounts.length) {
+                int capacity = Math.max(rows, amounts.length * 2);
+                amounts = Arrays.copyOf(amounts, capacity);
+                categoryIds = Arrays.copyOf(categoryIds, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+        }
+    }
+
+    // Tells a parser or the appender that no more slots are coming
+    private static final Slot END = new Slot(0, 0);
+
+    private final User user;
+    private final Path file;
+    private final ImportListener listener;
+    private final int parsers;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final long importTime = System.currentTimeMillis();
+
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure;
+
+    // Column positions, fixed once the first line has been looked at
+    private int amountColumn = 0;
+    private int categoryColumn = 1;
+    private int dateColumn = 2;
+
+    public ExpenseImporter(User user, Path file, ImportListener listener) {
+        this(user, file, listener, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public ExpenseImporter(User user, Path file, ImportListener listener, int parsers) {
+        this.user = user;
+        this.file = file;
+        this.listener = listener;
+        this.parsers = parsers;
+    }
+
+    // Runs the import on a background thread; the outcome goes to the listener
+    public void start() {
+        Thread thread = new Thread(() -> {
+            try {
+                listener.importFinished(run());
+            } catch (ImportException e) {
+                listener.importFailed(e);
+            }
+        }, "expense-import");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops reading; rows already appended stay in the ledger
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public ImportResult run() throws ImportException {
+        long start = System.nanoTime();
+        int slotCount = parsers * 2 + 2;
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            free.add(new Slot(CHUNK_BYTES, 16 * 1024));
+        }
+        BlockingQueue<Slot> parseQueue = new ArrayBlockingQueue<>(slotCount + parsers);
+        BlockingQueue<Slot> appendQueue = new ArrayBlockingQueue<>(slotCount + parsers);
+        ExecutorService workers = Executors.newFixedThreadPool(parsers + 1, r -> {
+            Thread thread = new Thread(r, "expense-import-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long totalBytes;
+        Future<ImportResult> appended;
+        IOException readFailure = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            totalBytes = channel.size();
+            for (int i = 0; i < parsers; i++) {
+                workers.execute(() -> parseLoop(parseQueue, appendQueue));
+            }
+            appended = workers.submit(() -> appendLoop(free, appendQueue, totalBytes, start));
+            try {
+                read(channel, free, parseQueue);
+            } catch (IOException e) {
+                readFailure = e;
+            } finally {
+                for (int i = 0; i < parsers; i++) {
+                    parseQueue.put(END);
+                }
+            }
+        } catch (IOException e) {
+            workers.shutdownNow();
+            throw new ImportException("Could not read " + file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+            throw new ImportException("Import of " + file + " was interrupted", e);
+        }
+
+        try {
+            ImportResult result = appended.get();
+            if (readFailure != null) {
+                throw new ImportException("Could not read " + file + ": " + readFailure.getMessage(), readFailure);
+            }
+            if (failure != null) {
+                throw new ImportException("Import of " + file + " failed: " + failure, failure);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImportException("Import of " + file + " was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new ImportException("Import of " + file + " failed", e.getCause());
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    // Fills slots with whole lines and hands them to the parsers; the last partial line of a
+    // chunk is carried over to the start of the next one
+    private void read(FileChannel channel, BlockingQueue<Slot> free, BlockingQueue<Slot> parseQueue)
+            throws IOException, InterruptedException {
+        long sequence = 0;
+        Slot slot = free.take();
+        slot.start = 0;
+        slot.length = 0;
+        boolean first = true;
+        while (!cancelled) {
+            boolean eof = fill(channel, slot);
+            if (first) {
+                slot.start = readHeader(slot);
+                first = false;
+            }
+            if (eof) {
+                slot.sequence = sequence;
+                parseQueue.put(slot);
+                return;
+            }
+            int lastNewline = slot.length - 1;
+            while (lastNewline >= slot.start && slot.bytes[lastNewline] != '\n') {
+                lastNewline--;
+            }
+            if (lastNewline < slot.start) {
+                throw new IOException("Line longer than " + CHUNK_BYTES + " bytes");
+            }
+            Slot next = free.take();
+            int carry = slot.length - lastNewline - 1;
+            System.arraycopy(slot.bytes, lastNewline + 1, next.bytes, 0, carry);
+            next.start = 0;
+            next.length = carry;
+            slot.length = lastNewline + 1;
+            slot.sequence = sequence++;
+            parseQueue.put(slot);
+            slot = next;
+        }
+        // Cancelled: the slot still has to reach the appender so it keeps counting in order
+        slot.length = slot.start;
+        slot.sequence = sequence;
+        parseQueue.put(slot);
+    }
+
+    // Reads until the slot is full, returns true at end of file
+    private static boolean fill(FileChannel channel, Slot slot) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(slot.bytes, slot.length, CHUNK_BYTES - slot.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                slot.length = buffer.position();
+                return true;
+            }
+        }
+        slot.length = buffer.position();
+        return false;
+    }
+
+    // Picks up the column layout from a header row, returns where the data starts
+    private int readHeader(Slot slot) throws IOException {
+        // Spreadsheet exports often start with a UTF-8 byte order mark
+        int begin = slot.length >= 3 && slot.bytes[0] == (byte) 0xEF && slot.bytes[1] == (byte) 0xBB
+                && slot.bytes[2] == (byte) 0xBF ? 3 : 0;
+        int end = begin;
+        while (end < slot.length && slot.bytes[end] != '\n') {
+            end++;
+        }
+        String[] names = new String(slot.bytes, begin, end - begin, StandardCharsets.UTF_8).split(",");
+        int amount = -1;
+        int category = -1;
+        int date = -1;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim().replace("\"", "").toLowerCase(Locale.ROOT);
+            if (name.equals("amount")) {
+                amount = i;
+            } else if (name.equals("category")) {
+                category = i;
+            } else if (name.equals("date") || name.equals("timestamp")) {
+                date = i;
+            }
+        }
+        if (amount < 0 && category < 0) {
+            return begin;
+        }
+        if (amount < 0 || category < 0 || Math.max(amount, Math.max(category, date)) >= MAX_FIELDS) {
+            throw new IOException("Header must name an amount and a category column");
+        }
+        amountColumn = amount;
+        categoryColumn = category;
+        dateColumn = date;
+        return Math.min(end + 1, slot.length);
+    }
+
+    private void parseLoop(BlockingQueue<Slot> parseQueue, BlockingQueue<Slot> appendQueue) {
+        RowParser parser = new RowParser();
+        try {
+            while (true) {
+                Slot slot = parseQueue.take();
+                if (slot == END) {
+                    appendQueue.put(END);
+                    return;
+                }
+                try {
+                    parser.parse(slot);
+                } catch (RuntimeException e) {
+                    // Never lose a slot, the appender waits for every sequence number
+                    slot.count = 0;
+                    slot.rejected = 0;
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                appendQueue.put(slot);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Appends parsed slots in sequence order and recycles them
+    private ImportResult appendLoop(BlockingQueue<Slot> free, BlockingQueue<Slot> appendQueue, long totalBytes, long start)
+            throws InterruptedException {
+        Map<Long, Slot> waiting = new HashMap<>();
+        long next = 0;
+        int ended = 0;
+        long bytesRead = 0;
+        long imported = 0;
+        long rejected = 0;
+        List<String> samples = new ArrayList<>();
+        ExpenseLedger ledger = user.getLedger();
+        while (ended < parsers) {
+            Slot slot = appendQueue.take();
+            if (slot == END) {
+                ended++;
+                continue;
+            }
+            waiting.put(slot.sequence, slot);
+            while ((slot = waiting.remove(next)) != null) {
+                next++;
+                bytesRead += slot.length;
+                // Keep cycling slots after a failure, otherwise the reader would wait forever
+                if (failure == null && !cancelled) {
+                    try {
+                        ledger.addAll(slot.amounts, slot.categoryIds, slot.categoryNames, slot.timestamps, slot.count);
+                        imported += slot.count;
+                        rejected += slot.rejected;
+                        for (int i = 0; i < slot.samples.size() && samples.size() < MAX_SAMPLES; i++) {
+                            samples.add(slot.samples.get(i));
+                        }
+                        listener.importProgress(Math.min(bytesRead, totalBytes), totalBytes, imported, rejected);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                free.put(slot);
+            }
+        }
+        return new ImportResult(imported, rejected, samples, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Per-thread parsing state: the category intern table and the last date seen
+    private final class RowParser {
+        private final int[] fieldStart = new int[MAX_FIELDS];
+        private final int[] fieldEnd = new int[MAX_FIELDS];
+        private final boolean[] fieldEscaped = new boolean[MAX_FIELDS];
+        private final CategoryInterner categories = new CategoryInterner(user.isPremium());
+        private final byte[] lastDate = new byte[32];
+        private int lastDateLength = -1;
+        private long lastTimestamp;
+
+        void parse(Slot slot) {
+            byte[] bytes = slot.bytes;
+            slot.count = 0;
+            slot.rejected = 0;
+            slot.samples.clear();
+            int columns = Math.max(amountColumn, Math.max(categoryColumn, dateColumn)) + 1;
+            int position = slot.start;
+            while (position < slot.length) {
+                int lineEnd = position;
+                while (lineEnd < slot.length && bytes[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd > position && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd > position) {
+                    parseLine(slot, position, contentEnd, columns);
+                }
+                position = lineEnd + 1;
+            }
+            slot.categoryNames = categories.names();
+        }
+
+        private void parseLine(Slot slot, int from, int to, int columns) {
+            byte[] bytes = slot.bytes;
+            int fields = split(bytes, from, to, columns);
+            if (fields <= Math.max(amountColumn, categoryColumn)) {
+                reject(slot, from, to);
+                return;
+            }
+            long amount = Money.parse(bytes, fieldStart[amountColumn], fieldEnd[amountColumn]);
+            int categoryId = fieldEscaped[categoryColumn]
+                    ? categories.idOf(unescape(bytes, fieldStart[categoryColumn], fieldEnd[categoryColumn]))
+                    : categories.idOf(bytes, fieldStart[categoryColumn], fieldEnd[categoryColumn]);
+            long timestamp = dateColumn >= 0 && dateColumn < fields && fieldEnd[dateColumn] > fieldStart[dateColumn]
+                    ? parseDate(bytes, fieldStart[dateColumn], fieldEnd[dateColumn])
+                    : importTime;
+            if (amount == Money.INVALID || categoryId < 0 || timestamp == Long.MIN_VALUE) {
+                reject(slot, from, to);
+                return;
+            }
+            int row = slot.count++;
+            slot.ensureRows(slot.count);
+            slot.amounts[row] = amount;
+            slot.categoryIds[row] = categoryId;
+            slot.timestamps[row] = timestamp;
+        }
+
+        // Records field bounds for the first `columns` fields, without quotes and surrounding blanks
+        private int split(byte[] bytes, int from, int to, int columns) {
+            int field = 0;
+            int position = from;
+            while (field < columns) {
+                while (position < to && bytes[position] == ' ') {
+                    position++;
+                }
+                boolean escaped = false;
+                int start;
+                int end;
+                if (position < to && bytes[position] == '"') {
+                    start = ++position;
+                    while (position < to) {
+                        if (bytes[position] == '"') {
+                            if (position + 1 < to && bytes[position + 1] == '"') {
+                                escaped = true;
+                                position += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        position++;
+                    }
+                    end = position;
+                    while (position < to && bytes[position] != ',') {
+                        position++;
+                    }
+                } else {
+                    start = position;
+                    while (position < to && bytes[position] != ',') {
+                        position++;
+                    }
+                    end = position;
+                    while (end > start && bytes[end - 1] == ' ') {
+                        end--;
+                    }
+                }
+                fieldStart[field] = start;
+                fieldEnd[field] = end;
+                fieldEscaped[field] = escaped;
+                field++;
+                if (position >= to) {
+                    break;
+                }
+                position++;
+            }
+            return field;
+        }
+
+        // Parses the date field, reusing the previous result while the bytes are unchanged
+        private long parseDate(byte[] bytes, int from, int to) {
+            int length = to - from;
+            if (length == lastDateLength && Arrays.equals(bytes, from, to, lastDate, 0, length)) {
+                return lastTimestamp;
+            }
+            long timestamp = Long.MIN_VALUE;
+            if (length >= 10 && bytes[from + 4] == '-' && bytes[from + 7] == '-') {
+                int year = digits(bytes, from, 4);
+                int month = digits(bytes, from + 5, 2);
+                int day = digits(bytes, from + 8, 2);
+                if (year >= 0 && month >= 0 && day >= 0) {
+                    try {
+                        timestamp = LocalDate.of(year, month, day).atStartOfDay(zone).toInstant().toEpochMilli();
+                    } catch (DateTimeException e) {
+                        timestamp = Long.MIN_VALUE;
+                    }
+                }
+            } else if (length <= 18 && isDigits(bytes, from, to)) {
+                timestamp = parseMillis(bytes, from, to);
+            }
+            if (timestamp != Long.MIN_VALUE && length <= lastDate.length) {
+                System.arraycopy(bytes, from, lastDate, 0, length);
+                lastDateLength = length;
+                lastTimestamp = timestamp;
+            }
+            return timestamp;
+        }
+
+        private void reject(Slot slot, int from, int to) {
+            slot.rejected++;
+            if (slot.samples.size() < MAX_SAMPLES) {
+                slot.samples.add(new String(slot.bytes, from, Math.min(to - from, 200), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    // Returns the value of `count` ASCII digits, or -1 if any byte is not a digit
+    private static int digits(byte[] bytes, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isDigits(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return false;
+            }
+        }
+        return to > from;
+    }
+
+    private static long parseMillis(byte[] bytes, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    private static String unescape(byte[] bytes, int from, int to) {
+        return new String(bytes, from, to - from, StandardCharsets.UTF_8).replace("\"\"", "\"");
+    }
+
+    // Open-addressing table from raw category bytes to ids. Invalid categories (empty, or not
+    // allowed for a normal user) are remembered too and map to -1.
+    private static final class CategoryInterner {
+        private final boolean allowCustom;
+        private byte[][] keys = new byte[64][];
+        private int[] slotIds = new int[64];
+        private String[] names = new String[16];
+        private int size = 0;
+        private int filled = 0;
+
+        CategoryInterner(boolean allowCustom) {
+            this.allowCustom = allowCustom;
+        }
+
+        int idOf(byte[] bytes, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int mask = keys.length - 1;
+            for (int index = mix(hash) & mask; ; index = (index + 1) & mask) {
+                byte[] key = keys[index];
+                if (key == null) {
+                    String name = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+                    return insert(index, Arrays.copyOfRange(bytes, from, to), name);
+                }
+                if (Arrays.equals(key, 0, key.length, bytes, from, to)) {
+                    return slotIds[index];
+                }
+            }
+        }
+
+        int idOf(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            return idOf(bytes, 0, bytes.length);
+        }
+
+        // Ids index into this array; entries are never changed once written
+        String[] names() {
+            return names;
+        }
+
+        private int insert(int index, byte[] key, String name) {
+            int id = -1;
+            if (!name.isEmpty() && (allowCustom || Utility.isValidCategory(name))) {
+                if (size == names.length) {
+                    names = Arrays.copyOf(names, size * 2);
+                }
+                id = size++;
+                names[id] = name;
+            }
+            keys[index] = key;
+            slotIds[index] = id;
+            if (++filled * 2 > keys.length) {
+                grow();
+            }
+            return id;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = slotIds;
+            keys = new byte[oldKeys.length * 2][];
+            slotIds = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                byte[] key = oldKeys[i];
+                if (key != null) {
+                    int hash = 1;
+                    for (byte b : key) {
+                        hash = 31 * hash + b;
+                    }
+                    int index = mix(hash) & mask;
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = key;
+                    slotIds[index] = oldIds[i];
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
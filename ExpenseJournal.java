@@ -0,0 +1,796 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class JournalException extends Exception {
+    public JournalException(String message) {
+        super(message);
+    }
+    public JournalException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
+
+// Append-only binary log of user, expense and budget events.
+//
+// Records are buffered in memory and written + fsynced by a single background thread every
+// fsyncIntervalMillis (group commit). Once snapshotEveryRecords records have been written the
+// journal rotates to a new segment and writes a snapshot of the full state, after which older
+// segments are deleted. Startup loads the snapshot and replays the remaining segments, both
+// through memory-mapped reads.
+//
+// Amounts are stored as exact minor units. Every new segment and snapshot names its currency,
+// and a journal kept in another currency than Money.CURRENCY is refused rather than misread.
+public class ExpenseJournal implements ExpenseLedgerListener, BudgetRulesListener {
+    private static final byte USER = 1;
+    private static final byte CATEGORY = 2;
+    private static final byte REMOVE = 4;
+    private static final byte CLEAR = 5;
+    // Category id, amount in minor units and timestamp
+    private static final byte EXPENSE = 7;
+    // First record of a segment, the currency code of the amounts that follow
+    private static final byte CURRENCY = 8;
+    // Window ordinal, limit in minor units (0 removes the budget) and category, length -1 for all
+    private static final byte BUDGET = 9;
+
+    private static final int SNAPSHOT_MAGIC = 0x45585053;
+    private static final int SNAPSHOT_VERSION = 4;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int REPLAY_BATCH = 1024;
+    private static final Histogram loadTimer = Metrics.timer("journal.load");
+    private static final Histogram syncTimer = Metrics.timer("journal.sync");
+
+    private static final class JournaledUser {
+        final int id;
+        final User user;
+        // Number of records written for this user, used to skip what a snapshot already covers
+        long sequence;
+        // Records at the start of the first replayed segment that the snapshot already contains
+        long skip;
+        // Expense records read during replay but not yet appended to the ledger
+        long[] replayAmounts;
+        String[] replayCategories;
+        long[] replayTimestamps;
+        int replayCount;
+
+        JournaledUser(int id, User user) {
+            this.id = id;
+            this.user = user;
+        }
+
+        void bufferReplayed(long amount, String category, long timestamp) {
+            if (replayAmounts == null) {
+                replayAmounts = new long[REPLAY_BATCH];
+                replayCategories = new String[REPLAY_BATCH];
+                replayTimestamps = new long[REPLAY_BATCH];
+            }
+            replayAmounts[replayCount] = amount;
+            replayCategories[replayCount] = category;
+            replayTimestamps[replayCount] = timestamp;
+            if (++replayCount == REPLAY_BATCH) {
+                flushReplayed();
+            }
+        }
+
+        void flushReplayed() {
+            if (replayCount > 0) {
+                user.getLedger().addAll(replayAmounts, replayCategories, replayTimestamps, replayCount);
+                replayCount = 0;
+            }
+        }
+    }
+
+    private final Path directory;
+    private final long snapshotEveryRecords;
+    private final ScheduledExecutorService writer;
+
+    private final Map<ExpenseLedger, JournaledUser> usersByLedger = new IdentityHashMap<>();
+    private final List<JournaledUser> users = new ArrayList<>();
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final List<String> categoryNames = new ArrayList<>();
+
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private FileChannel channel;
+    private long segment;
+    private long recordsSinceSnapshot = 0;
+    private boolean closed = false;
+
+    private ExpenseJournal(Path directory, long snapshotEveryRecords) {
+        this.directory = directory;
+        this.snapshotEveryRecords = snapshotEveryRecords;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "expense-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Replays the journal in directory into UserDatabase and starts journaling every known user
+    public static ExpenseJournal open(Path directory, long fsyncIntervalMillis, long snapshotEveryRecords) throws JournalException {
+        long start = System.nanoTime();
+        ExpenseJournal journal = new ExpenseJournal(directory, snapshotEveryRecords);
+        try {
+            Files.createDirectories(directory);
+            journal.replay();
+            journal.channel = FileChannel.open(journal.segmentPath(journal.segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (journal.channel.size() == 0) {
+                journal.recordCurrency();
+            }
+        } catch (IOException e) {
+            throw new JournalException("Could not open expense journal in " + directory + ": " + e.getMessage(), e);
+        }
+        for (JournaledUser journaled : journal.users) {
+            journaled.user.getLedger().addListener(journal);
+            journaled.user.setBudgetRulesListener(journal);
+        }
+        journal.writer.scheduleWithFixedDelay(journal::commit, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        loadTimer.recordSince(start);
+        return journal;
+    }
+
+    // Journals a new user, and any expenses their ledger already holds, e.g. one restored from a
+    // backup. The ledger lock is taken first, the order listener calls take the two locks in, and
+    // the journal lock is let go between batches so the writer thread keeps draining.
+    public void recordUser(User user) {
+        ExpenseLedger ledger = user.getLedger();
+        synchronized (ledger) {
+            synchronized (this) {
+                JournaledUser journaled = register(user);
+                byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+                byte[] password = user.getPasswordHash().encoded().getBytes(StandardCharsets.UTF_8);
+                reserve(1 + 4 + 1 + 4 + username.length + 4 + password.length);
+                pending.put(USER).putInt(journaled.id).put((byte) (user.isPremium() ? 1 : 0));
+                putBytes(username);
+                putBytes(password);
+                recordsSinceSnapshot++;
+            }
+            for (int from = 0; from < ledger.size(); from += REPLAY_BATCH) {
+                expensesAppended(ledger, from, Math.min(from + REPLAY_BATCH, ledger.size()));
+            }
+            BudgetRules budgets = user.existingBudgetRules();
+            if (budgets != null) {
+                for (BudgetRule rule : budgets.getRules()) {
+                    budgetPut(ledger, rule);
+                }
+            }
+            ledger.addListener(this);
+            user.setBudgetRulesListener(this);
+        }
+    }
+
+    @Override
+    public synchronized void expensesAppended(ExpenseLedger ledger, int fromIndex, int toIndex) {
+        JournaledUser journaled = usersByLedger.get(ledger);
+        if (journaled == null) {
+            return;
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            int categoryId = categoryId(ledger.categoryAt(i));
+            reserve(1 + 4 + 4 + 8 + 8);
+            pending.put(EXPENSE).putInt(journaled.id).putInt(categoryId).putLong(ledger.amountAt(i)).putLong(ledger.timestampAt(i));
+            journaled.sequence++;
+        }
+        recordsSinceSnapshot += toIndex - fromIndex;
+    }
+
+    @Override
+    public synchronized void expensesRemoved(ExpenseLedger ledger, int fromIndex, int toIndex) {
+        JournaledUser journaled = usersByLedger.get(ledger);
+        if (journaled == null) {
+            return;
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            reserve(1 + 4 + 4);
+            pending.put(REMOVE).putInt(journaled.id).putInt(fromIndex);
+            journaled.sequence++;
+            recordsSinceSnapshot++;
+        }
+    }
+
+    @Override
+    public synchronized void expensesCleared(ExpenseLedger ledger) {
+        JournaledUser journaled = usersByLedger.get(ledger);
+        if (journaled == null) {
+            return;
+        }
+        reserve(1 + 4);
+        pending.put(CLEAR).putInt(journaled.id);
+        journaled.sequence++;
+        recordsSinceSnapshot++;
+    }
+
+    @Override
+    public synchronized void budgetPut(ExpenseLedger ledger, BudgetRule rule) {
+        recordBudget(ledger, rule.getCategory(), rule.getLimit(), rule.getWindow());
+    }
+
+    @Override
+    public synchronized void budgetRemoved(ExpenseLedger ledger, String category, BudgetWindow window) {
+        recordBudget(ledger, category, 0, window);
+    }
+
+    // Caller holds the lock
+    private void recordBudget(ExpenseLedger ledger, String category, long limit, BudgetWindow window) {
+        JournaledUser journaled = usersByLedger.get(ledger);
+        if (journaled == null) {
+            return;
+        }
+        byte[] name = category == null ? null : category.getBytes(StandardCharsets.UTF_8);
+        reserve(1 + 4 + 1 + 8 + 4 + (name == null ? 0 : name.length));
+        pending.put(BUDGET).putInt(journaled.id).put((byte) window.ordinal()).putLong(limit);
+        if (name == null) {
+            pending.putInt(-1);
+        } else {
+            putBytes(name);
+        }
+        journaled.sequence++;
+        recordsSinceSnapshot++;
+    }
+
+    // Flushes outstanding records and stops the writer thread
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (JournaledUser journaled : users) {
+                journaled.user.getLedger().removeListener(this);
+                journaled.user.setBudgetRulesListener(null);
+            }
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            writeAndSync();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing expense journal: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs on the writer thread only
+    private void commit() {
+        try {
+            writeAndSync();
+            boolean snapshotDue;
+            synchronized (this) {
+                snapshotDue = recordsSinceSnapshot >= snapshotEveryRecords;
+            }
+            if (snapshotDue) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing expense journal: " + e.getMessage());
+        }
+    }
+
+    private void writeAndSync() throws IOException {
+        ByteBuffer batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        writeAndSync(batch);
+    }
+
+    private void writeAndSync(ByteBuffer batch) throws IOException {
+        if (!batch.hasRemaining()) {
+            return;
+        }
+        long start = System.nanoTime();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+        syncTimer.recordSince(start);
+    }
+
+    // Caller holds the lock
+    private ByteBuffer takePending() {
+        if (pending.position() == 0) {
+            return EMPTY;
+        }
+        ByteBuffer batch = pending;
+        batch.flip();
+        pending = ByteBuffer.allocate(Math.max(64 * 1024, batch.capacity() / 2));
+        return batch;
+    }
+
+    private void snapshot() throws IOException {
+        // Rotate first: every record after the captured sequences lands in the new segment
+        Map<JournaledUser, Long> rotationSequence = new HashMap<>();
+        List<JournaledUser> snapshotUsers;
+        List<String> snapshotCategories;
+        ByteBuffer lastBatch;
+        long nextSegment;
+        synchronized (this) {
+            for (JournaledUser journaled : users) {
+                rotationSequence.put(journaled, journaled.sequence);
+            }
+            snapshotUsers = new ArrayList<>(users);
+            lastBatch = takePending();
+            // Opens the new segment, ahead of anything recorded after the rotation
+            recordCurrency();
+            nextSegment = segment + 1;
+            recordsSinceSnapshot = 0;
+        }
+        writeAndSync(lastBatch);
+        FileChannel previous = channel;
+        channel = FileChannel.open(segmentPath(nextSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        previous.close();
+        synchronized (this) {
+            segment = nextSegment;
+        }
+
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(nextSegment);
+            byte[] currency = Money.CURRENCY.getCurrencyCode().getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(currency.length).put(currency);
+            buffer.putInt(snapshotUsers.size());
+            for (JournaledUser journaled : snapshotUsers) {
+                ExpenseLedger ledger = journaled.user.getLedger();
+                // Rows and sequence are read under the ledger lock so they describe the same state
+                synchronized (ledger) {
+                    long skip;
+                    synchronized (this) {
+                        skip = journaled.sequence - rotationSequence.get(journaled);
+                    }
+                    byte[] username = journaled.user.getUsername().getBytes(StandardCharsets.UTF_8);
+                    byte[] password = journaled.user.getPasswordHash().encoded().getBytes(StandardCharsets.UTF_8);
+                    buffer = drainIfFull(out, buffer, 4 + 1 + 8 + 4 + 4 + username.length + 4 + password.length);
+                    buffer.putInt(journaled.id).put((byte) (journaled.user.isPremium() ? 1 : 0)).putLong(skip);
+                    buffer.putInt(username.length).put(username).putInt(password.length).put(password);
+                    // Budgets are set under the ledger lock too, so they match the sequence
+                    BudgetRules budgets = journaled.user.existingBudgetRules();
+                    List<BudgetRule> rules = budgets == null ? List.of() : budgets.getRules();
+                    buffer = drainIfFull(out, buffer, 4);
+                    buffer.putInt(rules.size());
+                    for (BudgetRule rule : rules) {
+                        byte[] category = rule.getCategory() == null ? null : rule.getCategory().getBytes(StandardCharsets.UTF_8);
+                        buffer = drainIfFull(out, buffer, 1 + 8 + 4 + (category == null ? 0 : category.length));
+                        buffer.put((byte) rule.getWindow().ordinal()).putLong(rule.getLimit());
+                        if (category == null) {
+                            buffer.putInt(-1);
+                        } else {
+                            buffer.putInt(category.length).put(category);
+                        }
+                    }
+                    // A paged-out ledger is copied from its page file, loading it back would blow
+                    // SessionManager's budget and count as a use
+                    Path pagedOut = ledger.pagedOutFile();
+                    if (pagedOut != null) {
+                        buffer = putPagedOutRows(out, buffer, pagedOut);
+                        continue;
+                    }
+                    // Rows refer to the ledger's own category ids so they load without a lookup table
+                    int ledgerCategories = ledger.categoryCount();
+                    buffer = drainIfFull(out, buffer, 4);
+                    buffer.putInt(ledgerCategories);
+                    for (int c = 0; c < ledgerCategories; c++) {
+                        byte[] name = ledger.categoryName(c).getBytes(StandardCharsets.UTF_8);
+                        buffer = drainIfFull(out, buffer, 4 + name.length);
+                        buffer.putInt(name.length).put(name);
+                    }
+                    // Rows go out in column blocks of REPLAY_BATCH so loading is a bulk copy per block
+                    int size = ledger.size();
+                    buffer = drainIfFull(out, buffer, 4);
+                    buffer.putInt(size);
+                    for (int from = 0; from < size; from += REPLAY_BATCH) {
+                        int count = Math.min(REPLAY_BATCH, size - from);
+                        buffer = drainIfFull(out, buffer, count * 20);
+                        for (int i = from; i < from + count; i++) {
+                            buffer.putLong(ledger.amountAt(i));
+                        }
+                        for (int i = from; i < from + count; i++) {
+                            buffer.putInt(ledger.categoryIdAt(i));
+                        }
+                        for (int i = from; i < from + count; i++) {
+                            buffer.putLong(ledger.timestampAt(i));
+                        }
+                    }
+                }
+            }
+            // The journal's own dictionary goes last, records in the next segment refer to it
+            synchronized (this) {
+                snapshotCategories = new ArrayList<>(categoryNames);
+            }
+            buffer = drainIfFull(out, buffer, 4);
+            buffer.putInt(snapshotCategories.size());
+            for (String name : snapshotCategories) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                buffer = drainIfFull(out, buffer, 4 + bytes.length);
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            drainIfFull(out, buffer, buffer.capacity());
+            out.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long old = nextSegment - 1; old >= 0 && Files.deleteIfExists(segmentPath(old)); old--) {
+            // Segments before the snapshot are fully covered by it
+        }
+    }
+
+    // Same layout as the rows of a resident ledger. Page file blocks are a multiple of
+    // REPLAY_BATCH rows, so splitting each into REPLAY_BATCH blocks lines up with loadSnapshot.
+    private static ByteBuffer putPagedOutRows(FileChannel out, ByteBuffer buffer, Path file) throws IOException {
+        ByteBuffer[] current = { buffer };
+        LedgerSnapshot.scanRows(file, new LedgerSnapshot.RowVisitor() {
+            @Override
+            public void header(String[] categoryNames, int rowCount) throws IOException {
+                current[0] = drainIfFull(out, current[0], 4);
+                current[0].putInt(categoryNames.length);
+                for (String categoryName : categoryNames) {
+                    byte[] name = categoryName.getBytes(StandardCharsets.UTF_8);
+                    current[0] = drainIfFull(out, current[0], 4 + name.length);
+                    current[0].putInt(name.length).put(name);
+                }
+                current[0] = drainIfFull(out, current[0], 4);
+                current[0].putInt(rowCount);
+            }
+
+            @Override
+            public void rows(long[] amounts, int[] categoryIds, long[] timestamps, int count) throws IOException {
+                for (int from = 0; from < count; from += REPLAY_BATCH) {
+                    int to = Math.min(count, from + REPLAY_BATCH);
+                    ByteBuffer block = current[0] = drainIfFull(out, current[0], (to - from) * 20);
+                    for (int i = from; i < to; i++) {
+                        block.putLong(amounts[i]);
+                    }
+                    for (int i = from; i < to; i++) {
+                        block.putInt(categoryIds[i]);
+                    }
+                    for (int i = from; i < to; i++) {
+                        block.putLong(timestamps[i]);
+                    }
+                }
+            }
+        });
+        return current[0];
+    }
+
+    private static ByteBuffer drainIfFull(FileChannel out, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        if (buffer.capacity() < needed) {
+            return ByteBuffer.allocateDirect(needed);
+        }
+        return buffer;
+    }
+
+    private void replay() throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            segment = loadSnapshot(snapshotPath);
+        } else {
+            segment = firstSegment();
+        }
+        for (long current = segment; Files.exists(segmentPath(current)); current++) {
+            replaySegment(current);
+            segment = current;
+        }
+        for (JournaledUser journaled : users) {
+            journaled.replayAmounts = null;
+            journaled.replayCategories = null;
+            journaled.replayTimestamps = null;
+        }
+    }
+
+    private long loadSnapshot(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedRegion region = new MappedRegion(in);
+            if (region.require(16).getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Unrecognized snapshot " + path);
+            }
+            int version = region.buffer.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + path);
+            }
+            long firstSegment = region.buffer.getLong();
+            checkCurrency(region.readString(), path);
+            int userCount = region.require(4).getInt();
+            List<User> loaded = new ArrayList<>(userCount);
+            long[] amounts = new long[REPLAY_BATCH];
+            int[] categories = new int[REPLAY_BATCH];
+            long[] timestamps = new long[REPLAY_BATCH];
+            for (int u = 0; u < userCount; u++) {
+                ByteBuffer header = region.require(4 + 1 + 8);
+                int id = header.getInt();
+                boolean premium = header.get() == 1;
+                long skip = header.getLong();
+                String username = region.readString();
+                String password = region.readString();
+                User user = new User(username, storedPassword(password, path), premium);
+                register(id, user).skip = skip;
+                List<BudgetRule> rules = new ArrayList<>();
+                for (int r = region.require(4).getInt(); r > 0; r--) {
+                    ByteBuffer rule = region.require(1 + 8);
+                    BudgetWindow window = budgetWindow(rule.get(), path);
+                    long limit = rule.getLong();
+                    rules.add(new BudgetRule(region.readNullableString(), limit, window));
+                }
+                String[] ledgerCategories = new String[region.require(4).getInt()];
+                for (int c = 0; c < ledgerCategories.length; c++) {
+                    ledgerCategories[c] = region.readString();
+                }
+                int size = region.require(4).getInt();
+                for (int from = 0; from < size; from += REPLAY_BATCH) {
+                    int count = Math.min(REPLAY_BATCH, size - from);
+                    ByteBuffer block = region.require(count * 20);
+                    block.asLongBuffer().get(amounts, 0, count);
+                    block.position(block.position() + count * 8);
+                    block.asIntBuffer().get(categories, 0, count);
+                    block.position(block.position() + count * 4);
+                    block.asLongBuffer().get(timestamps, 0, count);
+                    block.position(block.position() + count * 8);
+                    user.getLedger().addAll(amounts, categories, ledgerCategories, timestamps, count);
+                }
+                // After the rows, so each budget fills its window once from the time index
+                for (BudgetRule rule : rules) {
+                    user.getBudgetRules().put(rule);
+                }
+                loaded.add(user);
+            }
+            UserDatabase.addUsers(loaded);
+            int categoryCount = region.require(4).getInt();
+            for (int c = 0; c < categoryCount; c++) {
+                categoryIdAt(c, region.readString());
+            }
+            return firstSegment;
+        }
+    }
+
+    private void replaySegment(long number) throws IOException {
+        Path path = segmentPath(number);
+        long validLength = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedRegion region = new MappedRegion(in);
+            try {
+                while (region.hasRemaining()) {
+                    byte type = region.require(5).get();
+                    int id = region.buffer.getInt();
+                    if (type == USER) {
+                        boolean premium = region.require(1).get() == 1;
+                        String username = region.readString();
+                        String password = region.readString();
+                        if (id >= users.size() || users.get(id) == null) {
+                            User user = new User(username, storedPassword(password, path), premium);
+                            register(id, user);
+                            UserDatabase.addUser(user);
+                        }
+                    } else if (type == CATEGORY) {
+                        categoryIdAt(id, region.readString());
+                    } else if (type == CURRENCY) {
+                        checkCurrency(region.readString(), path);
+                    } else if (type == BUDGET) {
+                        ByteBuffer body = region.require(1 + 8);
+                        BudgetWindow window = budgetWindow(body.get(), path);
+                        long limit = body.getLong();
+                        String category = region.readNullableString();
+                        JournaledUser journaled = users.get(id);
+                        if (journaled.skip > 0) {
+                            journaled.skip--;
+                        } else {
+                            // Rows replayed so far count toward the budget's window
+                            journaled.flushReplayed();
+                            if (limit == 0) {
+                                journaled.user.getBudgetRules().remove(category, window);
+                            } else {
+                                journaled.user.getBudgetRules().put(new BudgetRule(category, limit, window));
+                            }
+                            journaled.sequence++;
+                        }
+                    } else {
+                        int bodyLength = type == EXPENSE ? 20 : type == REMOVE ? 4 : 0;
+                        ByteBuffer body = region.require(bodyLength);
+                        JournaledUser journaled = users.get(id);
+                        ExpenseLedger ledger = journaled.user.getLedger();
+                        if (journaled.skip > 0) {
+                            journaled.skip--;
+                            body.position(body.position() + bodyLength);
+                        } else if (type == EXPENSE) {
+                            String category = categoryNames.get(body.getInt());
+                            long amount = body.getLong();
+                            journaled.bufferReplayed(amount, category, body.getLong());
+                            journaled.sequence++;
+                        } else if (type == REMOVE) {
+                            journaled.flushReplayed();
+                            ledger.remove(body.getInt());
+                            journaled.sequence++;
+                        } else if (type == CLEAR) {
+                            journaled.replayCount = 0;
+                            ledger.clear();
+                            journaled.sequence++;
+                        } else {
+                            throw new IOException("Corrupt record type " + type + " in " + path);
+                        }
+                    }
+                    validLength = region.position();
+                }
+            } catch (TruncatedRecordException e) {
+                // A crash mid-write leaves a partial record at the tail, drop it
+                in.truncate(validLength);
+            }
+            for (JournaledUser journaled : users) {
+                journaled.flushReplayed();
+            }
+        }
+    }
+
+    private static void checkCurrency(String code, Path path) throws IOException {
+        if (!code.equals(Money.CURRENCY.getCurrencyCode())) {
+            throw new IOException(path + " holds amounts in " + code + ", not " + Money.CURRENCY.getCurrencyCode()
+                    + "; start with -Dexpensetracker.currency=" + code);
+        }
+    }
+
+    private static BudgetWindow budgetWindow(byte ordinal, Path path) throws IOException {
+        if (ordinal < 0 || ordinal >= BudgetWindow.values().length) {
+            throw new IOException("Corrupt budget window " + ordinal + " in " + path);
+        }
+        return BudgetWindow.values()[ordinal];
+    }
+
+    private static PasswordHash storedPassword(String stored, Path path) throws IOException {
+        PasswordHash hash = PasswordHash.parse(stored);
+        if (hash == null) {
+            throw new IOException("Corrupt password hash in " + path);
+        }
+        return hash;
+    }
+
+    private long firstSegment() throws IOException {
+        long first = Long.MAX_VALUE;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "journal-*.bin")) {
+            for (Path path : segments) {
+                String name = path.getFileName().toString();
+                first = Math.min(first, Long.parseLong(name.substring("journal-".length(), name.length() - ".bin".length())));
+            }
+        }
+        return first == Long.MAX_VALUE ? 0 : first;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("journal-%06d.bin", number));
+    }
+
+    private JournaledUser register(User user) {
+        JournaledUser journaled = usersByLedger.get(user.getLedger());
+        if (journaled == null) {
+            journaled = register(users.size(), user);
+        }
+        return journaled;
+    }
+
+    private JournaledUser register(int id, User user) {
+        JournaledUser journaled = new JournaledUser(id, user);
+        usersByLedger.put(user.getLedger(), journaled);
+        while (users.size() <= id) {
+            users.add(null);
+        }
+        users.set(id, journaled);
+        return journaled;
+    }
+
+    // Assigns the next id to an unseen category and journals its name; caller holds the lock
+    private int categoryId(String name) {
+        Integer id = categoryIds.get(name);
+        if (id == null) {
+            id = categoryNames.size();
+            categoryIdAt(id, name);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            reserve(1 + 4 + 4 + bytes.length);
+            pending.put(CATEGORY).putInt(id);
+            putBytes(bytes);
+        }
+        return id;
+    }
+
+    private void categoryIdAt(int id, String name) {
+        while (categoryNames.size() <= id) {
+            categoryNames.add(null);
+        }
+        categoryNames.set(id, name);
+        categoryIds.put(name, id);
+    }
+
+    // Caller holds the lock, or is still opening the journal
+    private void recordCurrency() {
+        byte[] code = Money.CURRENCY.getCurrencyCode().getBytes(StandardCharsets.UTF_8);
+        reserve(1 + 4 + 4 + code.length);
+        pending.put(CURRENCY).putInt(0);
+        putBytes(code);
+    }
+
+    private void putBytes(byte[] bytes) {
+        pending.putInt(bytes.length).put(bytes);
+    }
+
+    private void reserve(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private static class TruncatedRecordException extends IOException {
+        TruncatedRecordException() {
+            super("Truncated journal record");
+        }
+    }
+
+    // Sequential reader over a file mapped in windows, so files larger than 2GB can be replayed
+    private static class MappedRegion {
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel channel;
+        private final long length;
+        private long base = 0;
+        MappedByteBuffer buffer;
+
+        MappedRegion(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, length));
+        }
+
+        boolean hasRemaining() {
+            return position() < length;
+        }
+
+        long position() {
+            return base + buffer.position();
+        }
+
+        // Returns the buffer positioned at the next record bytes, remapping if they cross the window
+        ByteBuffer require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                long position = position();
+                if (length - position < bytes) {
+                    throw new TruncatedRecordException();
+                }
+                base = position;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, length - base));
+            }
+            return buffer;
+        }
+
+        String readString() throws IOException {
+            int length = require(4).getInt();
+            byte[] bytes = new byte[length];
+            require(length).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // A string written with length -1 for null
+        String readNullableString() throws IOException {
+            int length = require(4).getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            require(length).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,508 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+interface ExpenseLedgerListener {
+    // Called while the ledger lock is held, so rows in [fromIndex, toIndex) can be read safely
+    void expensesAppended(ExpenseLedger ledger, int fromIndex, int toIndex);
+    void expensesRemoved(ExpenseLedger ledger, int fromIndex, int toIndex);
+    void expensesCleared(ExpenseLedger ledger);
+}
+
+// Dictionary for the categories used in one ledger. Names are interned in CategoryRegistry, this
+// only maps its global ids to dense local ones so per-category arrays stay as small as the ledger.
+class CategoryTable {
+    private int[] globalIds = new int[8];
+    private final Map<Integer, Integer> localIds = new HashMap<>();
+    private int size = 0;
+
+    public int idOf(String name) {
+        int globalId = CategoryRegistry.idOf(name);
+        Integer id = localIds.get(globalId);
+        if (id == null) {
+            if (size == globalIds.length) {
+                globalIds = Arrays.copyOf(globalIds, size * 2);
+            }
+            id = size++;
+            globalIds[id] = globalId;
+            localIds.put(globalId, id);
+        }
+        return id;
+    }
+
+    public String nameOf(int id) {
+        return CategoryRegistry.nameOf(globalIds[id]);
+    }
+
+    public int globalIdOf(int id) {
+        return globalIds[id];
+    }
+
+    // The local id of name, or -1 if this ledger has never used it
+    public int find(String name) {
+        Integer id = localIds.get(CategoryRegistry.find(name));
+        return id == null ? -1 : id;
+    }
+
+    public int size() {
+        return size;
+    }
+}
+
+// Column store for a user's expenses: one primitive array per field, split into fixed-size
+// chunks so growing only copies the small outer chunk table, and the first chunk while it grows
+// to full size. Amounts are exact minor units, see Money. SessionManager may page the rows out to
+// disk while the user is idle; any method that needs them loads them back first.
+public class ExpenseLedger {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // The first chunk starts this small and doubles up to CHUNK_SIZE, most ledgers never fill one
+    private static final int FIRST_CHUNK_CAPACITY = 16;
+    private static final Histogram pageInTimer = Metrics.timer("ledger.pageIn");
+
+    private long[][] amounts = new long[4][];
+    private int[][] categoryIds = new int[4][];
+    private long[][] timestamps = new long[4][];
+    private final CategoryTable categories = new CategoryTable();
+    private final CategoryAggregates aggregates = new CategoryAggregates();
+    private final ExpenseTimeIndex timeIndex = new ExpenseTimeIndex(ZoneId.systemDefault());
+    private int size = 0;
+    // Sum of the absolute amounts. While it fits in a long no partial sum over any subset of the
+    // rows can overflow, so this one checked add in append() covers every total derived from them.
+    // Volatile so ExpenseWriteBuffer can check its writes against it without the lock.
+    private volatile long magnitude = 0;
+    // Bumped whenever existing rows move or disappear, see columns()
+    private long modifications = 0;
+    // Where the rows are while SessionManager has them paged out, null while they are in memory
+    private Path pagedOutTo = null;
+    private Runnable onPageIn = null;
+
+    private final List<ExpenseLedgerListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Expense> readOnlyView = new ExpenseListView();
+
+    public void addListener(ExpenseLedgerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ExpenseLedgerListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void add(Expense expense) {
+        ensureResident();
+        append(expense.getAmount(), categories.idOf(expense.getCategory()), expense.getTimestamp());
+        for (ExpenseLedgerListener listener : listeners) {
+            listener.expensesAppended(this, size - 1, size);
+        }
+    }
+
+    public synchronized void add(long amount, String category) {
+        add(amount, category, System.currentTimeMillis());
+    }
+
+    public synchronized void add(long amount, String category, long timestamp) {
+        ensureResident();
+        append(amount, categories.idOf(category), timestamp);
+        for (ExpenseLedgerListener listener : listeners) {
+            listener.expensesAppended(this, size - 1, size);
+        }
+    }
+
+    public synchronized void addAll(Collection<Expense> batch) {
+        ensureResident();
+        if (batch.isEmpty()) {
+            return;
+        }
+        int from = size;
+        try {
+            for (Expense expense : batch) {
+                append(expense.getAmount(), categories.idOf(expense.getCategory()), expense.getTimestamp());
+            }
+        } finally {
+            notifyAppended(from);
+        }
+    }
+
+    // Bulk path for loaders, rows [0, count) of the arrays are appended as one change. If a row
+    // would overflow the totals, the rows before it stay appended and the exception is rethrown.
+    public synchronized void addAll(long[] amounts, String[] categories, long[] timestamps, int count) {
+        ensureResident();
+        if (count == 0) {
+            return;
+        }
+        int from = size;
+        String lastCategory = null;
+        int lastCategoryId = -1;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (categories[i] != lastCategory) {
+                    lastCategory = categories[i];
+                    lastCategoryId = this.categories.idOf(lastCategory);
+                }
+                append(amounts[i], lastCategoryId, timestamps[i]);
+            }
+        } finally {
+            notifyAppended(from);
+        }
+    }
+
+    // Same as above with categories given as ids into categoryNames, e.g. a stored dictionary
+    public synchronized void addAll(long[] amounts, int[] categoryIds, String[] categoryNames, long[] timestamps, int count) {
+        ensureResident();
+        if (count == 0) {
+            return;
+        }
+        int from = size;
+        try {
+            appendAll(amounts, categoryIds, categoryNames, timestamps, count);
+        } finally {
+            notifyAppended(from);
+        }
+    }
+
+    public synchronized void remove(int index) {
+        ensureResident();
+        checkIndex(index);
+        magnitude -= Math.abs(amountAt(index));
+        aggregates.remove(categoryIdAt(index), amountAt(index));
+        timeIndex.remove(timestampAt(index), categoryIdAt(index), amountAt(index));
+        for (int i = index; i < size - 1; i++) {
+            int next = i + 1;
+            amounts[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = amounts[next >>> CHUNK_SHIFT][next & CHUNK_MASK];
+            categoryIds[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = categoryIds[next >>> CHUNK_SHIFT][next & CHUNK_MASK];
+            timestamps[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = timestamps[next >>> CHUNK_SHIFT][next & CHUNK_MASK];
+        }
+        size--;
+        modifications++;
+        for (ExpenseLedgerListener listener : listeners) {
+            listener.expensesRemoved(this, index, index + 1);
+        }
+    }
+
+    public synchronized void clear() {
+        ensureResident();
+        if (size == 0) {
+            return;
+        }
+        // Keep the first chunk around, most ledgers are refilled after a clear
+        amounts = new long[][] { amounts[0], null, null, null };
+        categoryIds = new int[][] { categoryIds[0], null, null, null };
+        timestamps = new long[][] { timestamps[0], null, null, null };
+        size = 0;
+        magnitude = 0;
+        modifications++;
+        aggregates.clear();
+        timeIndex.clear();
+        for (ExpenseLedgerListener listener : listeners) {
+            listener.expensesCleared(this);
+        }
+    }
+
+    public synchronized Expense get(int index) {
+        ensureResident();
+        checkIndex(index);
+        return new Expense(amountAt(index), categoryAt(index), timestampAt(index));
+    }
+
+    public synchronized long amountAt(int index) {
+        ensureResident();
+        checkIndex(index);
+        return amounts[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public synchronized int categoryIdAt(int index) {
+        ensureResident();
+        checkIndex(index);
+        return categoryIds[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public synchronized long timestampAt(int index) {
+        ensureResident();
+        checkIndex(index);
+        return timestamps[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public synchronized String categoryAt(int index) {
+        return categories.nameOf(categoryIdAt(index));
+    }
+
+    public synchronized String categoryName(int categoryId) {
+        return categories.nameOf(categoryId);
+    }
+
+    // CategoryRegistry's id for one of this ledger's category ids
+    public synchronized int globalCategoryId(int categoryId) {
+        return categories.globalIdOf(categoryId);
+    }
+
+    public synchronized int categoryCount() {
+        return categories.size();
+    }
+
+    // The premium user's own categories, everything used in this ledger beyond the standard four
+    public synchronized List<String> customCategories() {
+        List<String> custom = new ArrayList<>();
+        for (int id = 0; id < categories.size(); id++) {
+            if (!CategoryRegistry.isStandard(categories.globalIdOf(id))) {
+                custom.add(categories.nameOf(id));
+            }
+        }
+        return custom;
+    }
+
+    public synchronized int size() {
+        ensureResident();
+        return size;
+    }
+
+    // One entry per category that currently has expenses, read from the running aggregates
+    public synchronized List<CategorySummary> categorySummaries() {
+        ensureResident();
+        List<CategorySummary> summaries = new ArrayList<>();
+        for (int id = 0; id < aggregates.categoryCount(); id++) {
+            if (aggregates.count(id) == 0) {
+                continue;
+            }
+            summaries.add(new CategorySummary(categories.nameOf(id), aggregates.sum(id), aggregates.count(id),
+                    aggregates.min(id), aggregates.max(id)));
+        }
+        return summaries;
+    }
+
+    // Totals for expenses dated in [from, toExclusive), in the system time zone
+    public synchronized PeriodTotals totalsBetween(LocalDate from, LocalDate toExclusive) {
+        ensureResident();
+        ExpenseTimeIndex.Bucket bucket = timeIndex.totals(from, toExclusive);
+        Map<String, Long> categoryTotals = new LinkedHashMap<>();
+        for (int id = 0; id < bucket.categorySums.length && id < categories.size(); id++) {
+            // Categories with nothing in the period are left out
+            if (bucket.categorySums[id] != 0) {
+                categoryTotals.put(categories.nameOf(id), bucket.categorySums[id]);
+            }
+        }
+        return new PeriodTotals(bucket.sum, bucket.count, categoryTotals);
+    }
+
+    // Epoch day of the first expense dated on or after from, Long.MAX_VALUE if there is none
+    public synchronized long firstDayFrom(LocalDate from) {
+        ensureResident();
+        return timeIndex.firstDayFrom(from.toEpochDay());
+    }
+
+    // Spending per day for expenses dated in [from, toExclusive), in the system time zone
+    public synchronized DailyTotals dailyTotals(LocalDate from, LocalDate toExclusive) {
+        ensureResident();
+        return timeIndex.dailyTotals(from.toEpochDay(), toExclusive.toEpochDay());
+    }
+
+    // Spending per day on one category, or on all of them if category is null
+    public synchronized DailyTotals dailyTotals(LocalDate from, LocalDate toExclusive, String category) {
+        ensureResident();
+        int id = category == null ? -1 : categories.find(category);
+        if (category != null && id < 0) {
+            return new DailyTotals(new long[0], new long[0]);
+        }
+        return timeIndex.dailyTotals(from.toEpochDay(), toExclusive.toEpochDay(), id);
+    }
+
+    // Rolling window of the last `days` days, today included
+    public PeriodTotals totalsForLastDays(int days) {
+        LocalDate tomorrow = LocalDate.now(timeIndex.getZone()).plusDays(1);
+        return totalsBetween(tomorrow.minusDays(days), tomorrow);
+    }
+
+    // Read-only view of the columns for scans on other threads, without the lock. Appends only
+    // write past size, so rows [0, size) stay as they are until a remove or clear; compare
+    // modifications with modifications() afterwards to detect that.
+    static final class Columns {
+        // Row i is at [i >>> CHUNK_SHIFT][i & CHUNK_MASK]
+        static final int CHUNK_SHIFT = ExpenseLedger.CHUNK_SHIFT;
+        static final int CHUNK_MASK = ExpenseLedger.CHUNK_MASK;
+
+        final long[][] amounts;
+        final int[][] categoryIds;
+        final long[][] timestamps;
+        final int size;
+        final String[] categoryNames;
+        final long modifications;
+
+        private Columns(long[][] amounts, int[][] categoryIds, long[][] timestamps, int size, String[] categoryNames, long modifications) {
+            this.amounts = amounts;
+            this.categoryIds = categoryIds;
+            this.timestamps = timestamps;
+            this.size = size;
+            this.categoryNames = categoryNames;
+            this.modifications = modifications;
+        }
+    }
+
+    synchronized Columns columns() {
+        ensureResident();
+        String[] names = new String[categories.size()];
+        for (int id = 0; id < names.length; id++) {
+            names[id] = categories.nameOf(id);
+        }
+        return new Columns(amounts.clone(), categoryIds.clone(), timestamps.clone(), size, names, modifications);
+    }
+
+    // Sum of the absolute amounts of all rows, read without the lock
+    long magnitude() {
+        return magnitude;
+    }
+
+    synchronized long modifications() {
+        return modifications;
+    }
+
+    // Drops the rows from memory once SessionManager has saved them to file in the LedgerSnapshot
+    // format. Whatever needs them next loads them back first, so callers never notice; listeners
+    // are not told either, the rows are the same. onPageIn runs under the lock once they are back.
+    synchronized void pageOut(Path file, Runnable onPageIn) {
+        // magnitude() stays right while the rows are away, they bring it back with them
+        long kept = magnitude;
+        dropRows();
+        magnitude = kept;
+        pagedOutTo = file;
+        this.onPageIn = onPageIn;
+    }
+
+    synchronized boolean isPagedOut() {
+        return pagedOutTo != null;
+    }
+
+    // The page file holding the rows while they are paged out, else null. Lets a caller holding
+    // the lock read them from there instead of loading them back.
+    synchronized Path pagedOutFile() {
+        return pagedOutTo;
+    }
+
+    // Rough heap held by the rows and the indexes over them, for SessionManager's budget
+    synchronized long residentBytes() {
+        long bytes = 0;
+        for (long[] chunk : amounts) {
+            if (chunk != null) {
+                // An amount, a category id and a timestamp per row
+                bytes += chunk.length * 20L;
+            }
+        }
+        return bytes + aggregates.estimatedBytes() + timeIndex.estimatedBytes();
+    }
+
+    // Appends rows read back from a page file, without telling listeners; caller holds the lock
+    void restoreRows(long[] amounts, int[] categoryIds, String[] categoryNames, long[] timestamps, int count) {
+        appendAll(amounts, categoryIds, categoryNames, timestamps, count);
+    }
+
+    // Caller holds the lock
+    private void ensureResident() {
+        if (pagedOutTo == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Path file = pagedOutTo;
+        long kept = magnitude;
+        pagedOutTo = null;
+        magnitude = 0;
+        try {
+            LedgerSnapshot.readRows(file, this);
+        } catch (IOException e) {
+            dropRows();
+            magnitude = kept;
+            pagedOutTo = file;
+            throw new UncheckedIOException("Could not load expenses paged out to " + file, e);
+        }
+        pageInTimer.recordSince(start);
+        onPageIn.run();
+    }
+
+    private void dropRows() {
+        amounts = new long[4][];
+        categoryIds = new int[4][];
+        timestamps = new long[4][];
+        size = 0;
+        magnitude = 0;
+        aggregates.clear();
+        timeIndex.clear();
+    }
+
+    // Read-only view for callers that only iterate; writes must go through the ledger
+    public List<Expense> asList() {
+        return readOnlyView;
+    }
+
+    // Throws ArithmeticException, before anything is written, if the amounts would no longer fit
+    private void append(long amount, int categoryId, long timestamp) {
+        long newMagnitude = Math.addExact(magnitude, Math.absExact(amount));
+        int chunk = size >>> CHUNK_SHIFT;
+        if (chunk == amounts.length) {
+            amounts = Arrays.copyOf(amounts, chunk * 2);
+            categoryIds = Arrays.copyOf(categoryIds, chunk * 2);
+            timestamps = Arrays.copyOf(timestamps, chunk * 2);
+        }
+        if (amounts[chunk] == null) {
+            int capacity = chunk == 0 ? FIRST_CHUNK_CAPACITY : CHUNK_SIZE;
+            amounts[chunk] = new long[capacity];
+            categoryIds[chunk] = new int[capacity];
+            timestamps[chunk] = new long[capacity];
+        } else if ((size & CHUNK_MASK) == amounts[chunk].length) {
+            // Scans holding the old first chunk still see their rows in it
+            int capacity = amounts[chunk].length * 2;
+            amounts[chunk] = Arrays.copyOf(amounts[chunk], capacity);
+            categoryIds[chunk] = Arrays.copyOf(categoryIds[chunk], capacity);
+            timestamps[chunk] = Arrays.copyOf(timestamps[chunk], capacity);
+        }
+        amounts[chunk][size & CHUNK_MASK] = amount;
+        categoryIds[chunk][size & CHUNK_MASK] = categoryId;
+        timestamps[chunk][size & CHUNK_MASK] = timestamp;
+        size++;
+        magnitude = newMagnitude;
+        aggregates.add(categoryId, amount);
+        timeIndex.add(timestamp, categoryId, amount);
+    }
+
+    private void appendAll(long[] amounts, int[] categoryIds, String[] categoryNames, long[] timestamps, int count) {
+        int[] translated = new int[categoryNames.length];
+        Arrays.fill(translated, -1);
+        for (int i = 0; i < count; i++) {
+            int categoryId = translated[categoryIds[i]];
+            if (categoryId < 0) {
+                categoryId = categories.idOf(categoryNames[categoryIds[i]]);
+                translated[categoryIds[i]] = categoryId;
+            }
+            append(amounts[i], categoryId, timestamps[i]);
+        }
+    }
+
+    // Listeners hear about rows [from, size) if there are any
+    private void notifyAppended(int from) {
+        if (size > from) {
+            for (ExpenseLedgerListener listener : listeners) {
+                listener.expensesAppended(this, from, size);
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    // Materializes an Expense per get(), nothing is retained between calls
+    private class ExpenseListView extends AbstractList<Expense> {
+        @Override
+        public Expense get(int index) {
+            return ExpenseLedger.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return ExpenseLedger.this.size();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.ListCell;
+import java.util.*;
+
+// List model whose items are just row numbers into an ExpenseLedger. Nothing is stored per row,
+// the ListView asks ExpenseCell to format only the rows it is currently showing.
+class ExpenseRowList extends ObservableListBase<Integer> {
+    private int size = 0;
+
+    @Override
+    public Integer get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    void appendRows(int count) {
+        int from = size;
+        size += count;
+        beginChange();
+        nextAdd(from, size);
+        endChange();
+    }
+
+    void removeRows(int fromIndex, int toIndex) {
+        size -= toIndex - fromIndex;
+        beginChange();
+        nextRemove(fromIndex, rowNumbers(fromIndex, toIndex));
+        endChange();
+    }
+
+    void resetRows(int newSize) {
+        int oldSize = size;
+        size = newSize;
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(0, rowNumbers(0, oldSize));
+        }
+        if (newSize > 0) {
+            nextAdd(0, newSize);
+        }
+        endChange();
+    }
+
+    // Removed items for change events, without materializing one Integer per row up front
+    private static List<Integer> rowNumbers(int fromIndex, int toIndex) {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return fromIndex + index;
+            }
+
+            @Override
+            public int size() {
+                return toIndex - fromIndex;
+            }
+        };
+    }
+}
+
+// Row numbers of the expenses matching a search, shown in place of ExpenseRowList while a search
+// is active. Replaced as a whole whenever the search runs again.
+class SearchResultList extends ObservableListBase<Integer> {
+    private int[] rows = new int[0];
+
+    @Override
+    public Integer get(int index) {
+        if (index < 0 || index >= rows.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rows.length);
+        }
+        return rows[index];
+    }
+
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    void setRows(int[] newRows) {
+        int[] oldRows = rows;
+        rows = newRows;
+        beginChange();
+        if (oldRows.length > 0) {
+            nextRemove(0, new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) {
+                    return oldRows[index];
+                }
+
+                @Override
+                public int size() {
+                    return oldRows.length;
+                }
+            });
+        }
+        if (newRows.length > 0) {
+            nextAdd(0, newRows.length);
+        }
+        endChange();
+    }
+}
+
+// Formats its ledger row on demand from the binding's column snapshot, so scrolling never waits
+// on the ledger lock; the StringBuilder is reused for every row the cell shows
+class ExpenseCell extends ListCell<Integer> {
+    private final ExpenseListBinding binding;
+    private final StringBuilder text = new StringBuilder(64);
+
+    ExpenseCell(ExpenseListBinding binding) {
+        this.binding = binding;
+    }
+
+    @Override
+    protected void updateItem(Integer row, boolean empty) {
+        super.updateItem(row, empty);
+        if (empty || row == null) {
+            setText(null);
+            return;
+        }
+        ExpenseLedger.Columns columns = binding.columnsFor(row);
+        // The row list trails the ledger by up to one pulse, skip rows that are already gone
+        if (row >= columns.size) {
+            setText(null);
+            return;
+        }
+        int chunk = row >>> ExpenseLedger.Columns.CHUNK_SHIFT;
+        int offset = row & ExpenseLedger.Columns.CHUNK_MASK;
+        text.setLength(0);
+        text.append("Category: ").append(columns.categoryNames[columns.categoryIds[chunk][offset]])
+                .append(", Amount: ").append(Money.SYMBOL);
+        Money.append(text, columns.amounts[chunk][offset]);
+        setText(text.toString());
+    }
+}
+
+// Mirrors an ExpenseLedger's row count into an ExpenseRowList by forwarding only the deltas.
+// Changes arriving between two FX pulses are merged and applied in a single runLater.
+public class ExpenseListBinding implements ExpenseLedgerListener {
+    private static final int APPEND = 0;
+    private static final int REMOVE = 1;
+
+    private static final class Delta {
+        final int kind;
+        final int fromIndex;
+        int toIndex;
+
+        Delta(int kind, int fromIndex, int toIndex) {
+            this.kind = kind;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+    }
+
+    private final ExpenseLedger ledger;
+    private final ExpenseRowList rows;
+    private final List<Delta> pending = new ArrayList<>();
+    private boolean pendingClear = false;
+    private boolean flushScheduled = false;
+    private volatile boolean disposed = false;
+    // Shared by the cells, FX thread only. Appends leave the rows it has as they are, so it is
+    // only retaken for a row past its end or once the ledger's modifications have moved on.
+    private ExpenseLedger.Columns columns = null;
+    // The ledger's modifications as of the last remove or clear, read without its lock
+    private volatile long modifications;
+
+    public ExpenseListBinding(ExpenseLedger ledger, ExpenseRowList rows) {
+        this.ledger = ledger;
+        this.rows = rows;
+    }
+
+    // Must be called on the FX thread
+    public void bind() {
+        int size;
+        synchronized (ledger) {
+            size = ledger.size();
+            modifications = ledger.modifications();
+            ledger.addListener(this);
+        }
+        rows.resetRows(size);
+    }
+
+    // Must be called on the FX thread
+    ExpenseLedger.Columns columnsFor(int row) {
+        if (columns == null || row >= columns.size || columns.modifications != modifications) {
+            columns = ledger.columns();
+        }
+        return columns;
+    }
+
+    public void dispose() {
+        disposed = true;
+        ledger.removeListener(this);
+        synchronized (pending) {
+            pending.clear();
+            pendingClear = false;
+        }
+    }
+
+    @Override
+    public void expensesAppended(ExpenseLedger source, int fromIndex, int toIndex) {
+        synchronized (pending) {
+            Delta last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if (last != null && last.kind == APPEND && last.toIndex == fromIndex) {
+                last.toIndex = toIndex;
+            } else {
+                pending.add(new Delta(APPEND, fromIndex, toIndex));
+            }
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void expensesRemoved(ExpenseLedger source, int fromIndex, int toIndex) {
+        modifications = source.modifications();
+        synchronized (pending) {
+            pending.add(new Delta(REMOVE, fromIndex, toIndex));
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void expensesCleared(ExpenseLedger source) {
+        modifications = source.modifications();
+        synchronized (pending) {
+            // Anything queued before a clear is moot
+            pending.clear();
+            pendingClear = true;
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            Platform.runLater(this::flush);
+        }
+    }
+
+    private void flush() {
+        List<Delta> deltas;
+        boolean clear;
+        synchronized (pending) {
+            deltas = new ArrayList<>(pending);
+            clear = pendingClear;
+            pending.clear();
+            pendingClear = false;
+            flushScheduled = false;
+        }
+        if (disposed) {
+            return;
+        }
+        if (clear) {
+            rows.resetRows(0);
+        }
+        for (Delta delta : deltas) {
+            if (delta.kind == APPEND) {
+                rows.appendRows(delta.toIndex - delta.fromIndex);
+            } else {
+                rows.removeRows(delta.fromIndex, delta.toIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,512 @@
+import java.util.*;
+
+// A parsed search such as "travel >200" or "food 10..25": words must all match the start of a
+// word in the category name, amount conditions all hold. Amounts are written as in the amount
+// field; a bare amount means exactly that amount.
+class SearchQuery {
+    private final List<String> words;
+    private final long min;
+    private final long max;
+
+    private SearchQuery(List<String> words, long min, long max) {
+        this.words = words;
+        this.min = min;
+        this.max = max;
+    }
+
+    static SearchQuery parse(String text) {
+        List<String> words = new ArrayList<>();
+        long min = Long.MIN_VALUE;
+        long max = Long.MAX_VALUE;
+        for (String term : text.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            try {
+                int range = term.indexOf("..");
+                if (term.startsWith(">=")) {
+                    min = Math.max(min, Money.parse(term.substring(2)));
+                } else if (term.startsWith("<=")) {
+                    max = Math.min(max, Money.parse(term.substring(2)));
+                } else if (term.startsWith(">")) {
+                    long bound = Money.parse(term.substring(1));
+                    min = Math.max(min, bound == Long.MAX_VALUE ? bound : bound + 1);
+                } else if (term.startsWith("<")) {
+                    long bound = Money.parse(term.substring(1));
+                    max = Math.min(max, bound == Long.MIN_VALUE ? bound : bound - 1);
+                } else if (term.startsWith("=")) {
+                    long amount = Money.parse(term.substring(1));
+                    min = Math.max(min, amount);
+                    max = Math.min(max, amount);
+                } else if (range > 0) {
+                    min = Math.max(min, Money.parse(term.substring(0, range)));
+                    max = Math.min(max, Money.parse(term.substring(range + 2)));
+                } else if (Character.isDigit(term.charAt(0)) || term.charAt(0) == '$' || term.charAt(0) == '-') {
+                    long amount = Money.parse(term);
+                    min = Math.max(min, amount);
+                    max = Math.min(max, amount);
+                } else {
+                    words.add(term.toLowerCase(Locale.ROOT));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an amount in \"" + term + "\"");
+            }
+        }
+        return new SearchQuery(words, min, max);
+    }
+
+    List<String> getWords() {
+        return words;
+    }
+
+    long getMin() {
+        return min;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    boolean hasAmountRange() {
+        return min != Long.MIN_VALUE || max != Long.MAX_VALUE;
+    }
+}
+
+// In-memory search over one ledger, kept up to date as rows are appended. Two indexes:
+//   - words of the category names -> category ids -> row postings, an inverted index whose
+//     posting lists are ascending row numbers;
+//   - (amount, row) pairs sorted by amount for range conditions. New rows go to an unsorted tail
+//     that is sorted and merged in once it reaches 1/8 of the sorted part, so appends stay
+//     amortized O(1) and a range lookup is a binary search plus a scan of the tail.
+// A query starts from whichever side matches fewer rows and checks the other condition against
+// the ledger columns. Results come back in ledger order, ready for the expense list.
+//
+// Costs about 16 bytes per row on top of the ledger. A remove makes the index rebuild itself on
+// the next query, as does attaching it to a ledger that already has rows. Guarded by its own
+// lock, taken inside the ledger lock by listener calls. search() holds the ledger lock only to
+// take a Columns snapshot, then rebuilds, catches up and scans from that, so readers of the
+// ledger never wait for a query. Rows appended after the snapshot are left out of its result.
+public class ExpenseSearchIndex implements ExpenseLedgerListener {
+    private static final int MIN_TAIL = 1 << 12;
+    // Below this many tail rows the 256 KB of radix counters cost more than they save
+    private static final int RADIX_MIN = 1 << 16;
+    private static final Histogram searchTimer = Metrics.timer("search.query");
+
+    private final ExpenseLedger ledger;
+    private boolean stale = true;
+    // Rows [0, indexedRows) are indexed, as of the ledger's modifications count indexedModifications.
+    // Appends only extend the index when they continue right where it ends.
+    private int indexedRows = 0;
+    private long indexedModifications = -1;
+
+    // Word of a category name -> local category ids; sorted so prefixes are one subMap
+    private final TreeMap<String, BitSet> words = new TreeMap<>();
+    private int indexedCategories = 0;
+    private int[][] postings = new int[8][];
+    private int[] postingSizes = new int[8];
+
+    private long[] sortedAmounts = new long[0];
+    private int[] sortedRows = new int[0];
+    private int sortedCount = 0;
+    private long[] tailAmounts = new long[MIN_TAIL];
+    private int[] tailRows = new int[MIN_TAIL];
+    private int tailCount = 0;
+
+    public ExpenseSearchIndex(ExpenseLedger ledger) {
+        this.ledger = ledger;
+        ledger.addListener(this);
+    }
+
+    public void dispose() {
+        ledger.removeListener(this);
+        synchronized (this) {
+            reset();
+        }
+    }
+
+    // Matching row numbers in ascending order
+    public int[] search(SearchQuery query) {
+        long start = System.nanoTime();
+        ExpenseLedger.Columns columns = ledger.columns();
+        synchronized (this) {
+            if (stale || indexedModifications != columns.modifications) {
+                rebuild(columns);
+            } else if (indexedRows < columns.size) {
+                indexRows(columns, indexedRows, columns.size);
+            }
+            BitSet categories = matchingCategories(columns, query.getWords());
+            int[] result;
+            if (categories == null && !query.hasAmountRange()) {
+                result = new int[columns.size];
+                for (int row = 0; row < result.length; row++) {
+                    result[row] = row;
+                }
+            } else if (categories != null && (!query.hasAmountRange()
+                    || postingCount(categories) <= rangeCount(query.getMin(), query.getMax()))) {
+                result = fromPostings(columns, categories, query.getMin(), query.getMax());
+            } else {
+                result = fromAmounts(columns, categories, query.getMin(), query.getMax());
+            }
+            searchTimer.recordSince(start);
+            return result;
+        }
+    }
+
+    // Runs in the ledger lock, so the rows are read straight from the ledger
+    @Override
+    public synchronized void expensesAppended(ExpenseLedger source, int fromIndex, int toIndex) {
+        if (stale || fromIndex != indexedRows) {
+            // The next search catches up from its snapshot
+            return;
+        }
+        for (int id = indexedCategories, count = source.categoryCount(); id < count; id++) {
+            indexCategory(id, source.categoryName(id));
+        }
+        for (int row = fromIndex; row < toIndex; row++) {
+            addRow(row, source.amountAt(row), source.categoryIdAt(row));
+        }
+        indexedRows = toIndex;
+        if (tailCount >= Math.max(MIN_TAIL, sortedCount / 8)) {
+            mergeTail();
+        }
+    }
+
+    @Override
+    public synchronized void expensesRemoved(ExpenseLedger source, int fromIndex, int toIndex) {
+        // Every later row number shifts, cheaper to rebuild when next asked
+        reset();
+    }
+
+    @Override
+    public synchronized void expensesCleared(ExpenseLedger source) {
+        // Rebuilding from an empty ledger is free
+        reset();
+    }
+
+    private void reset() {
+        stale = true;
+        words.clear();
+        indexedCategories = 0;
+        postings = new int[8][];
+        postingSizes = new int[8];
+        sortedAmounts = new long[0];
+        sortedRows = new int[0];
+        sortedCount = 0;
+        tailAmounts = new long[MIN_TAIL];
+        tailRows = new int[MIN_TAIL];
+        tailCount = 0;
+        indexedRows = 0;
+        indexedModifications = -1;
+    }
+
+    private void rebuild(ExpenseLedger.Columns columns) {
+        reset();
+        stale = false;
+        indexedModifications = columns.modifications;
+        indexRows(columns, 0, columns.size);
+        mergeTail();
+    }
+
+    private void indexRows(ExpenseLedger.Columns columns, int fromIndex, int toIndex) {
+        indexNewCategories(columns);
+        for (int row = fromIndex; row < toIndex; row++) {
+            addRow(row, columns.amounts[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK],
+                    columns.categoryIds[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK]);
+        }
+        indexedRows = toIndex;
+        if (tailCount >= Math.max(MIN_TAIL, sortedCount / 8)) {
+            mergeTail();
+        }
+    }
+
+    private void addRow(int row, long amount, int categoryId) {
+        addPosting(categoryId, row);
+        if (tailCount == tailAmounts.length) {
+            tailAmounts = Arrays.copyOf(tailAmounts, tailCount * 2);
+            tailRows = Arrays.copyOf(tailRows, tailCount * 2);
+        }
+        tailAmounts[tailCount] = amount;
+        tailRows[tailCount] = row;
+        tailCount++;
+    }
+
+    private void indexNewCategories(ExpenseLedger.Columns columns) {
+        for (int id = indexedCategories; id < columns.categoryNames.length; id++) {
+            indexCategory(id, columns.categoryNames[id]);
+        }
+    }
+
+    // Categories are indexed in id order
+    private void indexCategory(int id, String name) {
+        for (String word : name.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.computeIfAbsent(word, w -> new BitSet()).set(id);
+            }
+        }
+        indexedCategories = id + 1;
+    }
+
+    // Categories matching every word, null when there are no words
+    private BitSet matchingCategories(ExpenseLedger.Columns columns, List<String> queryWords) {
+        indexNewCategories(columns);
+        BitSet result = null;
+        for (String word : queryWords) {
+            BitSet matches = new BitSet();
+            for (BitSet categories : words.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                matches.or(categories);
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+        }
+        return result;
+    }
+
+    private void addPosting(int categoryId, int row) {
+        if (categoryId >= postings.length) {
+            int capacity = Math.max(postings.length * 2, categoryId + 1);
+            postings = Arrays.copyOf(postings, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+        }
+        int[] list = postings[categoryId];
+        int size = postingSizes[categoryId];
+        if (list == null) {
+            list = postings[categoryId] = new int[16];
+        } else if (size == list.length) {
+            list = postings[categoryId] = Arrays.copyOf(list, size * 2);
+        }
+        list[size] = row;
+        postingSizes[categoryId] = size + 1;
+    }
+
+    private long postingCount(BitSet categories) {
+        long count = 0;
+        for (int id = categories.nextSetBit(0); id >= 0 && id < postingSizes.length; id = categories.nextSetBit(id + 1)) {
+            count += postingSizes[id];
+        }
+        return count;
+    }
+
+    // Upper bound for the rows in [min, max]: exact for the sorted part, the whole tail on top
+    private long rangeCount(long min, long max) {
+        return (long) lowerBound(max, true) - lowerBound(min, false) + tailCount;
+    }
+
+    // Walks the posting lists of the matching categories, one bit per hit so the union comes out
+    // in row order
+    private int[] fromPostings(ExpenseLedger.Columns columns, BitSet categories, long min, long max) {
+        long[] hits = new long[(columns.size + 63) >>> 6];
+        int count = 0;
+        for (int id = categories.nextSetBit(0); id >= 0 && id < postings.length; id = categories.nextSetBit(id + 1)) {
+            int[] list = postings[id];
+            for (int i = 0; i < postingSizes[id]; i++) {
+                int row = list[i];
+                if (row >= columns.size) {
+                    // Appended after the snapshot, and so is the rest of the list
+                    break;
+                }
+                long amount = columns.amounts[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK];
+                if (amount >= min && amount <= max) {
+                    hits[row >>> 6] |= 1L << row;
+                    count++;
+                }
+            }
+        }
+        return rows(hits, count);
+    }
+
+    private int[] fromAmounts(ExpenseLedger.Columns columns, BitSet categories, long min, long max) {
+        long[] hits = new long[(columns.size + 63) >>> 6];
+        int count = 0;
+        for (int i = lowerBound(min, false), end = lowerBound(max, true); i < end; i++) {
+            int row = sortedRows[i];
+            if (row < columns.size && (categories == null || categories.get(columns.categoryIds[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK]))) {
+                hits[row >>> 6] |= 1L << row;
+                count++;
+            }
+        }
+        for (int i = 0; i < tailCount; i++) {
+            int row = tailRows[i];
+            if (row < columns.size && tailAmounts[i] >= min && tailAmounts[i] <= max && (categories == null
+                    || categories.get(columns.categoryIds[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK]))) {
+                hits[row >>> 6] |= 1L << row;
+                count++;
+            }
+        }
+        return rows(hits, count);
+    }
+
+    private static int[] rows(long[] hits, int count) {
+        int[] rows = new int[count];
+        int next = 0;
+        for (int word = 0; word < hits.length; word++) {
+            for (long bits = hits[word]; bits != 0; bits &= bits - 1) {
+                rows[next++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return rows;
+    }
+
+    // First sorted position whose amount is >= amount, or > amount when after is set
+    private int lowerBound(long amount, boolean after) {
+        int low = 0;
+        int high = sortedCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedAmounts[middle] < amount || (after && sortedAmounts[middle] == amount)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Sorts the tail and merges it into the sorted part from the back, in place when it fits
+    private void mergeTail() {
+        if (tailCount == 0) {
+            return;
+        }
+        sortTail();
+        int total = sortedCount + tailCount;
+        if (total > sortedAmounts.length) {
+            int capacity = Math.max(total, sortedAmounts.length + (sortedAmounts.length >> 1));
+            sortedAmounts = Arrays.copyOf(sortedAmounts, capacity);
+            sortedRows = Arrays.copyOf(sortedRows, capacity);
+        }
+        int left = sortedCount - 1;
+        int right = tailCount - 1;
+        for (int out = total - 1; right >= 0; out--) {
+            // Ties keep row order, tail rows are always the newer ones
+            if (left >= 0 && sortedAmounts[left] > tailAmounts[right]) {
+                sortedAmounts[out] = sortedAmounts[left];
+                sortedRows[out] = sortedRows[left];
+                left--;
+            } else {
+                sortedAmounts[out] = tailAmounts[right];
+                sortedRows[out] = tailRows[right];
+                right--;
+            }
+        }
+        sortedCount = total;
+        tailCount = 0;
+        if (tailAmounts.length > MIN_TAIL * 4 && tailAmounts.length > sortedCount / 4) {
+            tailAmounts = new long[MIN_TAIL];
+            tailRows = new int[MIN_TAIL];
+        }
+    }
+
+    // Tail rows are in row order, so ordering by amount with ties left in tail order is enough.
+    // When the amounts span few enough bits, amount and tail position are packed into one long and
+    // sorted as plain longs, several times faster than sorting the pairs; large tails take a radix
+    // sort over just the bits in use, several times faster again.
+    private void sortTail() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < tailCount; i++) {
+            min = Math.min(min, tailAmounts[i]);
+            max = Math.max(max, tailAmounts[i]);
+        }
+        int positionBits = 32 - Integer.numberOfLeadingZeros(tailCount - 1);
+        long span = max - min;
+        int keyBits = 64 - Long.numberOfLeadingZeros(span) + positionBits;
+        if (span < 0 || keyBits > 63) {
+            sort(tailAmounts, tailRows, 0, tailCount - 1);
+            return;
+        }
+        long[] keys = new long[tailCount];
+        for (int i = 0; i < tailCount; i++) {
+            keys[i] = (tailAmounts[i] - min) << positionBits | i;
+        }
+        if (tailCount >= RADIX_MIN) {
+            radixSort(keys, keyBits);
+        } else {
+            Arrays.sort(keys);
+        }
+        int[] rows = Arrays.copyOf(tailRows, tailCount);
+        long mask = (1L << positionBits) - 1;
+        for (int i = 0; i < tailCount; i++) {
+            tailAmounts[i] = min + (keys[i] >>> positionBits);
+            tailRows[i] = rows[(int) (keys[i] & mask)];
+        }
+    }
+
+    // LSD radix sort on 16-bit digits of keys below 2^keyBits
+    private static void radixSort(long[] keys, int keyBits) {
+        long[] from = keys;
+        long[] to = new long[keys.length];
+        int[] offsets = new int[1 << 16];
+        for (int shift = 0; shift < keyBits; shift += 16) {
+            Arrays.fill(offsets, 0);
+            for (long key : from) {
+                offsets[(int) (key >>> shift) & 0xFFFF]++;
+            }
+            int sum = 0;
+            for (int digit = 0; digit < offsets.length; digit++) {
+                int count = offsets[digit];
+                offsets[digit] = sum;
+                sum += count;
+            }
+            for (long key : from) {
+                to[offsets[(int) (key >>> shift) & 0xFFFF]++] = key;
+            }
+            long[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != keys) {
+            System.arraycopy(from, 0, keys, 0, keys.length);
+        }
+    }
+
+    // Quicksort of amounts with their row numbers alongside, rows ascending within equal amounts
+    private static void sort(long[] amounts, int[] rows, int from, int to) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            long pivotAmount = amounts[middle];
+            int pivotRow = rows[middle];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (compare(amounts[i], rows[i], pivotAmount, pivotRow) < 0) {
+                    i++;
+                }
+                while (compare(amounts[j], rows[j], pivotAmount, pivotRow) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(amounts, rows, i++, j--);
+                }
+            }
+            // Recurse into the smaller side so the stack stays O(log n)
+            if (j - from < to - i) {
+                sort(amounts, rows, from, j);
+                from = i;
+            } else {
+                sort(amounts, rows, i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && compare(amounts[j - 1], rows[j - 1], amounts[j], rows[j]) > 0; j--) {
+                swap(amounts, rows, j - 1, j);
+            }
+        }
+    }
+
+    private static int compare(long amountA, int rowA, long amountB, int rowB) {
+        int byAmount = Long.compare(amountA, amountB);
+        return byAmount != 0 ? byAmount : Integer.compare(rowA, rowB);
+    }
+
+    private static void swap(long[] amounts, int[] rows, int i, int j) {
+        long amount = amounts[i];
+        amounts[i] = amounts[j];
+        amounts[j] = amount;
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+    }
+}
@@ -0,0 +1,617 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+class JsonException extends Exception {
+    public JsonException(String message) {
+        super(message);
+    }
+    public JsonException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
+
+// Just enough JSON for the API: flat request objects with string, number, boolean or null
+// values, and escaping for the strings written into responses. Numbers are kept as BigDecimal so
+// amounts arrive exactly as the client wrote them.
+class Json {
+    static Map<String, Object> parseObject(String text) throws JsonException {
+        Json parser = new Json(text);
+        Map<String, Object> object = new HashMap<>();
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.position++;
+        } else {
+            while (true) {
+                parser.skipWhitespace();
+                String key = parser.readString();
+                parser.skipWhitespace();
+                parser.expect(':');
+                parser.skipWhitespace();
+                object.put(key, parser.readValue());
+                parser.skipWhitespace();
+                if (parser.peek() == ',') {
+                    parser.position++;
+                } else {
+                    parser.expect('}');
+                    break;
+                }
+            }
+        }
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw new JsonException("Unexpected content after JSON object");
+        }
+        return object;
+    }
+
+    static StringBuilder appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    private final String text;
+    private int position = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    private Object readValue() throws JsonException {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (text.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        }
+        if (text.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        }
+        if (text.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return new BigDecimal(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw new JsonException("Expected a value at " + start);
+        }
+    }
+
+    private String readString() throws JsonException {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position >= text.length()) {
+                throw new JsonException("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                throw new JsonException("Unterminated string");
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw new JsonException("Bad unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new JsonException("Bad unicode escape", e);
+                    }
+                    position += 4;
+                    break;
+                default: value.append(escaped);
+            }
+        }
+    }
+
+    private char peek() throws JsonException {
+        if (position >= text.length()) {
+            throw new JsonException("Unexpected end of JSON");
+        }
+        return text.charAt(position);
+    }
+
+    private void expect(char c) throws JsonException {
+        if (peek() != c) {
+            throw new JsonException("Expected '" + c + "' at " + position);
+        }
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+}
+
+// Headless server mode: the same User/ExpenseLedger model and journal as the desktop app, behind
+// a small HTTP/JSON API on the JDK's built-in server.
+//
+//   POST /api/signup    {"username", "password", "premium"}
+//   POST /api/signin    {"username", "password"}             -> {"token"}
+//   POST /api/signout                                        (Authorization: Bearer <token>)
+//   POST /api/expenses  {"amount", "category", "timestamp"?} (Authorization: Bearer <token>)
+//   GET  /api/expenses?offset=0&limit=100
+//   GET  /api/totals?from=yyyy-MM-dd&to=yyyy-MM-dd&category= (all optional, to is exclusive)
+//   GET  /api/categories                                     -> standard and the user's own
+//
+// Each request runs on its own virtual thread when the JDK has them (21+), otherwise on a fixed
+// pool. Password hashing stays on the AuthenticationService pool either way. Tokens expire after
+// expensetracker.sessionIdleMinutes (30) without a request and are swept once a minute.
+//   java -cp out ExpenseServer [port]
+public class ExpenseServer {
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_PAGE = 1000;
+    private static final Histogram requestTimer = Metrics.timer("server.request");
+    private static final Counter serverErrors = Metrics.counter("server.errors");
+    private static final long SESSION_IDLE_MILLIS = Long.getLong("expensetracker.sessionIdleMinutes", 30) * 60_000;
+    private static final long SWEEP_MILLIS = Math.max(1_000, Math.min(60_000, SESSION_IDLE_MILLIS));
+
+    private static final class Session {
+        final User user;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Session(User user) {
+            this.user = user;
+        }
+
+        boolean expired(long now) {
+            return now - lastUsed > SESSION_IDLE_MILLIS;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AuthenticationService authentication;
+    private final ExpenseJournal journal;
+    // Null to keep every user in memory
+    private final SessionManager paging;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ExpenseServer(int port, ExpenseJournal journal, SessionManager paging) throws IOException {
+        this.journal = journal;
+        this.paging = paging;
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.authentication = new AuthenticationService(cores, 1024, 5, 60_000);
+        this.executor = requestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("expensetracker.backlog", 16_384));
+        server.setExecutor(executor);
+        server.createContext("/api/signup", exchange -> handle(exchange, "POST", this::signUp));
+        server.createContext("/api/signin", exchange -> handle(exchange, "POST", this::signIn));
+        server.createContext("/api/signout", exchange -> handle(exchange, "POST", this::signOut));
+        server.createContext("/api/expenses", exchange -> handle(exchange, null, this::expenses));
+        server.createContext("/api/totals", exchange -> handle(exchange, "GET", this::totals));
+        server.createContext("/api/categories", exchange -> handle(exchange, "GET", this::categories));
+        Metrics.gauge("server.sessions", sessions::size);
+    }
+
+    public void start() {
+        sweeper.scheduleWithFixedDelay(this::sweepSessions, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        sweeper.shutdown();
+        authentication.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Virtual thread per request where available. Looked up reflectively so the code still
+    // builds and runs on Java 17, where it falls back to a fixed pool.
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Integer.getInteger("expensetracker.serverThreads", Runtime.getRuntime().availableProcessors() * 16);
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "expense-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static final class ApiException extends Exception {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        Response handle(HttpExchange exchange) throws ApiException, IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        Response response;
+        try {
+            if (method != null && !method.equals(exchange.getRequestMethod())) {
+                throw new ApiException(405, "Method not allowed");
+            }
+            response = handler.handle(exchange);
+        } catch (ApiException e) {
+            response = error(e.status, e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error handling " + exchange.getRequestURI() + ": " + e);
+            response = error(500, "Internal error");
+        }
+        if (response.status >= 500) {
+            serverErrors.increment();
+        }
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        requestTimer.recordSince(start);
+    }
+
+    private Response signUp(HttpExchange exchange) throws ApiException, IOException {
+        Map<String, Object> request = body(exchange);
+        String username = requireString(request, "username");
+        String password = requireString(request, "password");
+        boolean premium = Boolean.TRUE.equals(request.get("premium"));
+        User user = await(authentication.register(username, password, premium));
+        if (journal != null) {
+            journal.recordUser(user);
+        }
+        if (paging != null) {
+            paging.track(user);
+        }
+        return new Response(201, Json.appendString(new StringBuilder("{\"username\":"), username).append('}').toString());
+    }
+
+    private Response signIn(HttpExchange exchange) throws ApiException, IOException {
+        Map<String, Object> request = body(exchange);
+        User user = await(authentication.signIn(requireString(request, "username"), requireString(request, "password")));
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(user));
+        return new Response(200, "{\"token\":\"" + token + "\"}");
+    }
+
+    private Response signOut(HttpExchange exchange) throws ApiException {
+        authenticated(exchange);
+        sessions.remove(bearerToken(exchange));
+        return new Response(200, "{}");
+    }
+
+    private Response expenses(HttpExchange exchange) throws ApiException, IOException {
+        User user = authenticated(exchange);
+        if (exchange.getRequestMethod().equals("POST")) {
+            Map<String, Object> request = body(exchange);
+            Object amount = request.get("amount");
+            if (!(amount instanceof BigDecimal)) {
+                throw new ApiException(400, "amount must be a number");
+            }
+            long units;
+            try {
+                units = ((BigDecimal) amount).movePointRight(Money.FRACTION_DIGITS).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new ApiException(400, "amount must have at most " + Money.FRACTION_DIGITS + " decimals");
+            }
+            String category = requireString(request, "category");
+            // Same rule as the desktop views: normal users are limited to the standard categories
+            if (!CategoryRegistry.isAllowed(user, category)) {
+                throw new ApiException(400, "Invalid category. (Food, Travel, Entertainment, Others)");
+            }
+            Object timestamp = request.get("timestamp");
+            long millis = System.currentTimeMillis();
+            if (timestamp != null) {
+                if (!(timestamp instanceof BigDecimal)) {
+                    throw new ApiException(400, "timestamp must be epoch milliseconds");
+                }
+                try {
+                    millis = ((BigDecimal) timestamp).longValueExact();
+                } catch (ArithmeticException e) {
+                    throw new ApiException(400, "timestamp must be epoch milliseconds");
+                }
+            }
+            try {
+                user.getWriteBuffer().add(units, category, millis);
+            } catch (ArithmeticException e) {
+                throw new ApiException(400, "amount is too large to add to the totals");
+            }
+            return new Response(201, "{}");
+        }
+        if (!exchange.getRequestMethod().equals("GET")) {
+            throw new ApiException(405, "Method not allowed");
+        }
+        Map<String, String> query = query(exchange.getRequestURI());
+        int offset = intParameter(query, "offset", 0);
+        int limit = Math.min(MAX_PAGE, intParameter(query, "limit", 100));
+        // Reads see the client's own earlier writes
+        user.getWriteBuffer().flush();
+        ExpenseLedger ledger = user.getLedger();
+        StringBuilder out = new StringBuilder(64 + limit * 64);
+        // Size and rows are read under one lock so the page is consistent
+        synchronized (ledger) {
+            int size = ledger.size();
+            out.append("{\"total\":").append(size).append(",\"expenses\":[");
+            for (int i = offset; i < Math.min(size, offset + limit); i++) {
+                if (i > offset) {
+                    out.append(',');
+                }
+                Money.append(out.append("{\"amount\":"), ledger.amountAt(i)).append(",\"category\":");
+                Json.appendString(out, ledger.categoryAt(i)).append(",\"timestamp\":").append(ledger.timestampAt(i)).append('}');
+            }
+        }
+        return new Response(200, out.append("]}").toString());
+    }
+
+    private Response totals(HttpExchange exchange) throws ApiException {
+        User user = authenticated(exchange);
+        Map<String, String> query = query(exchange.getRequestURI());
+        user.getWriteBuffer().flush();
+        Map<String, Long> totals;
+        if (query.containsKey("from") || query.containsKey("to")) {
+            try {
+                LocalDate from = LocalDate.parse(query.getOrDefault("from", "0000-01-01"));
+                LocalDate to = LocalDate.parse(query.getOrDefault("to", "9999-01-01"));
+                totals = user.getLedger().totalsBetween(from, to).getCategoryTotals();
+            } catch (DateTimeParseException e) {
+                throw new ApiException(400, "Dates must be yyyy-MM-dd");
+            }
+        } else {
+            totals = ChartPeriod.ALL_TIME.categoryTotals(user.getLedger());
+        }
+        String category = query.get("category");
+        StringBuilder out = new StringBuilder("{");
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            if (category != null && !total.getKey().equalsIgnoreCase(category)) {
+                continue;
+            }
+            if (out.length() > 1) {
+                out.append(',');
+            }
+            Money.append(Json.appendString(out, total.getKey()).append(':'), total.getValue());
+        }
+        return new Response(200, out.append('}').toString());
+    }
+
+    private Response categories(HttpExchange exchange) throws ApiException {
+        User user = authenticated(exchange);
+        user.getWriteBuffer().flush();
+        StringBuilder out = new StringBuilder("{\"standard\":[");
+        appendNames(out, Arrays.asList(CategoryRegistry.STANDARD));
+        out.append("],\"custom\":[");
+        appendNames(out, user.getLedger().customCategories());
+        return new Response(200, out.append("]}").toString());
+    }
+
+    private static void appendNames(StringBuilder out, List<String> names) {
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            Json.appendString(out, names.get(i));
+        }
+    }
+
+    private User authenticated(HttpExchange exchange) throws ApiException {
+        String token = bearerToken(exchange);
+        Session session = token != null ? sessions.get(token) : null;
+        long now = System.currentTimeMillis();
+        if (session == null || session.expired(now)) {
+            if (session != null) {
+                sessions.remove(token, session);
+            }
+            throw new ApiException(401, "Sign in first");
+        }
+        session.lastUsed = now;
+        // Users are never pinned by a token; a paged-out ledger loads on first use
+        if (paging != null) {
+            paging.touch(session.user);
+        }
+        return session.user;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7) : null;
+    }
+
+    // Runs on the sweeper thread; drops idle tokens so the map does not keep every user ever signed in
+    private void sweepSessions() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.expired(now));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws ApiException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AuthenticationException) {
+                AuthenticationException error = (AuthenticationException) e.getCause();
+                switch (error.getReason()) {
+                    case INVALID_CREDENTIALS: throw new ApiException(401, error.getMessage());
+                    case USER_EXISTS: throw new ApiException(409, error.getMessage());
+                    case RATE_LIMITED: throw new ApiException(429, error.getMessage());
+                    case BUSY: throw new ApiException(503, error.getMessage());
+                    default: throw new ApiException(500, error.getMessage());
+                }
+            }
+            throw new ApiException(500, "Internal error");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(503, "Shutting down");
+        }
+    }
+
+    private static Map<String, Object> body(HttpExchange exchange) throws ApiException, IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "Request body too large");
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        } catch (JsonException e) {
+            throw new ApiException(400, "Invalid JSON: " + e.getMessage());
+        }
+    }
+
+    private static String requireString(Map<String, Object> request, String key) throws ApiException {
+        Object value = request.get(key);
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            throw new ApiException(400, key + " is required");
+        }
+        return (String) value;
+    }
+
+    // Names and values are form-decoded, so category=Eating%20Out and category=Eating+Out both
+    // mean "Eating Out"
+    private static Map<String, String> query(URI uri) throws ApiException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    try {
+                        parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                                URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                    } catch (IllegalArgumentException e) {
+                        throw new ApiException(400, "Malformed query parameter " + pair);
+                    }
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) throws ApiException {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new ApiException(400, name + " must not be negative");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, name + " must be a number");
+        }
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, Json.appendString(new StringBuilder("{\"error\":"), message).append('}').toString());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("expensetracker.port", 8080);
+        Metrics.install();
+        Path dataDir = Paths.get(System.getProperty("expensetracker.dataDir", "data"));
+        ExpenseJournal journal = null;
+        try {
+            journal = ExpenseJournal.open(
+                    dataDir,
+                    Long.getLong("expensetracker.fsyncMillis", 100),
+                    Long.getLong("expensetracker.snapshotRecords", 1_000_000));
+        } catch (JournalException e) {
+            System.err.println("Error loading saved expenses, running without persistence: " + e.getMessage());
+        }
+        SessionManager paging = null;
+        try {
+            paging = new SessionManager(dataDir.resolve("paged"), Long.getLong("expensetracker.sessionMemoryMB", 256) << 20);
+            for (User user : UserDatabase.getAllUsers().values()) {
+                paging.track(user);
+            }
+        } catch (IOException e) {
+            System.err.println("Error setting up paging, keeping every user in memory: " + e.getMessage());
+        }
+        ExpenseServer server = new ExpenseServer(port, journal, paging);
+        ExpenseJournal openedJournal = journal;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            ExpenseWriteBuffer.shutdown();
+            if (openedJournal != null) {
+                openedJournal.close();
+            }
+        }));
+        server.start();
+        System.out.println("Expense server listening on port " + server.getPort());
+    }
+}
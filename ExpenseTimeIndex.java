@@ -0,0 +1,302 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+class PeriodTotals {
+    private final long total;
+    private final long count;
+    private final Map<String, Long> categoryTotals;
+
+    // Amounts in minor units, see Money
+    public PeriodTotals(long total, long count, Map<String, Long> categoryTotals) {
+        this.total = total;
+        this.count = count;
+        this.categoryTotals = categoryTotals;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Only categories with expenses in the period, in category id order
+    public Map<String, Long> getCategoryTotals() {
+        return categoryTotals;
+    }
+}
+
+// Spending per calendar day, oldest first. Days without expenses are left out. Days are epoch
+// days, amounts minor units.
+class DailyTotals {
+    private final long[] days;
+    private final long[] sums;
+    private final int size;
+
+    public DailyTotals(long[] days, long[] sums) {
+        this(days, sums, days.length);
+    }
+
+    // Only the first size entries of the arrays are used
+    public DailyTotals(long[] days, long[] sums, int size) {
+        this.days = days;
+        this.sums = sums;
+        this.size = size;
+    }
+
+    public long[] getDays() {
+        return days;
+    }
+
+    public long[] getSums() {
+        return sums;
+    }
+
+    public int size() {
+        return size;
+    }
+}
+
+// Periods offered by the chart
+enum ChartPeriod {
+    ALL_TIME("All time"),
+    THIS_MONTH("This month"),
+    LAST_30_DAYS("Last 30 days"),
+    THIS_YEAR("This year");
+
+    private final String label;
+
+    ChartPeriod(String label) {
+        this.label = label;
+    }
+
+    public Map<String, Long> categoryTotals(ExpenseLedger ledger) {
+        LocalDate today = LocalDate.now();
+        switch (this) {
+            case THIS_MONTH:
+                LocalDate month = today.withDayOfMonth(1);
+                return ledger.totalsBetween(month, month.plusMonths(1)).getCategoryTotals();
+            case LAST_30_DAYS:
+                return ledger.totalsForLastDays(30).getCategoryTotals();
+            case THIS_YEAR:
+                LocalDate year = today.withDayOfYear(1);
+                return ledger.totalsBetween(year, year.plusYears(1)).getCategoryTotals();
+            default:
+                Map<String, Long> totals = new LinkedHashMap<>();
+                for (CategorySummary summary : ledger.categorySummaries()) {
+                    totals.put(summary.getCategory(), summary.getSum());
+                }
+                return totals;
+        }
+    }
+
+    public DailyTotals dailyTotals(ExpenseLedger ledger) {
+        LocalDate today = LocalDate.now();
+        switch (this) {
+            case THIS_MONTH:
+                LocalDate month = today.withDayOfMonth(1);
+                return ledger.dailyTotals(month, month.plusMonths(1));
+            case LAST_30_DAYS:
+                return ledger.dailyTotals(today.minusDays(29), today.plusDays(1));
+            case THIS_YEAR:
+                LocalDate year = today.withDayOfYear(1);
+                return ledger.dailyTotals(year, year.plusYears(1));
+            default:
+                return ledger.dailyTotals(LocalDate.MIN, LocalDate.MAX);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
+
+// Pre-aggregated totals per calendar day, month and year, kept up to date by ExpenseLedger.
+// A date range is answered from the coarsest buckets that fit inside it, so the cost depends on
+// the number of buckets touched, not on the number of expenses. Not thread-safe on its own,
+// the ledger lock guards it.
+public class ExpenseTimeIndex {
+    static final class Bucket {
+        long sum;
+        long count;
+        long[] categorySums = new long[8];
+
+        // Returns how many category slots the sums array grew by
+        int add(int categoryId, long amount, int count) {
+            int grown = 0;
+            if (categoryId >= categorySums.length) {
+                int length = Math.max(categorySums.length * 2, categoryId + 1);
+                grown = length - categorySums.length;
+                categorySums = Arrays.copyOf(categorySums, length);
+            }
+            categorySums[categoryId] += amount;
+            sum += amount;
+            this.count += count;
+            return grown;
+        }
+
+        void addAll(Bucket other) {
+            if (other.categorySums.length > categorySums.length) {
+                categorySums = Arrays.copyOf(categorySums, other.categorySums.length);
+            }
+            for (int c = 0; c < other.categorySums.length; c++) {
+                categorySums[c] += other.categorySums[c];
+            }
+            sum += other.sum;
+            count += other.count;
+        }
+    }
+
+    private final ZoneId zone;
+    // Keys: epoch day, year * 12 + month - 1, year
+    private final TreeMap<Long, Bucket> days = new TreeMap<>();
+    private final TreeMap<Long, Bucket> months = new TreeMap<>();
+    private final TreeMap<Long, Bucket> years = new TreeMap<>();
+    // Buckets of the day last written to, bulk loads are usually sorted by date
+    private long cachedDayStart = 0;
+    private long cachedDayEnd = 0;
+    private Bucket cachedDay;
+    private Bucket cachedMonth;
+    private Bucket cachedYear;
+    // Category slots of all the buckets' sums arrays, for estimatedBytes()
+    private long categorySlots = 0;
+
+    public ExpenseTimeIndex(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public void add(long timestamp, int categoryId, long amount) {
+        if (timestamp >= cachedDayStart && timestamp < cachedDayEnd) {
+            categorySlots += cachedDay.add(categoryId, amount, 1) + cachedMonth.add(categoryId, amount, 1)
+                    + cachedYear.add(categoryId, amount, 1);
+            return;
+        }
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        cachedDay = updateBucket(days, date.toEpochDay(), categoryId, amount, 1);
+        cachedMonth = updateBucket(months, monthKey(date), categoryId, amount, 1);
+        cachedYear = updateBucket(years, date.getYear(), categoryId, amount, 1);
+        cachedDayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        cachedDayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    public void remove(long timestamp, int categoryId, long amount) {
+        // The cached buckets may be dropped below
+        cachedDayEnd = cachedDayStart;
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        updateBucket(days, date.toEpochDay(), categoryId, -amount, -1);
+        updateBucket(months, monthKey(date), categoryId, -amount, -1);
+        updateBucket(years, date.getYear(), categoryId, -amount, -1);
+    }
+
+    // Rough heap held by the buckets: the bucket, the map entry with its key and the sums array
+    // header at about 116 bytes each, plus 8 bytes per category slot
+    long estimatedBytes() {
+        return (days.size() + months.size() + years.size()) * 116L + categorySlots * 8;
+    }
+
+    public void clear() {
+        cachedDayEnd = cachedDayStart;
+        cachedDay = null;
+        cachedMonth = null;
+        cachedYear = null;
+        days.clear();
+        months.clear();
+        years.clear();
+        categorySlots = 0;
+    }
+
+    // Totals for the days in [from, toExclusive). The range is split into partial months at both
+    // ends, partial years inside those, and whole years in the middle, each read from its own map.
+    Bucket totals(LocalDate from, LocalDate toExclusive) {
+        Bucket result = new Bucket();
+        if (!from.isBefore(toExclusive)) {
+            return result;
+        }
+        LocalDate firstMonth = from.getDayOfMonth() == 1 ? from : from.withDayOfMonth(1).plusMonths(1);
+        LocalDate lastMonth = toExclusive.withDayOfMonth(1);
+        if (!firstMonth.isBefore(lastMonth)) {
+            sum(days, from.toEpochDay(), toExclusive.toEpochDay(), result);
+            return result;
+        }
+        sum(days, from.toEpochDay(), firstMonth.toEpochDay(), result);
+        sum(days, lastMonth.toEpochDay(), toExclusive.toEpochDay(), result);
+        LocalDate firstYear = firstMonth.getMonthValue() == 1 ? firstMonth : firstMonth.withDayOfYear(1).plusYears(1);
+        LocalDate lastYear = lastMonth.withDayOfYear(1);
+        if (!firstYear.isBefore(lastYear)) {
+            sum(months, monthKey(firstMonth), monthKey(lastMonth), result);
+            return result;
+        }
+        sum(months, monthKey(firstMonth), monthKey(firstYear), result);
+        sum(months, monthKey(lastYear), monthKey(lastMonth), result);
+        sum(years, firstYear.getYear(), lastYear.getYear(), result);
+        return result;
+    }
+
+    // The first day on or after fromDay that has a bucket, Long.MAX_VALUE if there is none
+    long firstDayFrom(long fromDay) {
+        Long day = days.ceilingKey(fromDay);
+        return day == null ? Long.MAX_VALUE : day;
+    }
+
+    // One entry per day in [fromDay, toDay) that has expenses, read straight from the day buckets
+    DailyTotals dailyTotals(long fromDay, long toDay) {
+        return dailyTotals(fromDay, toDay, -1);
+    }
+
+    // The same for one category id, or for all of them if categoryId is negative
+    DailyTotals dailyTotals(long fromDay, long toDay, int categoryId) {
+        if (fromDay >= toDay) {
+            return new DailyTotals(new long[0], new long[0]);
+        }
+        SortedMap<Long, Bucket> range = days.subMap(fromDay, toDay);
+        long[] dayKeys = new long[range.size()];
+        long[] sums = new long[dayKeys.length];
+        int i = 0;
+        for (Map.Entry<Long, Bucket> day : range.entrySet()) {
+            Bucket bucket = day.getValue();
+            long sum = categoryId < 0 ? bucket.sum
+                    : categoryId < bucket.categorySums.length ? bucket.categorySums[categoryId] : 0;
+            if (categoryId < 0 || sum != 0) {
+                dayKeys[i] = day.getKey();
+                sums[i] = sum;
+                i++;
+            }
+        }
+        return new DailyTotals(dayKeys, sums, i);
+    }
+
+    private static void sum(TreeMap<Long, Bucket> buckets, long fromKey, long toKey, Bucket result) {
+        if (fromKey < toKey) {
+            for (Bucket bucket : buckets.subMap(fromKey, true, toKey, false).values()) {
+                result.addAll(bucket);
+            }
+        }
+    }
+
+    private Bucket updateBucket(TreeMap<Long, Bucket> buckets, long key, int categoryId, long amount, int count) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(key, bucket);
+            categorySlots += bucket.categorySums.length;
+        }
+        categorySlots += bucket.add(categoryId, amount, count);
+        if (bucket.count == 0) {
+            buckets.remove(key);
+            categorySlots -= bucket.categorySums.length;
+        }
+        return bucket;
+    }
+
+    private static long monthKey(LocalDate date) {
+        return date.getYear() * 12L + date.getMonthValue() - 1;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Per-user state shared by every screen of a signed-in session: the expense row list with the
+// binding that keeps it in sync with the ledger, the search index, the running import, the budget
+// alerts and the chart period.
+// The tracker and chart screens are kept in SceneCache, as are the sign-in/sign-up forms App
+// caches there, so a screen outlives a navigation; showing one again only rebinds it to this
+// model, which creates no new bindings or listeners. The model outlives the screens bound to it:
+// created on first use, it is torn down by release() on sign-out, after which the cached screens
+// drop it.
+// FX thread only.
+public class ExpenseViewModel {
+    private static final Map<User, ExpenseViewModel> models = new IdentityHashMap<>();
+
+    private final ExpenseRowList rows = new ExpenseRowList();
+    private final ExpenseListBinding binding;
+    private final ImportProgressPane importProgress = new ImportProgressPane();
+    private final BudgetAlertBar budgetAlerts = new BudgetAlertBar();
+    private final BudgetRules budgetRules;
+    private final ExpenseLedger ledger;
+    // Created on the first search, most sessions never need one
+    private ExpenseSearchIndex searchIndex = null;
+    private ChartPeriod chartPeriod = ChartPeriod.ALL_TIME;
+
+    private ExpenseViewModel(User user) {
+        ledger = user.getLedger();
+        binding = new ExpenseListBinding(user.getLedger(), rows);
+        binding.bind();
+        budgetRules = user.getBudgetRules();
+        budgetRules.addListener(budgetAlerts);
+    }
+
+    public static ExpenseViewModel of(User user) {
+        return models.computeIfAbsent(user, ExpenseViewModel::new);
+    }
+
+    public static void release(User user) {
+        ExpenseViewModel model = models.remove(user);
+        if (model != null) {
+            model.binding.dispose();
+            model.budgetRules.removeListener(model.budgetAlerts);
+            if (model.searchIndex != null) {
+                model.searchIndex.dispose();
+            }
+        }
+    }
+
+    public ExpenseRowList getRows() {
+        return rows;
+    }
+
+    public ExpenseListBinding getBinding() {
+        return binding;
+    }
+
+    public ExpenseSearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new ExpenseSearchIndex(ledger);
+        }
+        return searchIndex;
+    }
+
+    public ImportProgressPane getImportProgress() {
+        return importProgress;
+    }
+
+    public BudgetAlertBar getBudgetAlerts() {
+        return budgetAlerts;
+    }
+
+    public ChartPeriod getChartPeriod() {
+        return chartPeriod;
+    }
+
+    public void setChartPeriod(ChartPeriod chartPeriod) {
+        this.chartPeriod = chartPeriod;
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Accepts expense additions from any thread and applies them to the ledger in batches. Writers
+// only copy into a pending buffer under a short lock; a shared writer thread swaps the buffer out
+// and hands everything that accumulated to ExpenseLedger.addAll, which notifies listeners (the
+// journal, the list binding) once per batch instead of once per expense. While one batch is being
+// applied the next one fills up, so the batch size grows with the write rate.
+//
+// Every addition is in the ledger once flush() returns, and batches are applied in the order they
+// were added. If writers outrun the writer thread, the writer that fills the buffer applies it
+// itself, which bounds the memory held here.
+//
+// The ledger's overflow check is done again here when an expense is added, against the ledger and
+// everything still buffered, so add() throws the ArithmeticException instead of the writer thread
+// dropping an already accepted batch.
+public class ExpenseWriteBuffer {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_PENDING = 1 << 16;
+    private static final Histogram batchSizes = Metrics.histogram("writes.batchSize");
+    private static final Counter failedBatches = Metrics.counter("writes.failedBatches");
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "expense-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExpenseLedger ledger;
+    // Held while a batch is applied, so batches reach the ledger one at a time and in order
+    private final Object drainLock = new Object();
+
+    // Guarded by this. Allocated on the first write, most users never add anything in a session
+    private long[] amounts = new long[0];
+    private String[] categories = new String[0];
+    private long[] timestamps = new long[0];
+    private int count = 0;
+    private boolean flushScheduled = false;
+    // Sums of the absolute amounts still buffered and of the batch being applied
+    private long pendingMagnitude = 0;
+    private long applyingMagnitude = 0;
+
+    // The arrays of the last applied batch, swapped back in on the next drain
+    private long[] spareAmounts = new long[0];
+    private String[] spareCategories = new String[0];
+    private long[] spareTimestamps = new long[0];
+
+    public ExpenseWriteBuffer(ExpenseLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    public void add(Expense expense) {
+        add(expense.getAmount(), expense.getCategory(), expense.getTimestamp());
+    }
+
+    public void add(long amount, String category) {
+        add(amount, category, System.currentTimeMillis());
+    }
+
+    // Throws ArithmeticException, adding nothing, if the ledger's totals could no longer hold the amount
+    public void add(long amount, String category, long timestamp) {
+        boolean full;
+        synchronized (this) {
+            reserveMagnitude(Math.absExact(amount));
+            ensureCapacity(count + 1);
+            amounts[count] = amount;
+            categories[count] = category;
+            timestamps[count] = timestamp;
+            count++;
+            full = scheduleFlush();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    // Rows [0, count) of the arrays, copied before this returns. Throws ArithmeticException, adding
+    // none of them, if the ledger's totals could no longer hold the amounts.
+    public void addAll(long[] amounts, String[] categories, long[] timestamps, int count) {
+        if (count == 0) {
+            return;
+        }
+        long added = 0;
+        for (int i = 0; i < count; i++) {
+            added = Math.addExact(added, Math.absExact(amounts[i]));
+        }
+        boolean full;
+        synchronized (this) {
+            reserveMagnitude(added);
+            ensureCapacity(this.count + count);
+            System.arraycopy(amounts, 0, this.amounts, this.count, count);
+            System.arraycopy(categories, 0, this.categories, this.count, count);
+            System.arraycopy(timestamps, 0, this.timestamps, this.count, count);
+            this.count += count;
+            full = scheduleFlush();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    // Applies everything added so far on the calling thread
+    public void flush() {
+        synchronized (drainLock) {
+            long[] batchAmounts;
+            String[] batchCategories;
+            long[] batchTimestamps;
+            int batchCount;
+            synchronized (this) {
+                if (count == 0) {
+                    return;
+                }
+                batchAmounts = amounts;
+                batchCategories = categories;
+                batchTimestamps = timestamps;
+                batchCount = count;
+                amounts = spareAmounts;
+                categories = spareCategories;
+                timestamps = spareTimestamps;
+                count = 0;
+                applyingMagnitude = pendingMagnitude;
+                pendingMagnitude = 0;
+            }
+            batchSizes.record(batchCount);
+            try {
+                ledger.addAll(batchAmounts, batchCategories, batchTimestamps, batchCount);
+            } catch (RuntimeException e) {
+                // Only if the ledger was also written to directly since the check in add()
+                failedBatches.increment();
+                throw e;
+            } finally {
+                Arrays.fill(batchCategories, 0, batchCount, null);
+                synchronized (this) {
+                    applyingMagnitude = 0;
+                    // Keep the larger arrays around; a burst that needed them is likely to recur
+                    spareAmounts = batchAmounts;
+                    spareCategories = batchCategories;
+                    spareTimestamps = batchTimestamps;
+                }
+            }
+        }
+    }
+
+    public synchronized int pendingCount() {
+        return count;
+    }
+
+    // Returns true when the buffer is over its limit and the caller should apply it directly
+    private boolean scheduleFlush() {
+        if (count >= MAX_PENDING) {
+            return true;
+        }
+        if (!flushScheduled) {
+            try {
+                writer.execute(() -> {
+                    synchronized (this) {
+                        flushScheduled = false;
+                    }
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        System.err.println("Error applying buffered expenses: " + e.getMessage());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the caller applies its own writes from now on
+                return true;
+            }
+            flushScheduled = true;
+        }
+        return false;
+    }
+
+    // Applies every batch still queued for the writer thread and stops it; call before closing the journal
+    public static void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Caller holds the lock. The batch being applied may be partly in the ledger's magnitude
+    // already and is then counted twice, which errs on the side of refusing.
+    private void reserveMagnitude(long added) {
+        long total = Math.addExact(Math.addExact(ledger.magnitude(), applyingMagnitude), pendingMagnitude);
+        Math.addExact(total, added);
+        pendingMagnitude += added;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= amounts.length) {
+            return;
+        }
+        int capacity = Math.max(needed, Math.max(INITIAL_CAPACITY, amounts.length * 2));
+        amounts = Arrays.copyOf(amounts, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+    }
+}
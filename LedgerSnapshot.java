@@ -0,0 +1,380 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Backup of one user and their expenses in a single compact file, for moving them to another
+// machine. Layout, version 1:
+//
+//   header  magic, version, currency code, premium flag, username, password hash, the ledger's
+//           category names, row count
+//   blocks  row count, raw length, deflated length, then up to BLOCK_ROWS rows, deflated
+//
+// Inside a block the rows are stored column by column: amounts as zigzag varints, category ids
+// (indexes into the header's names) as varints, then timestamps as zigzag varint deltas from the
+// row before. A typical row takes about 10 bytes before compression and about half that after.
+// Strings are a length and UTF-8 bytes, fixed-size numbers big-endian.
+//
+// Writing reads the ledger's columns without holding its lock and hands each deflated block to
+// the file channel from a direct buffer; reading inflates straight from a mapping of each block.
+public final class LedgerSnapshot {
+    private static final int MAGIC = 0x45585042;
+    private static final int VERSION = 1;
+    private static final int BLOCK_ROWS = 1 << 16;
+    // Worst case per row: a 10-byte amount, a 5-byte category id and a 10-byte timestamp delta
+    private static final int MAX_RAW_BYTES = BLOCK_ROWS * 25;
+    private static final int MAX_STRING_BYTES = 1 << 20;
+    // A remove or clear during the write makes it start over, at most this many times
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Histogram writeTimer = Metrics.timer("snapshot.write");
+    private static final Histogram readTimer = Metrics.timer("snapshot.read");
+
+    private LedgerSnapshot() {
+    }
+
+    // Writes the user and every expense in their ledger to file, replacing it only once complete.
+    // Expenses added meanwhile may or may not be included. Returns the number of expenses written.
+    public static int write(User user, Path file) throws IOException {
+        return write(user, file, true);
+    }
+
+    // sync false skips forcing the file to disk, for SessionManager's page files, which the journal
+    // can always rebuild
+    static int write(User user, Path file, boolean sync) throws IOException {
+        long start = System.nanoTime();
+        ExpenseLedger ledger = user.getLedger();
+        ExpenseLedger.Columns columns = ledger.columns();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        for (int attempt = 1; ; attempt++) {
+            writeColumns(user, columns, temp, sync);
+            ExpenseLedger.Columns latest = ledger.columns();
+            if (latest.modifications == columns.modifications) {
+                break;
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                Files.deleteIfExists(temp);
+                throw new IOException("Expenses kept being removed while writing " + file + ", try again");
+            }
+            columns = latest;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeTimer.recordSince(start);
+        return columns.size;
+    }
+
+    private static void writeColumns(User user, ExpenseLedger.Columns columns, Path file, boolean sync) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        // Varint columns have few repeated strings for LZ77 to find, so Huffman coding alone gets
+        // about the same size at over twice the speed
+        deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            buffer = putString(out, buffer, Money.CURRENCY.getCurrencyCode());
+            buffer.put((byte) (user.isPremium() ? 1 : 0));
+            buffer = putString(out, buffer, user.getUsername());
+            buffer = putString(out, buffer, user.getPasswordHash().encoded());
+            buffer = drainIfFull(out, buffer, 4);
+            buffer.putInt(columns.categoryNames.length);
+            for (String name : columns.categoryNames) {
+                buffer = putString(out, buffer, name);
+            }
+            buffer = drainIfFull(out, buffer, 4);
+            buffer.putInt(columns.size);
+
+            byte[] raw = new byte[MAX_RAW_BYTES];
+            // Deflate never grows input by more than a few bytes per 16 KB block
+            ByteBuffer compressed = ByteBuffer.allocateDirect(MAX_RAW_BYTES + MAX_RAW_BYTES / 1024 + 64);
+            long previousTimestamp = 0;
+            for (int from = 0; from < columns.size; from += BLOCK_ROWS) {
+                int to = Math.min(from + BLOCK_ROWS, columns.size);
+                int length = 0;
+                for (int row = from; row < to; row++) {
+                    length = putVarLong(raw, length, zigzag(columns.amounts[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK]));
+                }
+                for (int row = from; row < to; row++) {
+                    length = putVarLong(raw, length, columns.categoryIds[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK]);
+                }
+                for (int row = from; row < to; row++) {
+                    long timestamp = columns.timestamps[row >>> ExpenseLedger.Columns.CHUNK_SHIFT][row & ExpenseLedger.Columns.CHUNK_MASK];
+                    length = putVarLong(raw, length, zigzag(timestamp - previousTimestamp));
+                    previousTimestamp = timestamp;
+                }
+                deflater.reset();
+                deflater.setInput(raw, 0, length);
+                deflater.finish();
+                compressed.clear();
+                while (!deflater.finished()) {
+                    deflater.deflate(compressed);
+                }
+                compressed.flip();
+                buffer = drainIfFull(out, buffer, 12);
+                buffer.putInt(to - from).putInt(length).putInt(compressed.remaining());
+                buffer.flip();
+                // One gathering write for the block header and its data, no copy of the data
+                ByteBuffer[] block = { buffer, compressed };
+                while (compressed.hasRemaining()) {
+                    out.write(block);
+                }
+                buffer.clear();
+            }
+            drainIfFull(out, buffer, buffer.capacity());
+            if (sync) {
+                out.force(true);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer putString(FileChannel out, ByteBuffer buffer, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer = drainIfFull(out, buffer, 4 + bytes.length);
+        buffer.putInt(bytes.length).put(bytes);
+        return buffer;
+    }
+
+    private static ByteBuffer drainIfFull(FileChannel out, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        if (buffer.capacity() < needed) {
+            return ByteBuffer.allocateDirect(needed);
+        }
+        return buffer;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int putVarLong(byte[] out, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    // A new user holding everything in file. Not registered anywhere yet, so a file that turns out
+    // to be damaged halfway leaves nothing behind.
+    public static User read(Path file) throws IOException {
+        long start = System.nanoTime();
+        try (Reader reader = new Reader(file)) {
+            reader.readExpenses(reader.user.getLedger(), false);
+            readTimer.recordSince(start);
+            return reader.user;
+        }
+    }
+
+    // Loads the rows of a page file back into the ledger they came from, see ExpenseLedger.pageOut
+    static void readRows(Path file, ExpenseLedger ledger) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            reader.readExpenses(ledger, true);
+        }
+    }
+
+    // Receives the rows of a page file one block at a time, see scanRows
+    interface RowVisitor {
+        void header(String[] categoryNames, int rowCount) throws IOException;
+
+        void rows(long[] amounts, int[] categoryIds, long[] timestamps, int count) throws IOException;
+    }
+
+    // Reads the rows of a page file without loading them into a ledger, e.g. for the journal's
+    // snapshot of a user who is paged out. Category ids index the names given to header().
+    static void scanRows(Path file, RowVisitor visitor) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            visitor.header(reader.categoryNames, reader.rowCount);
+            reader.readBlocks(visitor);
+        }
+    }
+
+    private static final class Reader implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final User user;
+        private final String[] categoryNames;
+        private final int rowCount;
+        // File position of the next unread byte
+        private long position = 0;
+        // Read position in the inflated block being decoded, and where its data ends
+        private int cursor;
+        private int limit;
+
+        private Reader(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = next(8);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException(file + " is not an expense backup");
+                }
+                int version = header.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported backup version " + version + " in " + file);
+                }
+                String currency = nextString();
+                if (!currency.equals(Money.CURRENCY.getCurrencyCode())) {
+                    throw new IOException(file + " holds amounts in " + currency + ", not " + Money.CURRENCY.getCurrencyCode()
+                            + "; start with -Dexpensetracker.currency=" + currency);
+                }
+                boolean premium = next(1).get() == 1;
+                String username = nextString();
+                PasswordHash passwordHash = PasswordHash.parse(nextString());
+                if (passwordHash == null) {
+                    throw corrupt();
+                }
+                user = new User(username, passwordHash, premium);
+                int categoryCount = next(4).getInt();
+                if (categoryCount < 0 || categoryCount > channel.size() / 4) {
+                    throw corrupt();
+                }
+                categoryNames = new String[categoryCount];
+                for (int c = 0; c < categoryCount; c++) {
+                    categoryNames[c] = nextString();
+                }
+                rowCount = next(4).getInt();
+                if (rowCount < 0) {
+                    throw corrupt();
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // One ExpenseLedger.addAll per block, or restoreRows when listeners must not hear of them
+        void readExpenses(ExpenseLedger ledger, boolean quietly) throws IOException {
+            readBlocks(new RowVisitor() {
+                @Override
+                public void header(String[] names, int count) {
+                }
+
+                @Override
+                public void rows(long[] amounts, int[] categories, long[] timestamps, int count) {
+                    if (quietly) {
+                        ledger.restoreRows(amounts, categories, categoryNames, timestamps, count);
+                    } else {
+                        ledger.addAll(amounts, categories, categoryNames, timestamps, count);
+                    }
+                }
+            });
+        }
+
+        void readBlocks(RowVisitor visitor) throws IOException {
+            Inflater inflater = new Inflater();
+            byte[] raw = new byte[MAX_RAW_BYTES];
+            long[] amounts = new long[BLOCK_ROWS];
+            int[] categories = new int[BLOCK_ROWS];
+            long[] timestamps = new long[BLOCK_ROWS];
+            long previousTimestamp = 0;
+            try {
+                for (int read = 0; read < rowCount; ) {
+                    ByteBuffer header = next(12);
+                    int count = header.getInt();
+                    int length = header.getInt();
+                    int compressedLength = header.getInt();
+                    if (count <= 0 || count > Math.min(BLOCK_ROWS, rowCount - read) || length < 0 || length > raw.length
+                            || compressedLength < 0 || compressedLength > channel.size() - position) {
+                        throw corrupt();
+                    }
+                    inflater.reset();
+                    inflater.setInput(channel.map(FileChannel.MapMode.READ_ONLY, position, compressedLength));
+                    position += compressedLength;
+                    int inflated = 0;
+                    while (inflated < length && !inflater.finished() && !inflater.needsInput()) {
+                        inflated += inflater.inflate(raw, inflated, length - inflated);
+                    }
+                    if (inflated != length) {
+                        throw corrupt();
+                    }
+                    cursor = 0;
+                    limit = length;
+                    for (int i = 0; i < count; i++) {
+                        amounts[i] = unzigzag(nextVarLong(raw));
+                    }
+                    for (int i = 0; i < count; i++) {
+                        long id = nextVarLong(raw);
+                        if (id < 0 || id >= categoryNames.length) {
+                            throw corrupt();
+                        }
+                        categories[i] = (int) id;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        previousTimestamp += unzigzag(nextVarLong(raw));
+                        timestamps[i] = previousTimestamp;
+                    }
+                    visitor.rows(amounts, categories, timestamps, count);
+                    read += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt backup " + file + ": " + e.getMessage(), e);
+            } catch (ArithmeticException e) {
+                throw new IOException("Amounts in " + file + " are too large to total", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private long nextVarLong(byte[] raw) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (cursor == limit) {
+                    throw corrupt();
+                }
+                byte b = raw[cursor++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw corrupt();
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // The next bytes of the header, read into a small heap buffer
+        private ByteBuffer next(int bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Truncated backup " + file);
+                }
+            }
+            position += bytes;
+            buffer.flip();
+            return buffer;
+        }
+
+        private String nextString() throws IOException {
+            int length = next(4).getInt();
+            if (length < 0 || length > MAX_STRING_BYTES) {
+                throw corrupt();
+            }
+            return new String(next(length).array(), StandardCharsets.UTF_8);
+        }
+
+        private IOException corrupt() {
+            return new IOException("Corrupt backup " + file);
+        }
+    }
+}
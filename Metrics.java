@@ -0,0 +1,325 @@
+import javax.management.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+class Counter {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        if (Metrics.ENABLED) {
+            count.increment();
+        }
+    }
+
+    public void add(long amount) {
+        if (Metrics.ENABLED) {
+            count.add(amount);
+        }
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
+
+// Log-linear histogram in the style of HdrHistogram: values below 32 get a bucket each, above
+// that every power of two is split into 32 buckets, so a reported percentile is at most ~3% above
+// the real one while the whole long range fits in 1888 buckets. Recording is one atomic increment,
+// one adder and a read of the maximum, and never allocates. Timers record nanoseconds and are
+// reported in ms.
+class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final boolean nanos;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(boolean nanos) {
+        this.nanos = nanos;
+    }
+
+    public void record(long value) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        value = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(value));
+        sum.add(value);
+        // Only written when exceeded, which soon becomes rare
+        for (long current = max.get(); value > current; current = max.get()) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    // Records the time since start, a System.nanoTime() reading
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public boolean isTimer() {
+        return nanos;
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Upper bound of the bucket holding the value at fraction p, or 0 if nothing was recorded
+    public long percentile(double p) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
+
+// Process-wide registry of counters, histograms and gauges for the hot paths (journal load,
+// sign-in, theme changes, screen switches, analytics, write batches, server requests, FX frames).
+// Metrics are created once into static fields at their call sites, so recording is a few
+// uncontended atomic adds and no lookup. -Dexpensetracker.metrics=false turns recording off.
+//
+// Published as the JMX MBean "ExpenseTracker:type=Metrics", written to a file every
+// expensetracker.metricsDumpSeconds when -Dexpensetracker.metricsFile is set, and shown live by
+// DiagnosticsPanel.
+public class Metrics {
+    public static final boolean ENABLED = !"false".equals(System.getProperty("expensetracker.metrics"));
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static boolean installed = false;
+
+    static {
+        gauge("threads.live", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+        gauge("threads.daemon", () -> ManagementFactory.getThreadMXBean().getDaemonThreadCount());
+        gauge("heap.usedBytes", () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    // Nanosecond latencies
+    public static Histogram timer(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(true));
+    }
+
+    // Plain values such as batch sizes
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(false));
+    }
+
+    // Read when metrics are reported; replaces an earlier gauge with the same name
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Registers the MBean and starts the file dump if configured. Safe to call more than once.
+    public static synchronized void install() {
+        if (installed || !ENABLED) {
+            return;
+        }
+        installed = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName("ExpenseTracker:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Error registering metrics MBean: " + e.getMessage());
+        }
+        String file = System.getProperty("expensetracker.metricsFile");
+        if (file != null) {
+            startFileDump(Paths.get(file), Long.getLong("expensetracker.metricsDumpSeconds", 10));
+        }
+    }
+
+    public static void startFileDump(Path file, long periodSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                // Written next to the target and moved over it, so readers never see half a report
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temp, report().getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Error writing metrics to " + file + ": " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // Every metric on one line each, sorted by name within its kind
+    public static String report() {
+        StringBuilder out = new StringBuilder(2048);
+        out.append("# ").append(new Date()).append('\n');
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.isTimer()) {
+                out.append(String.format("%-24s count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms%n",
+                        entry.getKey(), histogram.getCount(), histogram.getMean() / 1e6, histogram.percentile(0.5) / 1e6,
+                        histogram.percentile(0.9) / 1e6, histogram.percentile(0.99) / 1e6, histogram.getMax() / 1e6));
+            } else {
+                out.append(String.format("%-24s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d%n", entry.getKey(),
+                        histogram.getCount(), histogram.getMean(), histogram.percentile(0.5), histogram.percentile(0.9),
+                        histogram.percentile(0.99), histogram.getMax()));
+            }
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            out.append(String.format("%-24s %d%n", entry.getKey(), entry.getValue().get()));
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            out.append(String.format("%-24s %d%n", entry.getKey(), entry.getValue().getAsLong()));
+        }
+        return out.toString();
+    }
+
+    // Attributes are built from the registry on every request, so metrics created later show up
+    // too: counters and gauges by name, histograms as name.count, name.p50, name.p99 and name.max
+    // (milliseconds for timers).
+    private static final class MetricsMBean implements DynamicMBean {
+        private static final String[] HISTOGRAM_FIELDS = {"count", "p50", "p99", "max"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Counter counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.get();
+            }
+            LongSupplier gauge = gauges.get(attribute);
+            if (gauge != null) {
+                return gauge.getAsLong();
+            }
+            int dot = attribute.lastIndexOf('.');
+            Histogram histogram = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+            if (histogram != null) {
+                double scale = histogram.isTimer() ? 1e6 : 1;
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return (double) histogram.getCount();
+                    case "p50": return histogram.percentile(0.5) / scale;
+                    case "p99": return histogram.percentile(0.99) / scale;
+                    case "max": return histogram.getMax() / scale;
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (actionName.equals("report")) {
+                return report();
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counters.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", "Counter", true, false, false));
+            }
+            for (String name : gauges.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", "Gauge", true, false, false));
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                String unit = entry.getValue().isTimer() ? " (ms)" : "";
+                for (String field : HISTOGRAM_FIELDS) {
+                    attributes.add(new MBeanAttributeInfo(entry.getKey() + "." + field, "java.lang.Double",
+                            field + unit, true, false, false));
+                }
+            }
+            MBeanOperationInfo report = new MBeanOperationInfo("report", "All metrics as text", new MBeanParameterInfo[0],
+                    "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(Metrics.class.getName(), "Expense tracker metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {report}, null);
+        }
+    }
+}
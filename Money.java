@@ -0,0 +1,162 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+
+// Amounts are stored as a long count of the currency's minor unit, e.g. cents for USD, so sums
+// are exact and cost no allocation. One currency applies to the whole application, set with
+// -Dexpensetracker.currency (an ISO 4217 code, default USD); the journal records it and refuses
+// to load amounts saved in a different one.
+//
+// Parsing is overflow-checked. Totals are plain long additions, kept safe by ExpenseLedger, which
+// refuses an expense with ArithmeticException once the amounts could overflow a total.
+public final class Money {
+    public static final Currency CURRENCY = Currency.getInstance(System.getProperty("expensetracker.currency", "USD"));
+    public static final String SYMBOL = CURRENCY.getSymbol();
+    public static final int FRACTION_DIGITS = Math.max(0, CURRENCY.getDefaultFractionDigits());
+    // Returned by the byte parser for text that is not an amount
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L };
+    // Minor units per major unit, 100 for USD
+    public static final long SCALE = POWERS_OF_TEN[FRACTION_DIGITS];
+
+    private Money() {
+    }
+
+    // Parses amounts such as 12, -3.5, 1,234.50 or $12.99 straight into minor units. More decimals
+    // than the currency has are only accepted if they are zeros, so nothing is silently rounded.
+    public static long parse(CharSequence text) {
+        int position = 0;
+        int to = text.length();
+        while (position < to && text.charAt(position) == ' ') {
+            position++;
+        }
+        while (to > position && text.charAt(to - 1) == ' ') {
+            to--;
+        }
+        boolean negative = false;
+        if (position < to && (text.charAt(position) == '-' || text.charAt(position) == '+')) {
+            negative = text.charAt(position) == '-';
+            position++;
+        }
+        if (position < to && text.charAt(position) == '$') {
+            position++;
+        }
+        long units = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        try {
+            for (; position < to; position++) {
+                char c = text.charAt(position);
+                if (c >= '0' && c <= '9') {
+                    digits++;
+                    if (fractionDigits < 0) {
+                        units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+                    } else if (++fractionDigits <= FRACTION_DIGITS) {
+                        units = Math.addExact(units, (c - '0') * POWERS_OF_TEN[FRACTION_DIGITS - fractionDigits]);
+                    } else if (c != '0') {
+                        throw new NumberFormatException("More than " + FRACTION_DIGITS + " decimals: " + text);
+                    }
+                } else if (c == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                    units = Math.multiplyExact(units, SCALE);
+                } else if (c == ',' && fractionDigits < 0 && digits > 0) {
+                    // Thousands separator
+                } else {
+                    throw new NumberFormatException("Not an amount: " + text);
+                }
+            }
+            if (fractionDigits < 0) {
+                units = Math.multiplyExact(units, SCALE);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount too large: " + text);
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        return negative ? -units : units;
+    }
+
+    // Same rules as parse(CharSequence) over ASCII bytes, for the CSV importer. INVALID instead of
+    // an exception, since rejected rows are routine there. Up to 18 digits in minor units cannot
+    // overflow, so only longer amounts take the checked path.
+    public static long parse(byte[] bytes, int from, int to) {
+        int position = from;
+        boolean negative = false;
+        if (position < to && (bytes[position] == '-' || bytes[position] == '+')) {
+            negative = bytes[position] == '-';
+            position++;
+        }
+        if (position < to && bytes[position] == '$') {
+            position++;
+        }
+        long units = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; position < to; position++) {
+            byte b = bytes[position];
+            if (b >= '0' && b <= '9') {
+                if (fractionDigits < 0) {
+                    if (++digits + FRACTION_DIGITS > 18) {
+                        return parseChecked(bytes, from, to);
+                    }
+                    units = units * 10 + (b - '0');
+                } else if (++fractionDigits <= FRACTION_DIGITS) {
+                    units += (b - '0') * POWERS_OF_TEN[FRACTION_DIGITS - fractionDigits];
+                } else if (b != '0') {
+                    return INVALID;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                units *= SCALE;
+            } else if (b == ',' && fractionDigits < 0 && digits > 0) {
+                // Thousands separator inside a quoted field
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0 && fractionDigits <= 0) {
+            return INVALID;
+        }
+        if (fractionDigits < 0) {
+            units *= SCALE;
+        }
+        return negative ? -units : units;
+    }
+
+    private static long parseChecked(byte[] bytes, int from, int to) {
+        try {
+            return parse(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+
+    // Only for display, such as chart values; never sum the result
+    public static double toDouble(long units) {
+        return (double) units / SCALE;
+    }
+
+    // Plain decimal text, "1234.50" or "-0.05", also valid as a JSON number
+    public static String format(long units) {
+        return append(new StringBuilder(24), units).toString();
+    }
+
+    public static StringBuilder append(StringBuilder out, long units) {
+        if (units < 0) {
+            out.append('-');
+        }
+        // Works for Long.MIN_VALUE too, where negating would overflow
+        long major = Math.abs(units / SCALE);
+        long minor = Math.abs(units % SCALE);
+        out.append(major);
+        if (FRACTION_DIGITS > 0) {
+            out.append('.');
+            for (int digit = FRACTION_DIGITS - 1; digit >= 0; digit--) {
+                out.append((char) ('0' + minor / POWERS_OF_TEN[digit] % 10));
+            }
+        }
+        return out;
+    }
+}
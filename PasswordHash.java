@@ -0,0 +1,84 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Salted PBKDF2-HMAC-SHA256 hash of a password. Stored as "pbkdf2-sha256$iterations$salt$hash"
+// so the iteration count can be raised later without invalidating existing users.
+// Hashing is deliberately slow (~0.25 s at the default count), keep it off the FX thread.
+public final class PasswordHash {
+    public static final int DEFAULT_ITERATIONS = Integer.getInteger("expensetracker.passwordIterations", 600_000);
+
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PasswordHash(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    public static PasswordHash create(String password) {
+        return create(password, DEFAULT_ITERATIONS);
+    }
+
+    public static PasswordHash create(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(iterations, salt, derive(password, salt, iterations));
+    }
+
+    // Returns null if encoded is not in the stored format
+    public static PasswordHash parse(String encoded) {
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(PREFIX)) {
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            return new PasswordHash(Integer.parseInt(parts[1]), decoder.decode(parts[2]), decoder.decode(parts[3]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean matches(String password) {
+        // Constant-time comparison, so response times say nothing about how close a guess was
+        return MessageDigest.isEqual(hash, derive(password, salt, iterations));
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public String encoded() {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA256 is a required algorithm on every Java platform
+            throw new IllegalStateException("PBKDF2 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    @Override
+    public String toString() {
+        // Never print the hash itself
+        return PREFIX + "$" + iterations;
+    }
+}
@@ -0,0 +1,51 @@
+import javafx.scene.Scene;
+import java.util.*;
+import java.util.function.Supplier;
+
+// A screen whose node graph is built once and kept in SceneCache between navigations
+interface CachedScreen {
+    Scene getScene();
+
+    // Drop references to the signed-out user so the cache does not keep them alive
+    default void signedOut() {
+    }
+}
+
+// Keeps the most recently shown screens alive so switching back to one reuses its Scene instead
+// of rebuilding the node graph. Bounded, least recently used screens are dropped first.
+// FX thread only.
+public class SceneCache {
+    private static final int MAX_SCREENS = Integer.getInteger("expensetracker.sceneCacheSize", 6);
+
+    private static final Map<String, CachedScreen> screens = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedScreen> eldest) {
+            if (size() <= MAX_SCREENS) {
+                return false;
+            }
+            // Unhooks it from the user's ledger, which would otherwise keep the screen reachable
+            eldest.getValue().signedOut();
+            return true;
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public static <T extends CachedScreen> T get(String key, Supplier<T> factory) {
+        CachedScreen screen = screens.get(key);
+        if (screen == null) {
+            screen = factory.get();
+            screens.put(key, screen);
+        }
+        return (T) screen;
+    }
+
+    public static void signedOut() {
+        for (CachedScreen screen : screens.values()) {
+            screen.signedOut();
+        }
+    }
+
+    public static int size() {
+        return screens.size();
+    }
+}
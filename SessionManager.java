@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Keeps the ledgers of users who are not using the app off the heap. Every known user is tracked
+// in least-recently-used order; once the ledgers in memory add up to more than the budget, the
+// ones used longest ago are written to a page file (LedgerSnapshot format) and dropped, see
+// ExpenseLedger.pageOut. The budget counts bytes, so one large idle ledger frees as much as many
+// small ones. Signed-in users are never paged out. A paged-out ledger loads itself back on its
+// next use, usually the next sign-in.
+//
+// Page files are only a cache: the journal still has every expense. They are deleted on start.
+// Eviction runs on its own thread and takes one ledger lock at a time, then the manager's lock
+// inside it, the order page-ins take them in.
+public class SessionManager {
+    private static final Histogram pageOutTimer = Metrics.timer("session.pageOut");
+    private static final Counter pageIns = Metrics.counter("session.pageIns");
+
+    private static final class Session {
+        final User user;
+        final int id;
+        // Guarded by the manager
+        int signedIn = 0;
+        boolean pagedOut = false;
+        // Only used by the evictor thread: the page file and the ledger state it holds
+        Path file;
+        int fileRows = -1;
+        long fileModifications = -1;
+
+        Session(User user, int id) {
+            this.user = user;
+            this.id = id;
+        }
+    }
+
+    private final Path directory;
+    private final long budgetBytes;
+    // Access order, least recently used first
+    private final LinkedHashMap<User, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private int nextId = 0;
+    private volatile long residentBytes = 0;
+    private volatile int pagedOutCount = 0;
+
+    private final ExecutorService evictor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "session-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean evictionQueued = new AtomicBoolean();
+
+    public SessionManager(Path directory, long budgetBytes) throws IOException {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*.expb")) {
+            for (Path file : stale) {
+                Files.delete(file);
+            }
+        }
+        Metrics.gauge("session.residentBytes", () -> residentBytes);
+        Metrics.gauge("session.pagedOut", () -> pagedOutCount);
+    }
+
+    // Starts tracking a user, e.g. one just loaded from the journal or signed up; idle until signedIn()
+    public void track(User user) {
+        synchronized (this) {
+            session(user);
+        }
+        queueEviction();
+    }
+
+    // Loads the user's ledger if it was paged out, on the calling thread, and keeps it in memory
+    // until signedOut()
+    public void signedIn(User user) {
+        synchronized (this) {
+            session(user).signedIn++;
+        }
+        // Any read brings the rows back
+        user.getLedger().size();
+    }
+
+    public void signedOut(User user) {
+        synchronized (this) {
+            Session session = session(user);
+            session.signedIn = Math.max(0, session.signedIn - 1);
+        }
+        queueEviction();
+    }
+
+    // Marks the user as just used without pinning them, e.g. for a server request
+    public synchronized void touch(User user) {
+        session(user);
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getPagedOutCount() {
+        return pagedOutCount;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    // Waits for the eviction pass in progress, if any, and any queued one
+    public void awaitEviction() throws InterruptedException {
+        try {
+            evictor.submit(() -> { }).get();
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        evictor.shutdownNow();
+    }
+
+    // Caller holds the lock; also moves the session to the most recently used end
+    private Session session(User user) {
+        Session session = sessions.get(user);
+        if (session == null) {
+            session = new Session(user, nextId++);
+            sessions.put(user, session);
+        }
+        return session;
+    }
+
+    private void queueEviction() {
+        if (evictionQueued.compareAndSet(false, true)) {
+            evictor.execute(() -> {
+                evictionQueued.set(false);
+                try {
+                    evict();
+                } catch (RuntimeException e) {
+                    System.err.println("Error paging out idle expenses: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // Runs in the ledger's lock when a paged-out ledger has been loaded back. Leaves the LRU order
+    // alone: signedIn() and touch() mark what the user used, a page-in may come from anywhere.
+    private void pagedIn(Session session) {
+        pageIns.increment();
+        synchronized (this) {
+            session.pagedOut = false;
+            pagedOutCount--;
+        }
+        queueEviction();
+    }
+
+    private void evict() {
+        List<Session> resident = new ArrayList<>();
+        synchronized (this) {
+            for (Session session : sessions.values()) {
+                if (!session.pagedOut) {
+                    resident.add(session);
+                }
+            }
+        }
+        long[] bytes = new long[resident.size()];
+        long total = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = resident.get(i).user.getLedger().residentBytes();
+            total += bytes[i];
+        }
+        for (int i = 0; i < bytes.length && total > budgetBytes; i++) {
+            Session session = resident.get(i);
+            synchronized (this) {
+                if (session.signedIn > 0) {
+                    continue;
+                }
+            }
+            try {
+                if (pageOut(session)) {
+                    total -= bytes[i];
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not page out " + session.user.getUsername(), e);
+            }
+        }
+        residentBytes = total;
+    }
+
+    private boolean pageOut(Session session) throws IOException {
+        long start = System.nanoTime();
+        ExpenseLedger ledger = session.user.getLedger();
+        synchronized (ledger) {
+            if (ledger.isPagedOut()) {
+                return false;
+            }
+            // A ledger that has not changed since it was loaded from its page file is still in it
+            if (ledger.size() != session.fileRows || ledger.modifications() != session.fileModifications) {
+                if (session.file == null) {
+                    session.file = directory.resolve(session.id + ".expb");
+                }
+                LedgerSnapshot.write(session.user, session.file, false);
+                session.fileRows = ledger.size();
+                session.fileModifications = ledger.modifications();
+            }
+            ledger.pageOut(session.file, () -> pagedIn(session));
+            // Still in the ledger lock, so a page-in cannot slip in before the session is marked
+            synchronized (this) {
+                session.pagedOut = true;
+                pagedOutCount++;
+            }
+        }
+        pageOutTimer.recordSince(start);
+        return true;
+    }
+}
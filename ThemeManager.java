@@ -1,5 +1,7 @@
+import javafx.css.PseudoClass;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import java.util.*;
 
 class ThemeApplicationException extends Exception {
     public ThemeApplicationException(String message) {
@@ -10,6 +12,10 @@ class ThemeApplicationException extends Exception {
     }
 }
 
+// Both stylesheets are attached once to every scene that is shown, with their rules scoped to a
+// :dark or :light pseudo-class on the root. Toggling only flips that pseudo-class on each
+// registered root, so no stylesheet is removed, looked up or parsed again, and every open scene
+// switches in the same pulse.
 public class ThemeManager {
     private static boolean isDarkMode = false;  
 
@@ -19,6 +25,17 @@ public class ThemeManager {
     private static final String DARK_MODE_CSS = "darkmode.css";
     private static final String LIGHT_MODE_CSS = "lightmode.css";
 
+    private static final PseudoClass DARK = PseudoClass.getPseudoClass("dark");
+    private static final PseudoClass LIGHT = PseudoClass.getPseudoClass("light");
+
+    // Scenes that have the stylesheets attached; weak so evicted screens can be collected
+    private static final Set<Scene> scenes = Collections.newSetFromMap(new WeakHashMap<>());
+
+    // Toggle latency: flipping the pseudo-classes plus restyling the scene on screen. Shown with
+    // the other timings by Metrics and the diagnostics panel.
+    private static final Histogram toggleTimer = Metrics.timer("theme.toggle");
+    private static final Histogram applyTimer = Metrics.timer("theme.apply");
+
     // private static final String DARK_MODE_CSS = 
     //     ".root { -fx-background-color: #000000; }\n" +
     //     ".region { -fx-background-color: #333333; -fx-text-fill: #FFFFFF; }";
@@ -28,30 +45,39 @@ public class ThemeManager {
     //     ".region { -fx-background-color: #FFFFFF; -fx-text-fill: #000000; }";
 
     
-    // Method to toggle theme and apply it to the entire stage
+    // Method to toggle theme and apply it to every registered scene
     public static void toggleTheme(Stage stage) {
-        try {
-            isDarkMode = !isDarkMode;
-            applyTheme(stage.getScene(),stage);
-        } 
-        catch (ThemeApplicationException e) {
-            System.err.println("Error applying theme: " + e.getMessage());
+        long start = System.nanoTime();
+        isDarkMode = !isDarkMode;
+        for (Scene scene : scenes) {
+            setMode(scene);
         }
+        // Restyle the visible scene now so the measurement covers the real work; the others
+        // are restyled by JavaFX when they are next shown
+        Scene current = stage.getScene();
+        if (current != null && current.getRoot() != null) {
+            current.getRoot().applyCss();
+        }
+        toggleTimer.recordSince(start);
     }
 
-    // Method to apply the current theme to the scene
+    // Method to apply the current theme to the scene, attaching the stylesheets the first time
     public static void applyTheme(Scene scene, Stage primaryStage)throws ThemeApplicationException {
         if (scene == null || scene.getRoot() == null) {
             throw new ThemeApplicationException("Scene or root container is null. Cannot apply theme.");
         }
-        scene.getStylesheets().clear(); 
-        // String css = isDarkMode ? DARK_MODE_CSS : LIGHT_MODE_CSS;
-        // scene.getRoot().setStyle(css);
-        if (isDarkMode) {
-            scene.getStylesheets().add(DARK_MODE_CSS);
-        } else {
-            scene.getStylesheets().add(LIGHT_MODE_CSS);
+        long start = System.nanoTime();
+        if (scenes.add(scene)) {
+            scene.getStylesheets().addAll(LIGHT_MODE_CSS, DARK_MODE_CSS);
         }
+        setMode(scene);
+        applyTimer.recordSince(start);
+    }
+
+    private static void setMode(Scene scene) {
+        // Scenes can get a new root; the pseudo-class lives on whatever root is current
+        scene.getRoot().pseudoClassStateChanged(DARK, isDarkMode);
+        scene.getRoot().pseudoClassStateChanged(LIGHT, !isDarkMode);
     }
 }
 
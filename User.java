@@ -0,0 +1,113 @@
+import javafx.stage.Stage;
+import java.util.List;
+
+interface UserAuthentication {
+    boolean authenticateUser(String username, String password);
+    boolean authenticateUser(StringBuffer usernameBuffer, String password);
+}
+
+abstract class UserRole {
+    private final boolean isPremium;
+
+    public UserRole(boolean isPremium) {
+        this.isPremium = isPremium;
+    }
+
+    public boolean isPremium() {
+        return isPremium;
+    }
+
+    public abstract void showView(Stage primaryStage);
+}
+
+class User extends UserRole implements UserAuthentication {
+    private final String username;
+    private final PasswordHash passwordHash;
+    private final ExpenseLedger expenses;
+    private final ExpenseWriteBuffer writeBuffer;
+    // Created when first asked for, most users never set a budget
+    private BudgetRules budgetRules = null;
+    // Attached to budgetRules once it exists, see setBudgetRulesListener()
+    private BudgetRulesListener budgetRulesListener = null;
+
+    // Hashes the password, which takes a while; use the PasswordHash constructor for bulk loads
+    public User(String username, String password, boolean isPremium) {
+        this(username, PasswordHash.create(password), isPremium);
+    }
+
+    public User(String username, PasswordHash passwordHash, boolean isPremium) {
+        super(isPremium);
+        this.username = username;
+        this.passwordHash = passwordHash;
+        this.expenses = new ExpenseLedger();
+        this.writeBuffer = new ExpenseWriteBuffer(expenses);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public PasswordHash getPasswordHash() {
+        return passwordHash;
+    }
+
+    public List<Expense> getExpenses() {
+        return expenses.asList();
+    }
+
+    public ExpenseLedger getLedger() {
+        return expenses;
+    }
+
+    // Preferred way to add expenses from the UI or request threads, see ExpenseWriteBuffer
+    public ExpenseWriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    public synchronized BudgetRules getBudgetRules() {
+        if (budgetRules == null) {
+            budgetRules = new BudgetRules(expenses);
+            if (budgetRulesListener != null) {
+                budgetRules.addRulesListener(budgetRulesListener);
+            }
+        }
+        return budgetRules;
+    }
+
+    // The budgets if they have been asked for, null otherwise; does not create them
+    synchronized BudgetRules existingBudgetRules() {
+        return budgetRules;
+    }
+
+    // Listens to the budgets without creating them for users who never set one. Null detaches.
+    synchronized void setBudgetRulesListener(BudgetRulesListener listener) {
+        if (budgetRules != null) {
+            if (budgetRulesListener != null) {
+                budgetRules.removeRulesListener(budgetRulesListener);
+            }
+            if (listener != null) {
+                budgetRules.addRulesListener(listener);
+            }
+        }
+        budgetRulesListener = listener;
+    }
+
+    @Override
+    public boolean authenticateUser(String username, String password) {
+        return this.username.equals(username) && passwordHash.matches(password);
+    }
+
+    @Override
+    public boolean authenticateUser(StringBuffer usernameBuffer, String password) {
+        return this.username.contentEquals(usernameBuffer) && passwordHash.matches(password);
+    }
+
+    @Override
+    public void showView(Stage primaryStage) {
+        if (isPremium()) {
+            ExpenseTrackerView.display(primaryStage, this, "PremiumView", PremiumView::new);
+        } else {
+            ExpenseTrackerView.display(primaryStage, this, "NormalView", NormalView::new);
+        }
+    }
+}
@@ -4,8 +4,8 @@ public class Utility {
     private static final List<User> userDatabase = new ArrayList<>();
 
     public static boolean isValidCategory(String category) {
-        List<String> validCategories = List.of("Food", "Travel", "Entertainment", "Others");
-        return validCategories.contains(category);
+        // One of the standard categories, ignoring case
+        return CategoryRegistry.isStandard(category);
     }
 
     public static void addUser(User user) {
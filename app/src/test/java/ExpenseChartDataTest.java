@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+// The bounded bar and line data the chart screen draws
+class ExpenseChartDataTest {
+    @Test
+    void downsampleKeepsTheEndsAndReturnsExactlyThreshold() {
+        Random random = new Random(22);
+        for (int count : new int[] { ExpenseChartData.MAX_POINTS + 1, ExpenseChartData.MAX_POINTS + 7, 1000, 4567, 100_000 }) {
+            long[] x = new long[count];
+            long[] y = new long[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = 18_000 + i;
+                y[i] = random.nextInt(100_000);
+            }
+            int[] kept = ExpenseChartData.downsample(x, y, count, ExpenseChartData.MAX_POINTS);
+            assertEquals(ExpenseChartData.MAX_POINTS, kept.length, "count " + count);
+            assertEquals(0, kept[0]);
+            assertEquals(count - 1, kept[kept.length - 1]);
+            for (int i = 1; i < kept.length; i++) {
+                assertTrue(kept[i] > kept[i - 1], "indexes must ascend, count " + count);
+            }
+        }
+    }
+
+    @Test
+    void downsampleKeepsEveryPointUpToThreshold() {
+        long[] x = { 1, 2, 3, 4, 5 };
+        long[] y = { 5, 1, 4, 1, 5 };
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, ExpenseChartData.downsample(x, y, 5, 5));
+        assertArrayEquals(new int[] { 0, 1, 2 }, ExpenseChartData.downsample(x, y, 3, ExpenseChartData.MAX_POINTS));
+        assertArrayEquals(new int[0], ExpenseChartData.downsample(x, y, 0, ExpenseChartData.MAX_POINTS));
+    }
+
+    @Test
+    void downsampleKeepsASpike() {
+        int count = 10_000;
+        long[] x = new long[count];
+        long[] y = new long[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = i;
+            y[i] = 100;
+        }
+        y[6_543] = 1_000_000;
+        int[] kept = ExpenseChartData.downsample(x, y, count, ExpenseChartData.MAX_POINTS);
+        assertTrue(Arrays.stream(kept).anyMatch(i -> i == 6_543));
+    }
+
+    @Test
+    void otherCategoriesHoldsTheDroppedTotals() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        long all = 0;
+        for (int c = 0; c < 50; c++) {
+            long total = (c * 7919L) % 1000 - 100;
+            totals.put("Category " + c, total);
+            all += total;
+        }
+        Map<String, Long> top = ExpenseChartData.topCategories(totals, ExpenseChartData.MAX_BARS);
+        assertEquals(ExpenseChartData.MAX_BARS + 1, top.size());
+
+        long dropped = 0;
+        long smallestKept = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            if (top.containsKey(total.getKey())) {
+                assertEquals(total.getValue(), top.get(total.getKey()));
+                smallestKept = Math.min(smallestKept, total.getValue());
+            } else {
+                dropped += total.getValue();
+            }
+        }
+        assertEquals(dropped, top.get(ExpenseChartData.OTHER));
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            if (!top.containsKey(total.getKey())) {
+                assertTrue(total.getValue() <= smallestKept, total.getKey() + " should have been kept");
+            }
+        }
+        long sum = 0;
+        for (long total : top.values()) {
+            sum += total;
+        }
+        assertEquals(all, sum);
+    }
+
+    @Test
+    void tiesAtTheCutGoToTheFirstCategories() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("A", 5L);
+        totals.put("B", 9L);
+        totals.put("C", 5L);
+        totals.put("D", 5L);
+        totals.put("E", 1L);
+        Map<String, Long> top = ExpenseChartData.topCategories(totals, 3);
+        assertEquals(List.of("A", "B", "C", ExpenseChartData.OTHER), new ArrayList<>(top.keySet()));
+        assertEquals(6L, top.get(ExpenseChartData.OTHER));
+    }
+
+    @Test
+    void fewCategoriesAreLeftAlone() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("Food", 10L);
+        totals.put("Travel", 20L);
+        assertSame(totals, ExpenseChartData.topCategories(totals, ExpenseChartData.MAX_BARS));
+    }
+}
@@ -0,0 +1,205 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Round trips through the journal: records written, the journal closed, and everything replayed
+// into UserDatabase on the next open. UserDatabase is global, so every test uses its own names
+// and forgets them before reopening.
+class ExpenseJournalTest {
+    private static final long NEVER = Long.MAX_VALUE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysUsersExpensesRemovesAndClears() throws Exception {
+        ExpenseJournal journal = ExpenseJournal.open(dir, 10, NEVER);
+        User user = newUser(journal, "replay", true);
+        User cleared = newUser(journal, "replay-cleared", false);
+        ExpenseLedger ledger = user.getLedger();
+        for (int i = 0; i < 3000; i++) {
+            ledger.add(i % 2 == 0 ? i : -i, "Category " + (i % 11), 1_700_000_000_000L + i * 60_000L);
+        }
+        ledger.remove(0);
+        ledger.remove(1500);
+        cleared.getLedger().add(100, "Food", 1L);
+        cleared.getLedger().clear();
+        cleared.getLedger().add(250, "Travel", 2L);
+        List<Row> expected = rows(ledger);
+        journal.close();
+
+        forget("replay", "replay-cleared");
+        ExpenseJournal reopened = ExpenseJournal.open(dir, 10, NEVER);
+        try {
+            User replayed = UserDatabase.findUserByUsername("replay");
+            assertNotSame(user, replayed);
+            assertTrue(replayed.isPremium());
+            assertTrue(replayed.getPasswordHash().matches("secret"));
+            assertEquals(expected, rows(replayed.getLedger()));
+            assertEquals(List.of(new Row(250, "Travel", 2L)), rows(UserDatabase.findUserByUsername("replay-cleared").getLedger()));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void replaysRecordsWrittenAfterASnapshot() throws Exception {
+        ExpenseJournal journal = ExpenseJournal.open(dir, 5, 500);
+        User user = newUser(journal, "snapshot", false);
+        ExpenseLedger ledger = user.getLedger();
+        for (int i = 0; i < 2000; i++) {
+            ledger.add(i, i % 3 == 0 ? "Food" : "Travel", 1_700_000_000_000L + i);
+        }
+        waitFor(() -> Files.exists(dir.resolve("snapshot.bin")));
+        // Lands in the segment after the snapshot
+        ledger.remove(7);
+        ledger.add(-42, "Others", 1_700_000_100_000L);
+        user.getBudgetRules().put(new BudgetRule("Food", 5_000, BudgetWindow.LAST_30_DAYS));
+        user.getBudgetRules().put(new BudgetRule(null, 9_000, BudgetWindow.THIS_MONTH));
+        user.getBudgetRules().remove("food", BudgetWindow.LAST_30_DAYS);
+        List<Row> expected = rows(ledger);
+        journal.close();
+
+        forget("snapshot");
+        ExpenseJournal reopened = ExpenseJournal.open(dir, 5, NEVER);
+        try {
+            User replayed = UserDatabase.findUserByUsername("snapshot");
+            assertEquals(expected, rows(replayed.getLedger()));
+            List<BudgetRule> rules = replayed.getBudgetRules().getRules();
+            assertEquals(1, rules.size());
+            assertNull(rules.get(0).getCategory());
+            assertEquals(9_000, rules.get(0).getLimit());
+            assertEquals(BudgetWindow.THIS_MONTH, rules.get(0).getWindow());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void snapshotsAPagedOutLedgerFromItsPageFile() throws Exception {
+        // The paged user's records alone stay below the snapshot threshold
+        ExpenseJournal journal = ExpenseJournal.open(dir, 5, 6000);
+        User paged = newUser(journal, "paged", false);
+        for (int i = 0; i < 5000; i++) {
+            paged.getLedger().add(i * 3 - 7000, "Category " + (i % 5), 1_600_000_000_000L + i * 1000L);
+        }
+        List<Row> expected = rows(paged.getLedger());
+        Path pageFile = dir.resolve("paged.expb");
+        LedgerSnapshot.write(paged, pageFile, false);
+        paged.getLedger().pageOut(pageFile, () -> {
+        });
+        // Another user's records bring on the snapshot while the first one is paged out
+        User other = newUser(journal, "paged-other", false);
+        for (int i = 0; i < 1500; i++) {
+            other.getLedger().add(i, "Food", 1L);
+        }
+        waitFor(() -> Files.exists(dir.resolve("snapshot.bin")));
+        journal.close();
+        assertTrue(paged.getLedger().isPagedOut());
+
+        forget("paged", "paged-other");
+        ExpenseJournal reopened = ExpenseJournal.open(dir, 5, NEVER);
+        try {
+            assertEquals(expected, rows(UserDatabase.findUserByUsername("paged").getLedger()));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void dropsARecordCutOffMidWrite() throws Exception {
+        ExpenseJournal journal = ExpenseJournal.open(dir, 10, NEVER);
+        User user = newUser(journal, "truncated", false);
+        for (int i = 0; i < 10; i++) {
+            user.getLedger().add(100 + i, "Food", 1_700_000_000_000L + i);
+        }
+        List<Row> expected = rows(user.getLedger()).subList(0, 9);
+        journal.close();
+        Path segment = lastSegment();
+        long length = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // An expense record is 25 bytes, leave part of the last one behind
+            channel.truncate(length - 10);
+        }
+
+        forget("truncated");
+        ExpenseJournal reopened = ExpenseJournal.open(dir, 10, NEVER);
+        User replayed = UserDatabase.findUserByUsername("truncated");
+        assertEquals(expected, rows(replayed.getLedger()));
+        assertEquals(length - 25, Files.size(segment));
+        // New records go after the last whole one
+        replayed.getLedger().add(999, "Travel", 5L);
+        reopened.close();
+
+        forget("truncated");
+        ExpenseJournal again = ExpenseJournal.open(dir, 10, NEVER);
+        try {
+            List<Row> all = new ArrayList<>(expected);
+            all.add(new Row(999, "Travel", 5L));
+            assertEquals(all, rows(UserDatabase.findUserByUsername("truncated").getLedger()));
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    void refusesAJournalKeptInAnotherCurrency() throws Exception {
+        ExpenseJournal journal = ExpenseJournal.open(dir, 10, NEVER);
+        newUser(journal, "currency", false).getLedger().add(1, "Food", 1L);
+        journal.close();
+        Path segment = lastSegment();
+        byte[] bytes = Files.readAllBytes(segment);
+        // The segment opens with its currency record: type, id, then the code as a string
+        String other = Money.CURRENCY.getCurrencyCode().equals("EUR") ? "USD" : "EUR";
+        System.arraycopy(other.getBytes(), 0, bytes, 1 + 4 + 4, 3);
+        Files.write(segment, bytes);
+
+        forget("currency");
+        JournalException refused = assertThrows(JournalException.class, () -> ExpenseJournal.open(dir, 10, NEVER));
+        assertTrue(refused.getMessage().contains(other), refused.getMessage());
+    }
+
+    private static User newUser(ExpenseJournal journal, String username, boolean premium) {
+        User user = new User(username, PasswordHash.create("secret", 1), premium);
+        UserDatabase.addUser(user);
+        journal.recordUser(user);
+        return user;
+    }
+
+    private static void forget(String... usernames) {
+        for (String username : usernames) {
+            UserDatabase.getAllUsers().remove(username);
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("journal-")).max(Comparator.naturalOrder()).orElseThrow();
+        }
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    static List<Row> rows(ExpenseLedger ledger) {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < ledger.size(); i++) {
+            rows.add(new Row(ledger.amountAt(i), ledger.categoryAt(i), ledger.timestampAt(i)));
+        }
+        return rows;
+    }
+
+    record Row(long amount, String category, long timestamp) {
+    }
+}
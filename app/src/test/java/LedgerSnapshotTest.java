@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Backup and page files: what goes in comes back out, row for row
+class LedgerSnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsExtremeAndNegativeAmounts() throws Exception {
+        User user = new User("backup", PasswordHash.create("secret", 1), true);
+        ExpenseLedger ledger = user.getLedger();
+        long[] amounts = { 0, 1, -1, 63, -64, 64, -65, 1L << 40, -(1L << 40), Long.MAX_VALUE / 4, Long.MIN_VALUE / 4 };
+        for (int i = 0; i < amounts.length; i++) {
+            // Timestamps that go backwards make negative deltas too
+            ledger.add(amounts[i], i % 2 == 0 ? "Food" : "Café ☕", i % 3 == 0 ? 1_700_000_000_000L - i : i);
+        }
+        Path file = dir.resolve("backup.expb");
+        assertEquals(amounts.length, LedgerSnapshot.write(user, file));
+
+        User restored = LedgerSnapshot.read(file);
+        assertEquals("backup", restored.getUsername());
+        assertTrue(restored.isPremium());
+        assertTrue(restored.getPasswordHash().matches("secret"));
+        assertEquals(ExpenseJournalTest.rows(ledger), ExpenseJournalTest.rows(restored.getLedger()));
+    }
+
+    @Test
+    void roundTripsMoreRowsThanOneBlock() throws Exception {
+        User user = new User("blocks", PasswordHash.create("secret", 1), false);
+        Random random = new Random(23);
+        long[] amounts = new long[150_000];
+        String[] categories = new String[amounts.length];
+        long[] timestamps = new long[amounts.length];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = random.nextInt(2_000_001) - 1_000_000;
+            categories[i] = "Category " + random.nextInt(40);
+            timestamps[i] = 1_600_000_000_000L + random.nextInt(1_000_000_000);
+        }
+        user.getLedger().addAll(amounts, categories, timestamps, amounts.length);
+        Path file = dir.resolve("blocks.expb");
+        LedgerSnapshot.write(user, file);
+
+        assertEquals(ExpenseJournalTest.rows(user.getLedger()), ExpenseJournalTest.rows(LedgerSnapshot.read(file).getLedger()));
+    }
+
+    @Test
+    void readsPagedOutRowsBackAndScansThemInPlace() throws Exception {
+        User user = new User("paged", PasswordHash.create("secret", 1), false);
+        ExpenseLedger ledger = user.getLedger();
+        for (int i = 0; i < 70_000; i++) {
+            ledger.add(i % 7 == 0 ? -i : i, "Category " + (i % 9), 1_700_000_000_000L + i * 1000L);
+        }
+        List<ExpenseJournalTest.Row> expected = ExpenseJournalTest.rows(ledger);
+        long magnitude = ledger.magnitude();
+        Path file = dir.resolve("paged.expb");
+        LedgerSnapshot.write(user, file, false);
+        int[] pagedIn = { 0 };
+        ledger.pageOut(file, () -> pagedIn[0]++);
+        assertTrue(ledger.isPagedOut());
+        assertEquals(magnitude, ledger.magnitude());
+
+        List<ExpenseJournalTest.Row> scanned = new ArrayList<>();
+        LedgerSnapshot.scanRows(file, new LedgerSnapshot.RowVisitor() {
+            private String[] names;
+
+            @Override
+            public void header(String[] categoryNames, int rowCount) {
+                names = categoryNames;
+                assertEquals(expected.size(), rowCount);
+            }
+
+            @Override
+            public void rows(long[] amounts, int[] categoryIds, long[] timestamps, int count) {
+                for (int i = 0; i < count; i++) {
+                    scanned.add(new ExpenseJournalTest.Row(amounts[i], names[categoryIds[i]], timestamps[i]));
+                }
+            }
+        });
+        assertEquals(expected, scanned);
+        assertTrue(ledger.isPagedOut(), "scanning must not page the rows in");
+
+        assertEquals(expected, ExpenseJournalTest.rows(ledger));
+        assertFalse(ledger.isPagedOut());
+        assertEquals(1, pagedIn[0]);
+        assertEquals(magnitude, ledger.magnitude());
+    }
+
+    @Test
+    void refusesABackupInAnotherCurrency() throws Exception {
+        User user = new User("currency", PasswordHash.create("secret", 1), false);
+        user.getLedger().add(1234, "Food", 1L);
+        Path file = dir.resolve("currency.expb");
+        LedgerSnapshot.write(user, file);
+        byte[] bytes = Files.readAllBytes(file);
+        // Magic, version, then the currency code as a string
+        String other = Money.CURRENCY.getCurrencyCode().equals("EUR") ? "USD" : "EUR";
+        System.arraycopy(other.getBytes(), 0, bytes, 4 + 4 + 4, 3);
+        Files.write(file, bytes);
+
+        IOException refused = assertThrows(IOException.class, () -> LedgerSnapshot.read(file));
+        assertTrue(refused.getMessage().contains(other), refused.getMessage());
+    }
+
+    @Test
+    void refusesATruncatedBackup() throws Exception {
+        User user = new User("short", PasswordHash.create("secret", 1), false);
+        for (int i = 0; i < 1000; i++) {
+            user.getLedger().add(i, "Food", i);
+        }
+        Path file = dir.resolve("short.expb");
+        LedgerSnapshot.write(user, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 20));
+
+        assertThrows(IOException.class, () -> LedgerSnapshot.read(file));
+    }
+}
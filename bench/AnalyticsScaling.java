@@ -0,0 +1,59 @@
+import java.util.concurrent.ForkJoinPool;
+
+// ExpenseAnalytics over one large ledger with 1, 2, 4, ... fork/join threads up to the core count.
+// Each run is the best of `repeats`. Needs roughly 24 bytes of heap per row, e.g. -Xmx3g for 50M.
+//   java -Xmx3g -cp out AnalyticsScaling [rows] [repeats]
+public class AnalyticsScaling {
+    private static final String[] CATEGORIES = {"Food", "Travel", "Entertainment", "Others", "Rent", "Health", "Gifts", "Books"};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        ExpenseLedger ledger = new ExpenseLedger();
+        int batch = 1 << 16;
+        long[] amounts = new long[batch];
+        String[] categories = new String[batch];
+        long[] timestamps = new long[batch];
+        java.util.Random random = new java.util.Random(42);
+        long now = System.currentTimeMillis();
+        for (int added = 0; added < rows; added += batch) {
+            int count = Math.min(batch, rows - added);
+            for (int i = 0; i < count; i++) {
+                // Log-normal-ish amounts in cents: mostly small, a long tail of large ones
+                amounts[i] = Math.round(Math.exp(3 + random.nextGaussian() * 1.2) * 100);
+                categories[i] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                timestamps[i] = now;
+            }
+            ledger.addAll(amounts, categories, timestamps, count);
+        }
+        ExpenseLedger.Columns columns = ledger.columns();
+        System.out.printf("# %,d rows, %d cpus%n", rows, cores);
+
+        double serial = 0;
+        for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            AnalyticsReport report = null;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                report = pool.submit(() -> ExpenseAnalytics.compute(columns, ExpenseAnalytics.DEFAULT_PERCENTILES,
+                        ExpenseAnalytics.DEFAULT_BINS)).get();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            double ms = best / 1e6;
+            if (threads == 1) {
+                serial = ms;
+                System.out.printf("p50 %s  p90 %s  p99 %s  top %s%n", Money.format(report.percentile(0.5)),
+                        Money.format(report.percentile(0.9)), Money.format(report.percentile(0.99)),
+                        report.topCategories(1).get(0).getCategory());
+            }
+            System.out.printf("%2d threads  %8.1f ms  speedup %.2fx%n", threads, ms, serial / ms);
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
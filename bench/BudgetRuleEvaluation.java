@@ -0,0 +1,122 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+// 10k budgets on one ledger under a steady stream of new expenses: append cost per row without
+// budgets, with BudgetRules evaluating them incrementally, and with every budget on the
+// expense's category re-queried from the time index on each append instead. Also single-row
+// append latency with the budgets attached. Expenses fall in the last 60 days, over 2,000
+// categories; budgets are spread over the categories and the three windows.
+//   java -cp out BudgetRuleEvaluation [rows] [rules]
+public class BudgetRuleEvaluation {
+    private static final int CATEGORIES = 2_000;
+    private static final int BATCH = 64;
+    private static final int REQUERY_ROWS = 20_000;
+    private static final int SINGLE_ADDS = 100_000;
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int ruleCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        String[] names = new String[CATEGORIES];
+        for (int c = 0; c < CATEGORIES; c++) {
+            names[c] = "Category " + c;
+        }
+        System.out.printf("# %,d rows, %,d budgets, %,d categories, %d cpus%n", rows, ruleCount, CATEGORIES,
+                Runtime.getRuntime().availableProcessors());
+
+        // Warm-up, so the first measurement is not the one that pays for compilation
+        append(new ExpenseLedger(), names, rows / 10, new Random(1));
+        ExpenseLedger plain = new ExpenseLedger();
+        double plainNanos = append(plain, names, rows, new Random(42));
+        System.out.printf("no budgets        %8.1f ns/row%n", plainNanos);
+
+        ExpenseLedger budgeted = new ExpenseLedger();
+        BudgetRules rules = new BudgetRules(budgeted);
+        long[] alerts = new long[1];
+        rules.addListener(alert -> alerts[0]++);
+        BudgetRule[] budgets = budgets(names, ruleCount, new Random(7));
+        long start = System.nanoTime();
+        for (BudgetRule budget : budgets) {
+            rules.put(budget);
+        }
+        System.out.printf("adding budgets    %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+        double budgetedNanos = append(budgeted, names, rows, new Random(42));
+        System.out.printf("incremental       %8.1f ns/row, %,d alerts%n", budgetedNanos, alerts[0]);
+
+        // Every budget on the category asks for its window total after each append
+        List<List<BudgetRule>> byCategory = new ArrayList<>();
+        for (int c = 0; c < CATEGORIES; c++) {
+            byCategory.add(new ArrayList<>());
+        }
+        for (BudgetRule budget : budgets) {
+            if (budget.getCategory() != null) {
+                byCategory.get(Integer.parseInt(budget.getCategory().substring("Category ".length()))).add(budget);
+            }
+        }
+        ExpenseLedger requeried = new ExpenseLedger();
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        long now = System.currentTimeMillis();
+        long over = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < REQUERY_ROWS; i++) {
+            int category = random.nextInt(CATEGORIES);
+            requeried.add(1 + random.nextInt(10_000), names[category], now - random.nextInt(60) * DAY_MILLIS);
+            for (BudgetRule budget : byCategory.get(category)) {
+                long spent = requeried.totalsBetween(budget.getWindow().firstDay(today), today.plusDays(1))
+                        .getCategoryTotals().getOrDefault(names[category], 0L);
+                if (spent > budget.getLimit()) {
+                    over++;
+                }
+            }
+        }
+        System.out.printf("re-query          %8.1f ns/row over the first %,d rows, %,d checks over%n",
+                (System.nanoTime() - start) / (double) REQUERY_ROWS, REQUERY_ROWS, over);
+
+        long[] nanos = new long[SINGLE_ADDS];
+        random = new Random(43);
+        for (int i = 0; i < SINGLE_ADDS; i++) {
+            int category = random.nextInt(CATEGORIES);
+            long timestamp = now - random.nextInt(60) * DAY_MILLIS;
+            start = System.nanoTime();
+            budgeted.add(1 + random.nextInt(10_000), names[category], timestamp);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("single add        p50 %.2f us  p99 %.2f us  max %.2f us%n", nanos[SINGLE_ADDS / 2] / 1e3,
+                nanos[SINGLE_ADDS * 99 / 100] / 1e3, nanos[SINGLE_ADDS - 1] / 1e3);
+    }
+
+    // Ten all-category budgets, the rest on random categories with random windows
+    private static BudgetRule[] budgets(String[] names, int count, Random random) {
+        BudgetWindow[] windows = BudgetWindow.values();
+        BudgetRule[] budgets = new BudgetRule[count];
+        for (int i = 0; i < count; i++) {
+            String category = i < 10 ? null : names[random.nextInt(names.length)];
+            budgets[i] = new BudgetRule(category, 1 + random.nextInt(5_000_000), windows[random.nextInt(windows.length)]);
+        }
+        return budgets;
+    }
+
+    // Appends in batches the size ExpenseWriteBuffer produces under load, returns ns per row
+    private static double append(ExpenseLedger ledger, String[] names, int rows, Random random) {
+        long[] amounts = new long[BATCH];
+        String[] categories = new String[BATCH];
+        long[] timestamps = new long[BATCH];
+        long now = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+        long nanos = 0;
+        for (int added = 0; added < rows; added += BATCH) {
+            int count = Math.min(BATCH, rows - added);
+            for (int i = 0; i < count; i++) {
+                amounts[i] = 1 + random.nextInt(10_000);
+                categories[i] = names[random.nextInt(names.length)];
+                timestamps[i] = now - random.nextInt(60 * 86_400) * 1000L;
+            }
+            long start = System.nanoTime();
+            ledger.addAll(amounts, categories, timestamps, count);
+            nanos += System.nanoTime() - start;
+        }
+        return nanos / (double) rows;
+    }
+}
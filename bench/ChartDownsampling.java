@@ -0,0 +1,55 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Random;
+
+// The chart data for a ledger with many custom categories and many years of expenses: how many
+// bars and points the chart gets, against how many categories and days there are, and how long
+// ExpenseChartData.compute takes (median of 21 runs) for each chart period.
+//   java -cp out ChartDownsampling [rows] [categories] [years]
+public class ChartDownsampling {
+    private static final int BATCH = 4096;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int categoryCount = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int years = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String[] names = new String[categoryCount];
+        for (int i = 0; i < categoryCount; i++) {
+            names[i] = "Category " + i;
+        }
+        Random random = new Random(42);
+        long end = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long span = years * 365L * 86_400_000L;
+        ExpenseLedger ledger = new ExpenseLedger();
+        long[] amounts = new long[BATCH];
+        String[] categories = new String[BATCH];
+        long[] timestamps = new long[BATCH];
+        for (int added = 0; added < rows; added += BATCH) {
+            int count = Math.min(BATCH, rows - added);
+            for (int i = 0; i < count; i++) {
+                amounts[i] = 1 + random.nextInt(100_000);
+                // Skewed, so a few categories dominate like in real ledgers
+                categories[i] = names[(int) (categoryCount * Math.pow(random.nextDouble(), 3))];
+                timestamps[i] = end - 1 - (long) (random.nextDouble() * span);
+            }
+            ledger.addAll(amounts, categories, timestamps, count);
+        }
+        System.out.printf("# %,d rows, %,d categories, %d years%n", rows, categoryCount, years);
+
+        for (ChartPeriod period : ChartPeriod.values()) {
+            int categoriesInPeriod = period.categoryTotals(ledger).size();
+            int daysInPeriod = period.dailyTotals(ledger).size();
+            long[] nanos = new long[21];
+            ExpenseChartData chart = null;
+            for (int r = 0; r < nanos.length; r++) {
+                long start = System.nanoTime();
+                chart = ExpenseChartData.compute(ledger, period);
+                nanos[r] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("%-13s %,6d categories -> %2d bars  %,6d days -> %3d points  %6.2f ms%n", period,
+                    categoriesInPeriod, chart.getBars().size(), daysInPeriod, chart.dayCount(), nanos[nanos.length / 2] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.BufferedWriter;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Random;
+
+// Bulk import throughput. Generates a bank-export style CSV once, then imports it a few times:
+//   java -cp out CsvImport /tmp/expenses.csv 5000000 [parsers]
+public class CsvImport {
+    private static final String[] CATEGORIES = { "Food", "Travel", "Entertainment", "Others" };
+
+    public static void main(String[] args) throws Exception {
+        Path file = Paths.get(args[0]);
+        int rows = Integer.parseInt(args[1]);
+        int parsers = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        if (!Files.exists(file)) {
+            generate(file, rows);
+        }
+        System.out.printf("# %d rows, %.1f MB, %d parsers, %d cpus%n", rows, Files.size(file) / 1e6, parsers,
+                Runtime.getRuntime().availableProcessors());
+        ImportListener quiet = new ImportListener() {
+            @Override
+            public void importProgress(long bytesRead, long totalBytes, long rowsImported, long rowsRejected) {
+            }
+
+            @Override
+            public void importFinished(ImportResult result) {
+            }
+
+            @Override
+            public void importFailed(ImportException error) {
+            }
+        };
+        for (int run = 0; run < 5; run++) {
+            User user = new User("someone", PasswordHash.create("password", 1), false);
+            ImportResult result = new ExpenseImporter(user, file, quiet, parsers).run();
+            System.out.printf("run %d: %d rows in %d ms (%.1f M rows/s), %d rejected%n", run, result.getRowsImported(),
+                    result.getElapsedMillis(), result.getRowsImported() / 1e3 / Math.max(1, result.getElapsedMillis()),
+                    result.getRowsRejected());
+        }
+    }
+
+    private static void generate(Path file, int rows) throws Exception {
+        Random random = new Random(42);
+        LocalDate date = LocalDate.of(2015, 1, 1);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("Date,Description,Category,Amount\n");
+            for (int i = 0; i < rows; i++) {
+                if (i % 2000 == 1999) {
+                    date = date.plusDays(1);
+                }
+                int cents = random.nextInt(100_000);
+                out.write(date + ",Card payment " + (i % 1000) + "," + CATEGORIES[random.nextInt(CATEGORIES.length)]
+                        + "," + cents / 100 + "." + (cents % 100 < 10 ? "0" : "") + cents % 100 + "\n");
+            }
+        }
+    }
+}
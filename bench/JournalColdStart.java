@@ -0,0 +1,40 @@
+import java.nio.file.*;
+
+// Measures journal replay time. Write and replay run as separate JVMs so replay is really cold:
+//   java -cp out JournalColdStart write /tmp/journal 10000000 [snapshotRecords]
+//   java -cp out JournalColdStart replay /tmp/journal
+public class JournalColdStart {
+    private static final String[] CATEGORIES = { "Food", "Travel", "Entertainment", "Others", "Rent", "Utilities", "Health", "Gifts" };
+    private static final int USERS = 100;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(args[1]);
+        if (args[0].equals("write")) {
+            int rows = Integer.parseInt(args[2]);
+            long snapshotRecords = args.length > 3 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+            ExpenseJournal journal = ExpenseJournal.open(directory, 100, snapshotRecords);
+            User[] users = new User[USERS];
+            for (int u = 0; u < USERS; u++) {
+                users[u] = new User("user" + u, PasswordHash.create("password" + u, 1), u % 2 == 0);
+                UserDatabase.addUser(users[u]);
+                journal.recordUser(users[u]);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                users[i % USERS].getLedger().add(i, CATEGORIES[i % CATEGORIES.length]);
+            }
+            journal.close();
+            System.out.printf("wrote %d expenses in %d ms%n", rows, (System.nanoTime() - start) / 1_000_000);
+        } else {
+            long start = System.nanoTime();
+            ExpenseJournal journal = ExpenseJournal.open(directory, 100, Long.MAX_VALUE);
+            long elapsed = System.nanoTime() - start;
+            long rows = 0;
+            for (User user : UserDatabase.getAllUsers().values()) {
+                rows += user.getLedger().size();
+            }
+            journal.close();
+            System.out.printf("replayed %d users, %d expenses in %d ms%n", UserDatabase.getAllUsers().size(), rows, elapsed / 1_000_000);
+        }
+    }
+}
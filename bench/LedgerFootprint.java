@@ -0,0 +1,53 @@
+import java.util.*;
+
+// Compares retained heap of the old ArrayList<Expense> storage against ExpenseLedger.
+// Run with a large heap, e.g. java -Xmx3g -cp out LedgerFootprint 1000000 10000000
+public class LedgerFootprint {
+    private static final String[] CATEGORIES = { "Food", "Travel", "Entertainment", "Others", "Rent", "Utilities", "Health", "Gifts" };
+
+    // Keeps the measured structure reachable across the second GC
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[] { 1_000_000, 10_000_000 } : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        System.out.printf("%12s %16s %16s %10s%n", "rows", "ArrayList (MB)", "Ledger (MB)", "ratio");
+        for (int rows : sizes) {
+            long boxed = measure(() -> boxedExpenses(rows));
+            long columnar = measure(() -> ledger(rows));
+            System.out.printf("%12d %16.1f %16.1f %9.1fx%n", rows, boxed / 1e6, columnar / 1e6, (double) boxed / columnar);
+        }
+    }
+
+    private static List<Expense> boxedExpenses(int rows) {
+        List<Expense> expenses = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            // Categories typed into a TextField are distinct String instances, as they were before
+            expenses.add(new Expense(i, new String(CATEGORIES[i % CATEGORIES.length].toCharArray())));
+        }
+        return expenses;
+    }
+
+    private static ExpenseLedger ledger(int rows) {
+        ExpenseLedger ledger = new ExpenseLedger();
+        for (int i = 0; i < rows; i++) {
+            ledger.add(new Expense(i, new String(CATEGORIES[i % CATEGORIES.length].toCharArray())));
+        }
+        return ledger;
+    }
+
+    private static long measure(java.util.function.Supplier<Object> factory) {
+        long before = usedHeap();
+        sink = factory.get();
+        long after = usedHeap();
+        sink = null;
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,59 @@
+// Cost of recording metrics. Prints the time per Histogram.record() and Counter.increment(),
+// single-threaded and contended. It also times the finest-grained instrumented path: a one-row
+// write buffer flush, which records a timer and a batch size each time. Run it once as is and
+// once with -Dexpensetracker.metrics=false to compare the flush numbers.
+//   java -cp out MetricsOverhead [threads]
+public class MetricsOverhead {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        System.out.printf("# metrics %s, %d cpus%n", Metrics.ENABLED ? "on" : "off", Runtime.getRuntime().availableProcessors());
+        Histogram histogram = Metrics.timer("bench.timer");
+        Counter counter = Metrics.counter("bench.counter");
+
+        for (int round = 0; round < 3; round++) {
+            int n = 20_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                histogram.record(i & 0xFFFFF);
+            }
+            double recordNs = (System.nanoTime() - start) / (double) n;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                counter.increment();
+            }
+            double incrementNs = (System.nanoTime() - start) / (double) n;
+            System.out.printf("record %.1f ns  increment %.1f ns  %s%n", recordNs, incrementNs,
+                    contended(histogram, threads, n / threads));
+        }
+
+        User user = new User("bench", PasswordHash.create("password", 1), false);
+        ExpenseWriteBuffer buffer = user.getWriteBuffer();
+        for (int round = 0; round < 5; round++) {
+            user.getLedger().clear();
+            int n = 1_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                buffer.add(i % 100, "Food", i);
+                buffer.flush();
+            }
+            System.out.printf("one-row flush %.1f ns/op%n", (System.nanoTime() - start) / (double) n);
+        }
+    }
+
+    private static String contended(Histogram histogram, int threads, int perThread) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i & 0xFFFFF);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return String.format("record x%d threads %.1f ns", threads, (System.nanoTime() - start) / (double) (threads * perThread));
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Random;
+
+// Per-category totals over ledger-shaped columns, with amounts as doubles (as they used to be
+// stored) and as long minor units (as they are now, summed with plain adds like the ledger and
+// analytics do, and with Math.addExact on every row for comparison). Prints ns per row for each,
+// and how far the double totals drifted from the exact ones. Also times parsing amount text.
+//   java -cp out MoneySummation [rows]
+public class MoneySummation {
+    private static final int CHUNK = 1 << 12;
+    private static final int CATEGORIES = 8;
+    // Results are folded in here so the JIT cannot drop the measured work
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        int chunks = (rows + CHUNK - 1) / CHUNK;
+        double[][] doubles = new double[chunks][CHUNK];
+        long[][] longs = new long[chunks][CHUNK];
+        int[][] ids = new int[chunks][CHUNK];
+        Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            long cents = 1 + random.nextInt(100_000);
+            longs[i / CHUNK][i % CHUNK] = cents;
+            doubles[i / CHUNK][i % CHUNK] = Double.parseDouble(Money.format(cents));
+            ids[i / CHUNK][i % CHUNK] = random.nextInt(CATEGORIES);
+        }
+        System.out.printf("# %,d rows, %d categories%n", rows, CATEGORIES);
+
+        double[] doubleTotals = new double[CATEGORIES];
+        long[] longTotals = new long[CATEGORIES];
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            doubleTotals = sumDoubles(doubles, ids, rows);
+            double doubleNs = (System.nanoTime() - start) / (double) rows;
+            start = System.nanoTime();
+            longTotals = sumLongs(longs, ids, rows);
+            double longNs = (System.nanoTime() - start) / (double) rows;
+            start = System.nanoTime();
+            long[] checked = sumLongsExact(longs, ids, rows);
+            double exactNs = (System.nanoTime() - start) / (double) rows;
+            sink += checked[0];
+            System.out.printf("double %.2f ns/row  long %.2f ns/row  long+addExact %.2f ns/row%n", doubleNs, longNs, exactNs);
+        }
+        double doubleTotal = 0;
+        long exactTotal = 0;
+        for (int c = 0; c < CATEGORIES; c++) {
+            doubleTotal += doubleTotals[c];
+            exactTotal += longTotals[c];
+        }
+        System.out.printf("total exact %s, double %.6f, drift %.6f%n", Money.format(exactTotal), doubleTotal,
+                doubleTotal - Money.toDouble(exactTotal));
+
+        String[] texts = new String[4096];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = Money.format(1 + random.nextInt(100_000));
+        }
+        for (int round = 0; round < 3; round++) {
+            int n = 10_000_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                sink += (long) Double.parseDouble(texts[i & 4095]);
+            }
+            double parseDoubleNs = (System.nanoTime() - start) / (double) n;
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                sink += Money.parse(texts[i & 4095]);
+            }
+            double parseMoneyNs = (System.nanoTime() - start) / (double) n;
+            System.out.printf("Double.parseDouble %.1f ns  Money.parse %.1f ns%n", parseDoubleNs, parseMoneyNs);
+        }
+        System.out.println("# sink " + sink);
+    }
+
+    private static double[] sumDoubles(double[][] amounts, int[][] ids, int rows) {
+        double[] sums = new double[CATEGORIES];
+        for (int row = 0; row < rows; row += CHUNK) {
+            double[] chunk = amounts[row / CHUNK];
+            int[] chunkIds = ids[row / CHUNK];
+            int end = Math.min(CHUNK, rows - row);
+            for (int i = 0; i < end; i++) {
+                sums[chunkIds[i]] += chunk[i];
+            }
+        }
+        return sums;
+    }
+
+    private static long[] sumLongs(long[][] amounts, int[][] ids, int rows) {
+        long[] sums = new long[CATEGORIES];
+        for (int row = 0; row < rows; row += CHUNK) {
+            long[] chunk = amounts[row / CHUNK];
+            int[] chunkIds = ids[row / CHUNK];
+            int end = Math.min(CHUNK, rows - row);
+            for (int i = 0; i < end; i++) {
+                sums[chunkIds[i]] += chunk[i];
+            }
+        }
+        return sums;
+    }
+
+    private static long[] sumLongsExact(long[][] amounts, int[][] ids, int rows) {
+        long[] sums = new long[CATEGORIES];
+        for (int row = 0; row < rows; row += CHUNK) {
+            long[] chunk = amounts[row / CHUNK];
+            int[] chunkIds = ids[row / CHUNK];
+            int end = Math.min(CHUNK, rows - row);
+            for (int i = 0; i < end; i++) {
+                sums[chunkIds[i]] = Math.addExact(sums[chunkIds[i]], chunk[i]);
+            }
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// ExpenseSearchIndex on one large ledger: the time to build the index, the cost it adds to
+// appends, and the median latency of a few typical searches. Needs roughly 40 bytes of heap per
+// row, e.g. -Xmx1g for the default 5M.
+//   java -Xmx1g -cp out SearchQueries [rows]
+public class SearchQueries {
+    private static final String[] CATEGORIES = {"Food", "Travel", "Air Travel", "Entertainment", "Others", "Rent", "Health", "Gifts"};
+    private static final String[] QUERIES = {"travel >200", "air", "food 10..12", ">900", "=500", "ent <5", "gifts", "rent >=999.99"};
+    private static final int BATCH = 1024;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Random random = new Random(42);
+        long[] amounts = new long[BATCH];
+        String[] categories = new String[BATCH];
+        long[] timestamps = new long[BATCH];
+
+        ExpenseLedger plain = new ExpenseLedger();
+        ExpenseLedger indexed = new ExpenseLedger();
+        ExpenseSearchIndex index = new ExpenseSearchIndex(indexed);
+        // Attached to an empty ledger the index is built as rows arrive; an empty search makes it live
+        index.search(SearchQuery.parse("food"));
+        long plainNanos = 0;
+        long indexedNanos = 0;
+        for (int added = 0; added < rows; added += BATCH) {
+            int count = Math.min(BATCH, rows - added);
+            for (int i = 0; i < count; i++) {
+                amounts[i] = 1 + random.nextInt(100_000);
+                categories[i] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            }
+            long start = System.nanoTime();
+            plain.addAll(amounts, categories, timestamps, count);
+            plainNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            indexed.addAll(amounts, categories, timestamps, count);
+            indexedNanos += System.nanoTime() - start;
+        }
+        System.out.printf("# %,d rows, %d cpus%n", rows, Runtime.getRuntime().availableProcessors());
+        System.out.printf("append %.1f ns/row without index, %.1f ns/row with%n", plainNanos / (double) rows, indexedNanos / (double) rows);
+
+        ExpenseSearchIndex rebuilt = new ExpenseSearchIndex(plain);
+        long start = System.nanoTime();
+        rebuilt.search(SearchQuery.parse("food"));
+        System.out.printf("build from %,d existing rows %.0f ms%n", rows, (System.nanoTime() - start) / 1e6);
+
+        for (String query : QUERIES) {
+            SearchQuery parsed = SearchQuery.parse(query);
+            long[] nanos = new long[21];
+            int found = 0;
+            for (int r = 0; r < nanos.length; r++) {
+                start = System.nanoTime();
+                found = index.search(parsed).length;
+                nanos[r] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("%-16s %,10d found  %8.2f ms%n", query, found, nanos[nanos.length / 2] / 1e6);
+        }
+    }
+}
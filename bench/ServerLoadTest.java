@@ -0,0 +1,161 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Closed-loop load test for ExpenseServer: `clients` simulated clients, each sending its next
+// request as soon as the previous one is answered. Run the server in its own JVM with cheap
+// password hashing so sign-up does not dominate, e.g.
+//   java -Dexpensetracker.passwordIterations=1000 -Dexpensetracker.dataDir=/tmp/load -cp out ExpenseServer 8080
+//   java -cp out ServerLoadTest [clients] [seconds] [port] [users]
+// The mix is 50% add expense, 30% category totals, 20% first page of the expense list.
+public class ServerLoadTest {
+    private static final String[] CATEGORIES = {"Food", "Travel", "Entertainment", "Others"};
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+        int users = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        String base = "http://localhost:" + port + "/api/";
+
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2))
+                .build();
+
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        String[] tokens = new String[users];
+        for (int i = 0; i < users; i++) {
+            String credentials = "{\"username\":\"load" + run + "_" + i + "\",\"password\":\"password\",\"premium\":false}";
+            check(http.send(post(base + "signup", credentials, null), HttpResponse.BodyHandlers.ofString()), 201);
+            HttpResponse<String> signIn = check(http.send(post(base + "signin", credentials, null),
+                    HttpResponse.BodyHandlers.ofString()), 200);
+            String body = signIn.body();
+            int start = body.indexOf(":\"") + 2;
+            tokens[i] = body.substring(start, body.indexOf('"', start));
+        }
+        System.out.printf("# %d clients, %d users, %d s, %d cpus%n", clients, users, seconds,
+                Runtime.getRuntime().availableProcessors());
+
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int c = 0; c < clients; c++) {
+            latencies[c] = new long[64];
+            new Client(http, base, tokens[c % users], c, end, latencies, counts, errors, done).next();
+        }
+        done.await();
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int position = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, position, counts[c]);
+            position += counts[c];
+        }
+        Arrays.sort(all);
+        System.out.printf("%d requests (%.0f/s), %d errors%n", total, total / (double) seconds, errors.get());
+        System.out.printf("latency ms: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n", percentile(all, 0.50),
+                percentile(all, 0.90), percentile(all, 0.99), all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+        System.exit(0);
+    }
+
+    private static final class Client {
+        private final HttpClient http;
+        private final String base;
+        private final String token;
+        private final int id;
+        private final long end;
+        private final long[][] latencies;
+        private final int[] counts;
+        private final AtomicInteger errors;
+        private final CountDownLatch done;
+        private final Random random;
+
+        Client(HttpClient http, String base, String token, int id, long end, long[][] latencies, int[] counts,
+               AtomicInteger errors, CountDownLatch done) {
+            this.http = http;
+            this.base = base;
+            this.token = token;
+            this.id = id;
+            this.end = end;
+            this.latencies = latencies;
+            this.counts = counts;
+            this.errors = errors;
+            this.done = done;
+            this.random = new Random(id);
+        }
+
+        void next() {
+            if (System.nanoTime() >= end) {
+                done.countDown();
+                return;
+            }
+            int pick = random.nextInt(10);
+            HttpRequest request;
+            if (pick < 5) {
+                request = post(base + "expenses", "{\"amount\":" + (1 + random.nextInt(10_000)) / 100.0
+                        + ",\"category\":\"" + CATEGORIES[random.nextInt(CATEGORIES.length)] + "\"}", token);
+            } else if (pick < 8) {
+                request = get(base + "totals", token);
+            } else {
+                request = get(base + "expenses?limit=20", token);
+            }
+            long start = System.nanoTime();
+            http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error != null || response.statusCode() >= 300) {
+                    errors.incrementAndGet();
+                } else {
+                    record(System.nanoTime() - start);
+                }
+                next();
+            });
+        }
+
+        private void record(long nanos) {
+            if (counts[id] == latencies[id].length) {
+                latencies[id] = Arrays.copyOf(latencies[id], counts[id] * 2);
+            }
+            latencies[id][counts[id]++] = nanos;
+        }
+    }
+
+    private static HttpRequest post(String uri, String json, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder.build();
+    }
+
+    private static HttpRequest get(String uri, String token) {
+        return HttpRequest.newBuilder(URI.create(uri)).header("Authorization", "Bearer " + token).GET().build();
+    }
+
+    private static HttpResponse<String> check(HttpResponse<String> response, int expected) {
+        if (response.statusCode() != expected) {
+            throw new IllegalStateException(response.uri() + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,93 @@
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Random;
+
+// Many idle users under a SessionManager budget: heap after GC with every ledger in memory and
+// once the idle ones are paged out, how long paging them out took, and the latency of signing a
+// paged-out user back in. Ledger sizes are skewed, most users have tens to hundreds of expenses and a
+// few have many thousands.
+//   java -Xmx3g -cp out SessionEviction [users] [budgetMB] [dir]
+public class SessionEviction {
+    private static final String[] CATEGORIES = { "Food", "Travel", "Entertainment", "Others", "Rent", "Health", "Gifts", "Air Travel" };
+    private static final int SIGN_INS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : 64) << 20;
+        Path dir = Files.createTempDirectory(Paths.get(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir")), "SessionEviction");
+        PasswordHash hash = PasswordHash.create("password", 1);
+        Random random = new Random(42);
+        long[] amounts = new long[4096];
+        String[] categories = new String[4096];
+        long[] timestamps = new long[4096];
+        User[] users = new User[userCount];
+        long rows = 0;
+        long baseline = usedHeap();
+        for (int u = 0; u < userCount; u++) {
+            users[u] = new User("user" + u, hash, false);
+            int size = (int) Math.min(50_000, Math.round(20 * Math.exp(random.nextGaussian() * 1.2 + 1.0)));
+            long timestamp = 1_420_070_400_000L;
+            for (int added = 0; added < size; added += amounts.length) {
+                int count = Math.min(amounts.length, size - added);
+                for (int i = 0; i < count; i++) {
+                    amounts[i] = 1 + random.nextInt(100_000);
+                    categories[i] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                    // A few expenses a day
+                    timestamp += random.nextInt(21_600_000);
+                    timestamps[i] = timestamp;
+                }
+                users[u].getLedger().addAll(amounts, categories, timestamps, count);
+            }
+            rows += size;
+        }
+        long allResident = usedHeap() - baseline;
+        System.out.printf("# %,d users, %,d rows, budget %d MB, %d cpus%n", userCount, rows, budget >> 20, Runtime.getRuntime().availableProcessors());
+        System.out.printf("all in memory     %,8.1f MB heap%n", allResident / 1e6);
+
+        SessionManager sessions = new SessionManager(dir, budget);
+        long start = System.nanoTime();
+        for (User user : users) {
+            sessions.track(user);
+        }
+        sessions.awaitEviction();
+        long pageOutNanos = System.nanoTime() - start;
+        long paged = usedHeap() - baseline;
+        System.out.printf("paged out         %,8.1f MB heap, %,d of %,d users paged out in %.1f s, %,d bytes resident by estimate%n",
+                paged / 1e6, sessions.getPagedOutCount(), userCount, pageOutNanos / 1e9, sessions.getResidentBytes());
+
+        long[] nanos = new long[SIGN_INS];
+        int pagedIn = 0;
+        for (int i = 0; i < SIGN_INS; i++) {
+            User user = users[random.nextInt(userCount)];
+            boolean wasPagedOut = user.getLedger().isPagedOut();
+            start = System.nanoTime();
+            sessions.signedIn(user);
+            nanos[i] = System.nanoTime() - start;
+            sessions.signedOut(user);
+            if (wasPagedOut) {
+                pagedIn++;
+            }
+        }
+        sessions.awaitEviction();
+        Arrays.sort(nanos);
+        System.out.printf("sign-in page-in   %,d of %,d paged out: p50 %.2f ms  p99 %.2f ms  max %.2f ms%n", pagedIn, SIGN_INS,
+                nanos[SIGN_INS / 2] / 1e6, nanos[SIGN_INS * 99 / 100] / 1e6, nanos[SIGN_INS - 1] / 1e6);
+        System.out.printf("after sign-ins    %,8.1f MB heap%n", (usedHeap() - baseline) / 1e6);
+        sessions.shutdown();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sign-in latency through AuthenticationService with real password hashing, with `clients`
+// threads each waiting for its sign-in before sending the next one. Latency is measured from
+// the request to the future completing, so it includes time spent waiting in the queue.
+//   java -cp out SignInLatency [clients] [seconds] [hashThreads] [queueCapacity]
+public class SignInLatency {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int hashThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int queueCapacity = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+        int users = 1_000;
+        PasswordHash hash = PasswordHash.create("password");
+        for (int i = 0; i < users; i++) {
+            UserDatabase.addUser(new User("user" + i, hash, false));
+        }
+        System.out.printf("# %d clients, %d hash threads, queue %d, %d iterations, %d cpus%n", clients, hashThreads,
+                queueCapacity, hash.getIterations(), Runtime.getRuntime().availableProcessors());
+
+        AuthenticationService service = new AuthenticationService(hashThreads, queueCapacity, 5, 60_000);
+        // Warm up the JIT on the hashing code
+        for (int i = 0; i < 4; i++) {
+            service.signIn("user0", "password").get();
+        }
+
+        ConcurrentLinkedQueue<long[]> results = new ConcurrentLinkedQueue<>();
+        AtomicInteger rejected = new AtomicInteger();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            Thread thread = new Thread(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                Random random = new Random(client);
+                while (System.nanoTime() < end) {
+                    String username = "user" + random.nextInt(users);
+                    long start = System.nanoTime();
+                    try {
+                        service.signIn(username, "password").get();
+                    } catch (ExecutionException e) {
+                        rejected.incrementAndGet();
+                        continue;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                results.add(Arrays.copyOf(latencies, count));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = results.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%d sign-ins (%.1f/s), %d rejected%n", all.length, all.length / (double) seconds, rejected.get());
+        System.out.printf("latency ms: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n", percentile(all, 0.50), percentile(all, 0.90),
+                percentile(all, 0.99), all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+
+        // A guesser hammering one account: after 5 failures requests fail at once without hashing
+        long start = System.nanoTime();
+        int limited = 0;
+        for (int i = 0; i < 1_000; i++) {
+            try {
+                service.signIn("user1", "guess" + i).get();
+            } catch (ExecutionException e) {
+                if (e.getCause().getMessage().startsWith("Too many failed")) {
+                    limited++;
+                }
+            }
+        }
+        System.out.printf("1000 wrong guesses for one user: %d rate limited, %.0f ms total%n", limited,
+                (System.nanoTime() - start) / 1e6);
+        service.shutdown();
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
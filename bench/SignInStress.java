@@ -0,0 +1,96 @@
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sign-in lookup throughput (lookup + password check) for 1..N threads, against UserDatabase and
+// against a copy of the old static synchronized lookup for comparison. Passwords use a single
+// PBKDF2 iteration here so the lookup is what gets measured; see SignInLatency for real hashing.
+//   java -cp out SignInStress [users] [seconds]
+public class SignInStress {
+    // The pre-change UserDatabase lookup: one class-wide monitor around the map
+    private static class SynchronizedUserDatabase {
+        private static final Map<String, User> users = new HashMap<>();
+
+        static synchronized void addUser(User user) {
+            users.put(user.getUsername(), user);
+        }
+
+        static synchronized User findUserByUsername(String username) {
+            return users.get(username);
+        }
+    }
+
+    private interface Lookup {
+        User find(String username);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User("user" + i, PasswordHash.create("password" + i, 1), i % 2 == 0));
+        }
+        long start = System.nanoTime();
+        UserDatabase.addUsers(users);
+        System.out.printf("# bulk loaded %d users in %d ms, %d cpus%n", userCount, (System.nanoTime() - start) / 1_000_000, cores);
+        users.forEach(SynchronizedUserDatabase::addUser);
+
+        System.out.printf("%-8s %20s %20s%n", "threads", "lock-free sign-ins/s", "synchronized sign-ins/s");
+        for (int threads = 1; threads <= Math.max(4, cores * 2); threads *= 2) {
+            double lockFree = measure(threads, seconds, userCount, UserDatabase::findUserByUsername);
+            double locked = measure(threads, seconds, userCount, SynchronizedUserDatabase::findUserByUsername);
+            System.out.printf("%-8d %20.0f %20.0f%n", threads, lockFree, locked);
+        }
+    }
+
+    private static double measure(int threads, int seconds, int userCount, Lookup lookup) throws InterruptedException {
+        LongAdder signIns = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] window = new long[2];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                String[] names = new String[1024];
+                String[] passwords = new String[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    int user = random.nextInt(userCount);
+                    names[i] = "user" + user;
+                    passwords[i] = "password" + user;
+                }
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long local = 0;
+                int i = 0;
+                while (System.nanoTime() < window[1]) {
+                    for (int k = 0; k < 256; k++, i = (i + 1) & (names.length - 1)) {
+                        User user = lookup.find(names[i]);
+                        if (user != null && user.authenticateUser(names[i], passwords[i])) {
+                            local++;
+                        }
+                    }
+                }
+                signIns.add(local);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        window[0] = System.nanoTime();
+        window[1] = window[0] + seconds * 1_000_000_000L;
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return signIns.sum() * 1e9 / (System.nanoTime() - window[0]);
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.BufferedWriter;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Random;
+
+// A user's ledger saved as a LedgerSnapshot backup and as a bank-export style CSV: file size,
+// bytes per row, and write and read throughput (best of 5). The CSV is read back with
+// ExpenseImporter and only keeps the date of each expense, the backup keeps the full timestamp.
+//   java -cp out SnapshotVsCsv [rows] [dir]
+public class SnapshotVsCsv {
+    private static final String[] CATEGORIES = { "Food", "Travel", "Entertainment", "Others", "Rent", "Health", "Gifts", "Air Travel" };
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Path dir = Paths.get(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"));
+        Path backup = dir.resolve("SnapshotVsCsv.expb");
+        Path csv = dir.resolve("SnapshotVsCsv.csv");
+        User user = new User("someone", PasswordHash.create("password", 1), true);
+        Random random = new Random(42);
+        long timestamp = 1_420_070_400_000L;
+        long[] amounts = new long[4096];
+        String[] categories = new String[4096];
+        long[] timestamps = new long[4096];
+        for (int added = 0; added < rows; added += amounts.length) {
+            int count = Math.min(amounts.length, rows - added);
+            for (int i = 0; i < count; i++) {
+                amounts[i] = 1 + random.nextInt(100_000);
+                categories[i] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                // Expenses a minute or so apart
+                timestamp += random.nextInt(120_000);
+                timestamps[i] = timestamp;
+            }
+            user.getLedger().addAll(amounts, categories, timestamps, count);
+        }
+        System.out.printf("# %,d rows, %d cpus%n", rows, Runtime.getRuntime().availableProcessors());
+
+        long backupWrite = Long.MAX_VALUE;
+        long backupRead = Long.MAX_VALUE;
+        long csvWrite = Long.MAX_VALUE;
+        long csvRead = Long.MAX_VALUE;
+        ImportListener quiet = new ImportListener() {
+            @Override
+            public void importProgress(long bytesRead, long totalBytes, long rowsImported, long rowsRejected) {
+            }
+
+            @Override
+            public void importFinished(ImportResult result) {
+            }
+
+            @Override
+            public void importFailed(ImportException error) {
+            }
+        };
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            LedgerSnapshot.write(user, backup);
+            backupWrite = Math.min(backupWrite, System.nanoTime() - start);
+            start = System.nanoTime();
+            User restored = LedgerSnapshot.read(backup);
+            backupRead = Math.min(backupRead, System.nanoTime() - start);
+            if (restored.getLedger().size() != rows) {
+                throw new IllegalStateException("Read " + restored.getLedger().size() + " rows");
+            }
+            start = System.nanoTime();
+            writeCsv(user.getLedger(), csv);
+            csvWrite = Math.min(csvWrite, System.nanoTime() - start);
+            start = System.nanoTime();
+            User imported = new User("someone", PasswordHash.create("password", 1), true);
+            new ExpenseImporter(imported, csv, quiet).run();
+            csvRead = Math.min(csvRead, System.nanoTime() - start);
+        }
+        report("backup", Files.size(backup), rows, backupWrite, backupRead);
+        report("csv", Files.size(csv), rows, csvWrite, csvRead);
+        Files.delete(backup);
+        Files.delete(csv);
+    }
+
+    private static void writeCsv(ExpenseLedger ledger, Path file) throws Exception {
+        ZoneId zone = ZoneId.systemDefault();
+        StringBuilder line = new StringBuilder(64);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("date,category,amount\n");
+            for (Expense expense : ledger.asList()) {
+                line.setLength(0);
+                line.append(Instant.ofEpochMilli(expense.getTimestamp()).atZone(zone).toLocalDate()).append(',')
+                        .append(expense.getCategory()).append(',');
+                Money.append(line, expense.getAmount()).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    private static void report(String format, long bytes, int rows, long writeNanos, long readNanos) {
+        System.out.printf("%-7s %8.1f MB  %5.2f bytes/row  write %6.1f M rows/s  read %6.1f M rows/s%n", format,
+                bytes / 1e6, bytes / (double) rows, rows / (writeNanos / 1e3), rows / (readNanos / 1e3));
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Adds `count` expenses one at a time from `writers` threads, once straight into the ledger and
+// once through ExpenseWriteBuffer, and counts the ledger change events and the UI pulses they would
+// cause. Pulses are simulated at 60 Hz: a pulse happens when something changed since the last one,
+// which is how ExpenseListBinding coalesces into Platform.runLater.
+//   java -cp out WriteBatching [count] [writers]
+public class WriteBatching {
+    private static final String[] CATEGORIES = {"Food", "Travel", "Entertainment", "Others"};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.printf("# %d expenses from %d threads, %d cpus%n", count, writers, Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 3; round++) {
+            run("direct", count, writers, false);
+            run("buffered", count, writers, true);
+        }
+    }
+
+    private static void run(String name, int count, int writers, boolean buffered) throws Exception {
+        User user = new User("bench", PasswordHash.create("password", 1), false);
+        ExpenseLedger ledger = user.getLedger();
+        AtomicInteger events = new AtomicInteger();
+        AtomicBoolean dirty = new AtomicBoolean();
+        ledger.addListener(new ExpenseLedgerListener() {
+            @Override
+            public void expensesAppended(ExpenseLedger source, int fromIndex, int toIndex) {
+                events.incrementAndGet();
+                dirty.set(true);
+            }
+
+            @Override
+            public void expensesRemoved(ExpenseLedger source, int fromIndex, int toIndex) {
+            }
+
+            @Override
+            public void expensesCleared(ExpenseLedger source) {
+            }
+        });
+        AtomicInteger pulses = new AtomicInteger();
+        ScheduledExecutorService pulse = Executors.newSingleThreadScheduledExecutor();
+        pulse.scheduleAtFixedRate(() -> {
+            if (dirty.getAndSet(false)) {
+                pulses.incrementAndGet();
+            }
+        }, 16_667, 16_667, TimeUnit.MICROSECONDS);
+
+        long start = System.nanoTime();
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads[w] = new Thread(() -> {
+                for (int i = writer; i < count; i += writers) {
+                    if (buffered) {
+                        user.getWriteBuffer().add(i % 100, CATEGORIES[i & 3], i);
+                    } else {
+                        ledger.add(i % 100, CATEGORIES[i & 3], i);
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        user.getWriteBuffer().flush();
+        long elapsed = System.nanoTime() - start;
+        // Let the last change reach a pulse
+        Thread.sleep(50);
+        pulse.shutdown();
+        if (ledger.size() != count) {
+            throw new IllegalStateException(name + ": ledger has " + ledger.size() + " rows");
+        }
+        System.out.printf("%-8s %7.1f ms  %6d ledger events  %3d pulses%n", name, elapsed / 1e6, events.get(), pulses.get());
+    }
+}
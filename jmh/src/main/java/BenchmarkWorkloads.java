@@ -0,0 +1,105 @@
+import java.util.*;
+import java.util.function.LongUnaryOperator;
+
+// The model operations the JMH benchmarks in package benchmarks measure. The model lives in the
+// unnamed package, which JMH benchmark classes cannot be in or import from, so each workload is
+// built here and handed over as a LongUnaryOperator: call i of the measured loop gets i, and the
+// result is returned to JMH so the work cannot be dropped.
+public class BenchmarkWorkloads {
+    private static final String[] CATEGORIES = { "Food", "Travel", "Entertainment", "Others", "Rent", "Utilities", "Health", "Gifts" };
+
+    // Users built in bulk share one cheap hash, hashing each password for real would take hours
+    private static final PasswordHash SHARED_HASH = PasswordHash.create("password", 1);
+
+    public static LongUnaryOperator databaseFindItem(int items) {
+        Database<User> database = new Database<>();
+        for (int i = 0; i < items; i++) {
+            database.addItem(new User("user" + i, SHARED_HASH, false));
+        }
+        String[] names = names(items);
+        return i -> {
+            String name = names[(int) (i % names.length)];
+            return database.findItem(user -> user.getUsername().equals(name)).getUsername().length();
+        };
+    }
+
+    public static LongUnaryOperator databaseFindEquals(int items) {
+        Database<User> database = indexedDatabase(items);
+        String[] names = names(items);
+        return i -> database.findEquals("username", names[(int) (i % names.length)]).getUsername().length();
+    }
+
+    public static LongUnaryOperator databaseFindRange(int items) {
+        Database<User> database = indexedDatabase(items);
+        String[] names = names(items);
+        return i -> {
+            String from = names[(int) (i % names.length)];
+            return database.findRange("username", from, from + "5").size();
+        };
+    }
+
+    public static LongUnaryOperator findUserByUsername(int users) {
+        for (int i = 0; i < users; i++) {
+            UserDatabase.addUser(new User("user" + i, SHARED_HASH, false));
+        }
+        String[] names = names(users);
+        return i -> UserDatabase.findUserByUsername(names[(int) (i % names.length)]).getUsername().length();
+    }
+
+    // Alternates the right and a wrong password
+    public static LongUnaryOperator authenticateUser() {
+        User user = new User("someone", "correct horse battery staple", false);
+        String[] passwords = { "correct horse battery staple", "wrong password" };
+        return i -> user.authenticateUser("someone", passwords[(int) (i & 1)]) ? 1 : 0;
+    }
+
+    public static LongUnaryOperator isValidCategory() {
+        String[] inputs = { "Food", "Travel", "Entertainment", "Others", "Groceries", "food" };
+        return i -> Utility.isValidCategory(inputs[(int) (i % inputs.length)]) ? 1 : 0;
+    }
+
+    public static LongUnaryOperator categorySummaries(int rows) {
+        User user = ledgerUser(rows);
+        return i -> user.getLedger().categorySummaries().size();
+    }
+
+    // The original showBarChart loop, kept for comparison with categorySummaries
+    public static LongUnaryOperator scanAndMerge(int rows) {
+        User user = ledgerUser(rows);
+        return i -> {
+            Map<String, Long> totals = new HashMap<>();
+            for (Expense expense : user.getExpenses()) {
+                totals.merge(expense.getCategory(), expense.getAmount(), Long::sum);
+            }
+            return totals.size();
+        };
+    }
+
+    private static Database<User> indexedDatabase(int items) {
+        Database<User> database = new Database<>();
+        database.registerField("username", User::getUsername);
+        database.addHashIndex("username");
+        database.addSortedIndex("username");
+        for (int i = 0; i < items; i++) {
+            database.addItem(new User("user" + i, SHARED_HASH, false));
+        }
+        return database;
+    }
+
+    private static User ledgerUser(int rows) {
+        User user = new User("someone", SHARED_HASH, true);
+        for (int i = 0; i < rows; i++) {
+            user.getLedger().add(i, CATEGORIES[i % CATEGORIES.length]);
+        }
+        return user;
+    }
+
+    private static String[] names(int count) {
+        Random random = new Random(42);
+        String[] names = new String[4096];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "user" + random.nextInt(count);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import org.openjdk.jmh.annotations.*;
+
+// Per-request checks that do not depend on any data size: the password check and the category
+// check of the expense form
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckBenchmarks {
+    private LongUnaryOperator authenticate;
+    private LongUnaryOperator validCategory;
+    private long call;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        authenticate = Workloads.create("authenticateUser");
+        validCategory = Workloads.create("isValidCategory");
+    }
+
+    // PBKDF2 with the default iteration count, right and wrong password alternating
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long authenticateUser() {
+        return authenticate.applyAsLong(call++);
+    }
+
+    @Benchmark
+    public long isValidCategory() {
+        return validCategory.applyAsLong(call++);
+    }
+}
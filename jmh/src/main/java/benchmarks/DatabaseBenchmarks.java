@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import org.openjdk.jmh.annotations.*;
+
+// Database<T> lookups: a predicate scan, the hash index and the sorted index
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseBenchmarks {
+    @Param({ "1000", "100000" })
+    public int items;
+
+    private LongUnaryOperator findItem;
+    private LongUnaryOperator findEquals;
+    private LongUnaryOperator findRange;
+    private long call;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        findItem = Workloads.create("databaseFindItem", items);
+        findEquals = Workloads.create("databaseFindEquals", items);
+        findRange = Workloads.create("databaseFindRange", items);
+    }
+
+    @Benchmark
+    public long findItem() {
+        return findItem.applyAsLong(call++);
+    }
+
+    @Benchmark
+    public long findEqualsHash() {
+        return findEquals.applyAsLong(call++);
+    }
+
+    @Benchmark
+    public long findRangeSorted() {
+        return findRange.applyAsLong(call++);
+    }
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import org.openjdk.jmh.annotations.*;
+
+// Category totals for the chart: the ledger's running aggregates against a full scan
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedgerBenchmarks {
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    private LongUnaryOperator summaries;
+    private LongUnaryOperator scan;
+    private long call;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        summaries = Workloads.create("categorySummaries", rows);
+        scan = Workloads.create("scanAndMerge", rows);
+    }
+
+    @Benchmark
+    public long categorySummaries() {
+        return summaries.applyAsLong(call++);
+    }
+
+    @Benchmark
+    public long scanAndMerge() {
+        return scan.applyAsLong(call++);
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import org.openjdk.jmh.annotations.*;
+
+// Finding a user by name at sign-in
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserBenchmarks {
+    // UserDatabase is process-wide, so every size gets its own fork
+    @Param({ "1000", "100000" })
+    public int users;
+
+    private LongUnaryOperator findUser;
+    private long call;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        findUser = Workloads.create("findUserByUsername", users);
+    }
+
+    @Benchmark
+    public long findUserByUsername() {
+        return findUser.applyAsLong(call++);
+    }
+}
@@ -0,0 +1,22 @@
+package benchmarks;
+
+import java.util.function.LongUnaryOperator;
+
+// Looks up a BenchmarkWorkloads factory by name; the class is in the unnamed package, so it can
+// only be reached reflectively. Only used in @Setup, the measured calls go straight to the operator.
+final class Workloads {
+    private Workloads() {
+    }
+
+    static LongUnaryOperator create(String name, int... size) {
+        try {
+            Class<?> workloads = Class.forName("BenchmarkWorkloads");
+            if (size.length == 0) {
+                return (LongUnaryOperator) workloads.getMethod(name).invoke(null);
+            }
+            return (LongUnaryOperator) workloads.getMethod(name, int.class).invoke(null, size[0]);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create workload " + name, e);
+        }
+    }
+}